@@ -0,0 +1,227 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks.Task;
+import org.springframework.data.hadoop.impala.common.util.OutputCapture;
+import org.springframework.data.hadoop.impala.common.util.RecordWriter;
+import org.springframework.data.hadoop.impala.common.util.RecordWriter.Format;
+import org.springframework.shell.core.CommandMarker;
+import org.springframework.shell.core.ExecutionProcessor;
+import org.springframework.shell.core.JLineShellComponent;
+import org.springframework.shell.core.annotation.CliCommand;
+import org.springframework.shell.core.annotation.CliOption;
+import org.springframework.shell.event.ParseResult;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Commands running other commands in the background and managing them. A background command goes
+ * through the same {@link ExecutionProcessor} callbacks as a foreground one; its output is captured
+ * and can be displayed with <code>fg</code> while it runs or once it completed.
+ *
+ * @author Jarred Li
+ */
+@Component
+public class BackgroundCommands extends ConfigurationAware implements CommandMarker {
+
+	public static final String THREADS_KEY = "impala.background.threads";
+
+	private static final long POLL_INTERVAL = 200;
+
+	@Autowired
+	private JLineShellComponent shell;
+
+	private BackgroundTasks tasks;
+
+	@Override
+	protected boolean configurationChanged() {
+		return true;
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (tasks != null) {
+			tasks.shutdown();
+		}
+	}
+
+	@CliCommand(value = "async", help = "Run a command in the background")
+	public String async(@CliOption(key = { "", "command" }, mandatory = true, help = "command line to run, between quotes") final String command) {
+		String line = command.trim();
+		if (line.endsWith("&")) {
+			line = line.substring(0, line.length() - 1).trim();
+		}
+		final ParseResult parseResult = shell.getSimpleParser().parse(line);
+		if (parseResult == null) {
+			// the parser already reported the problem
+			return null;
+		}
+		if (parseResult.getInstance() == this) {
+			LOG.severe("background commands cannot run in the background");
+			return null;
+		}
+		Task task = getTasks().submit(line, new Callable<Object>() {
+			public Object call() throws Exception {
+				return invoke(parseResult);
+			}
+		});
+		return "[" + task.getId() + "] started";
+	}
+
+	@CliCommand(value = "jobs", help = "List the background commands")
+	public void jobs(@CliOption(key = { "purge" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether forget the completed commands after listing them") final boolean purge) {
+		RecordWriter writer = new RecordWriter(Format.of(getHadoopConfiguration()), System.out, "id", "state",
+				"elapsedMillis", "command");
+		for (Task task : getTasks().list()) {
+			writer.write(task.getId(), task.getState().name(), task.getElapsedMillis(), task.getDescription());
+		}
+		if (purge) {
+			getTasks().purge();
+		}
+	}
+
+	@CliCommand(value = "fg", help = "Display the output of a background command until it completes")
+	public void fg(@CliOption(key = { "", "id" }, mandatory = false, help = "command id, the last one started if not specified") final Integer id) {
+		Task task = task(id);
+		if (task == null) {
+			return;
+		}
+		long offset = 0;
+		try {
+			while (!task.await(POLL_INTERVAL)) {
+				offset = print(task, offset);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		print(task, offset);
+		report(task);
+	}
+
+	@CliCommand(value = "cancel", help = "Cancel a background command")
+	public void cancel(@CliOption(key = { "", "id" }, mandatory = true, help = "command id") final Integer id) {
+		Task task = task(id);
+		if (task != null && !task.cancel(true)) {
+			LOG.severe("[" + id + "] already completed");
+		}
+	}
+
+	@CliCommand(value = "wait", help = "Wait for background commands to complete")
+	public void await(
+			@CliOption(key = { "", "id" }, mandatory = false, help = "command id, all the commands if not specified") final Integer id,
+			@CliOption(key = { "timeout" }, mandatory = false, unspecifiedDefaultValue = "0", help = "maximum number of seconds to wait, 0 for no limit") final long timeout) {
+		List<Task> waitFor = new ArrayList<Task>();
+		if (id != null) {
+			Task task = task(id);
+			if (task == null) {
+				return;
+			}
+			waitFor.add(task);
+		}
+		else {
+			waitFor.addAll(getTasks().list());
+		}
+		long deadline = System.currentTimeMillis() + timeout * 1000;
+		try {
+			for (Task task : waitFor) {
+				long remaining = (timeout > 0 ? deadline - System.currentTimeMillis() : 0);
+				if (timeout > 0 && remaining <= 0 || !task.await(remaining)) {
+					break;
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		for (Task task : waitFor) {
+			System.out.println(task);
+		}
+	}
+
+	/**
+	 * Returns the pool running the background commands. Work submitted to it by other commands is
+	 * managed by <code>jobs</code>, <code>fg</code>, <code>cancel</code> and <code>wait</code> as well.
+	 */
+	public synchronized BackgroundTasks getTasks() {
+		if (tasks == null) {
+			OutputCapture.install();
+			tasks = new BackgroundTasks(getHadoopConfiguration().getInt(THREADS_KEY, 4), OutputCapture.console());
+		}
+		return tasks;
+	}
+
+	private Task task(Integer id) {
+		Task task = (id != null ? getTasks().get(id) : getTasks().last());
+		if (task == null) {
+			LOG.severe(id != null ? "No background command [" + id + "]" : "No background command");
+		}
+		return task;
+	}
+
+	private long print(Task task, long offset) {
+		try {
+			offset = task.copyOutput(offset, System.out);
+		} catch (IOException ex) {
+			LOG.severe("cannot display the output of [" + task.getId() + "]: " + ex.getMessage());
+		}
+		System.out.flush();
+		return offset;
+	}
+
+	private void report(Task task) {
+		Throwable failure = task.getFailure();
+		if (failure != null) {
+			LOG.severe("[" + task.getId() + "] failed. Message is: " + failure.getMessage());
+		}
+		else if (task.getResult() != null) {
+			System.out.println(task.getResult());
+		}
+	}
+
+	/**
+	 * Invokes the parsed command the way the shell execution strategy does.
+	 */
+	private Object invoke(ParseResult parseResult) {
+		Object target = parseResult.getInstance();
+		ExecutionProcessor processor = (target instanceof ExecutionProcessor ? (ExecutionProcessor) target : null);
+		if (processor != null) {
+			parseResult = processor.beforeInvocation(parseResult);
+		}
+		try {
+			Object result = ReflectionUtils.invokeMethod(parseResult.getMethod(), parseResult.getInstance(),
+					parseResult.getArguments());
+			if (processor != null) {
+				processor.afterReturningInvocation(parseResult, result);
+			}
+			return result;
+		} catch (RuntimeException ex) {
+			if (processor != null) {
+				processor.afterThrowingInvocation(parseResult, ex);
+			}
+			throw ex;
+		}
+	}
+}
@@ -26,6 +26,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.data.hadoop.configuration.ConfigurationUtils;
+import org.springframework.data.hadoop.impala.common.util.RecordWriter;
 import org.springframework.shell.core.CommandMarker;
 import org.springframework.shell.core.ExecutionProcessor;
 import org.springframework.shell.core.annotation.CliCommand;
@@ -100,6 +101,12 @@ public class ConfigurationCommands implements ApplicationEventPublisherAware, Co
 		hadoopConfiguration.set("mapred.job.tracker", jobtracker);
 	}
 
+	@CliCommand(value = { PREFIX + "output" }, help = "Sets the output format of the fs and mr commands - can be 'text', 'json' or 'csv'")
+	public void outputFormat(@CliOption(key = { "", "format" }, mandatory = true, help = "Output format - text|json|csv") String format) {
+		// the format is read by each command - no need to re-initialize the components
+		hadoopConfiguration.set(RecordWriter.FORMAT_KEY, RecordWriter.Format.of(format).name().toLowerCase());
+	}
+
 	@CliCommand(value = { PREFIX + "info" }, help = "Returns basic info about the Hadoop configuration")
 	public String info() {
 		StringBuilder sb = new StringBuilder();
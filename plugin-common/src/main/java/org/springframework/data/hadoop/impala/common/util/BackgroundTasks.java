@@ -0,0 +1,336 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs commands in the background on a bounded pool of daemon threads. Each task captures the output
+ * of its thread (see {@link OutputCapture}) so it can be retrieved while the task runs or once it is done;
+ * only the most recent {@link #MAX_OUTPUT} bytes of a task are kept.
+ *
+ * @author Jarred Li
+ */
+public class BackgroundTasks {
+
+	public static final int MAX_OUTPUT = 1024 * 1024;
+
+	public enum State {
+		QUEUED, RUNNING, DONE, FAILED, CANCELLED
+	}
+
+	private final AtomicInteger ids = new AtomicInteger();
+
+	private final Map<Integer, Task> tasks = new ConcurrentSkipListMap<Integer, Task>();
+
+	private final ExecutorService executor;
+
+	private final PrintStream console;
+
+	/**
+	 * Creates a new task pool.
+	 *
+	 * @param threads maximum number of tasks running at the same time
+	 * @param console stream notified of the completion of each task, may be <code>null</code>
+	 */
+	public BackgroundTasks(int threads, PrintStream console) {
+		this.console = console;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "background-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Submits a task.
+	 *
+	 * @param description text describing the task, usually the command line
+	 * @param work work to execute, whose result is reported once done
+	 * @return the submitted task
+	 */
+	public Task submit(String description, Callable<Object> work) {
+		Task task = new Task(ids.incrementAndGet(), description, work);
+		tasks.put(task.getId(), task);
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Returns the task with the given id.
+	 *
+	 * @param id task id
+	 * @return the task or <code>null</code> if unknown
+	 */
+	public Task get(int id) {
+		return tasks.get(id);
+	}
+
+	/**
+	 * Returns the most recently submitted task, or <code>null</code> if there is none.
+	 */
+	public Task last() {
+		return tasks.get(ids.get());
+	}
+
+	/**
+	 * Returns all the known tasks, in submission order.
+	 */
+	public List<Task> list() {
+		return new ArrayList<Task>(tasks.values());
+	}
+
+	/**
+	 * Forgets the tasks which are no longer running.
+	 *
+	 * @return the number of tasks removed
+	 */
+	public int purge() {
+		int removed = 0;
+		for (Task task : list()) {
+			if (task.isDone() && tasks.remove(task.getId()) != null) {
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Cancels the running tasks and stops the pool.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * A background task, its state and captured output.
+	 */
+	public class Task extends FutureTask<Object> {
+
+		private final int id;
+		private final String description;
+		private final Output output = new Output();
+		private volatile long started;
+		private volatile long finished;
+
+		Task(int id, String description, Callable<Object> work) {
+			super(work);
+			this.id = id;
+			this.description = description;
+		}
+
+		@Override
+		public void run() {
+			started = System.currentTimeMillis();
+			OutputStream previous = OutputCapture.redirect(output);
+			try {
+				super.run();
+			} finally {
+				OutputCapture.restore(previous);
+			}
+		}
+
+		@Override
+		protected void done() {
+			finished = System.currentTimeMillis();
+			if (console != null) {
+				console.println();
+				console.println(this);
+			}
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public State getState() {
+			if (isCancelled()) {
+				return State.CANCELLED;
+			}
+			if (isDone()) {
+				return (getFailure() != null ? State.FAILED : State.DONE);
+			}
+			return (started > 0 ? State.RUNNING : State.QUEUED);
+		}
+
+		/**
+		 * Returns the time the task has been running (or ran) for, in milliseconds.
+		 */
+		public long getElapsedMillis() {
+			if (started == 0) {
+				return 0;
+			}
+			return (finished > 0 ? finished : System.currentTimeMillis()) - started;
+		}
+
+		/**
+		 * Returns the result of the task, <code>null</code> if it is not done or failed.
+		 */
+		public Object getResult() {
+			if (!isDone() || isCancelled()) {
+				return null;
+			}
+			try {
+				return get();
+			} catch (Exception ex) {
+				return null;
+			}
+		}
+
+		/**
+		 * Returns the exception the task failed with, <code>null</code> if it is not done or succeeded.
+		 */
+		public Throwable getFailure() {
+			if (!isDone() || isCancelled()) {
+				return null;
+			}
+			try {
+				get();
+				return null;
+			} catch (ExecutionException ex) {
+				return ex.getCause();
+			} catch (Exception ex) {
+				return ex;
+			}
+		}
+
+		/**
+		 * Waits for the task to complete.
+		 *
+		 * @param timeout maximum time to wait in milliseconds, 0 to wait indefinitely
+		 * @return whether the task is done
+		 * @throws InterruptedException if the current thread is interrupted while waiting
+		 */
+		public boolean await(long timeout) throws InterruptedException {
+			try {
+				if (timeout > 0) {
+					get(timeout, TimeUnit.MILLISECONDS);
+				}
+				else {
+					get();
+				}
+			} catch (TimeoutException ex) {
+				return false;
+			} catch (InterruptedException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				// done - reported through getState()
+			}
+			return true;
+		}
+
+		/**
+		 * Copies the output captured since the given offset.
+		 *
+		 * @param offset number of bytes already copied
+		 * @param out stream to copy to
+		 * @return the offset to pass on the next call
+		 * @throws IOException if the output cannot be written
+		 */
+		public long copyOutput(long offset, OutputStream out) throws IOException {
+			return output.copy(offset, out);
+		}
+
+		/**
+		 * Returns all the output kept.
+		 */
+		public String getOutput() {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try {
+				output.copy(0, out);
+			} catch (IOException ex) {
+				// cannot happen with an in-memory stream
+			}
+			return out.toString();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("[%d] %-9s %s", id, getState(), description);
+		}
+	}
+
+	/**
+	 * Keeps the most recent bytes written, addressed by their offset in the whole output.
+	 */
+	private static class Output extends OutputStream {
+
+		private byte[] data = new byte[4096];
+		private int count;
+		private long discarded;
+
+		@Override
+		public synchronized void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			if (count + len > MAX_OUTPUT) {
+				// drop the oldest output, keeping half of the buffer free
+				int keep = Math.max(0, Math.min(count, MAX_OUTPUT / 2 - len));
+				if (len > MAX_OUTPUT / 2) {
+					off += len - MAX_OUTPUT / 2;
+					discarded += len - MAX_OUTPUT / 2;
+					len = MAX_OUTPUT / 2;
+				}
+				System.arraycopy(data, count - keep, data, 0, keep);
+				discarded += count - keep;
+				count = keep;
+			}
+			if (count + len > data.length) {
+				byte[] grown = new byte[Math.min(MAX_OUTPUT, Math.max(count + len, data.length * 2))];
+				System.arraycopy(data, 0, grown, 0, count);
+				data = grown;
+			}
+			System.arraycopy(b, off, data, count, len);
+			count += len;
+		}
+
+		/**
+		 * Copies the bytes past the given offset, or all the bytes kept if the offset has been discarded.
+		 */
+		synchronized long copy(long offset, OutputStream out) throws IOException {
+			int start = (int) Math.max(0, Math.min(count, offset - discarded));
+			out.write(data, start, count - start);
+			return discarded + count;
+		}
+	}
+}
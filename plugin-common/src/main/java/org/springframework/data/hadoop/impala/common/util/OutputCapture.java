@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.common.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Redirects, per thread, what commands print to <code>System.out</code>, <code>System.err</code> and
+ * the JDK loggers. Once installed, the standard streams are replaced by streams writing to the target
+ * of the calling thread, or to the original streams if the thread has none. Targets are not inherited,
+ * as the threads a command happens to start first may be shared by the whole process (IPC clients, lease
+ * renewers) and would keep writing to the target of a command long done; the pools of a command create
+ * their threads with {@link #threadFactory()} instead.
+ *
+ * @author Jarred Li
+ */
+public abstract class OutputCapture {
+
+	private static final ThreadLocal<OutputStream> TARGET = new ThreadLocal<OutputStream>();
+
+	private static PrintStream stdout;
+
+	private static PrintStream stderr;
+
+	/**
+	 * Replaces the standard streams and registers the log handler, if not done already.
+	 */
+	public static synchronized void install() {
+		if (stdout != null) {
+			return;
+		}
+		stdout = System.out;
+		stderr = System.err;
+		System.setOut(new PrintStream(new Router(stdout), true));
+		System.setErr(new PrintStream(new Router(stderr), true));
+		Logger.getLogger("").addHandler(new CaptureHandler());
+	}
+
+	/**
+	 * Redirects the output of the current thread.
+	 *
+	 * @param target stream receiving the output
+	 * @return the previous target of the thread, to be passed to {@link #restore(OutputStream)}
+	 */
+	public static OutputStream redirect(OutputStream target) {
+		install();
+		OutputStream previous = TARGET.get();
+		TARGET.set(target);
+		return previous;
+	}
+
+	/**
+	 * Restores the target the current thread had before {@link #redirect(OutputStream)}.
+	 *
+	 * @param previous previous target, <code>null</code> for the original streams
+	 */
+	public static void restore(OutputStream previous) {
+		if (previous == null) {
+			TARGET.remove();
+		}
+		else {
+			TARGET.set(previous);
+		}
+	}
+
+	/**
+	 * Returns a factory creating threads which write to the current target of the calling thread, for the
+	 * pools of a command. The target is released when the thread ends.
+	 */
+	public static ThreadFactory threadFactory() {
+		final OutputStream target = TARGET.get();
+		final ThreadFactory threads = Executors.defaultThreadFactory();
+		return new ThreadFactory() {
+			public Thread newThread(final Runnable runnable) {
+				return threads.newThread(new Runnable() {
+					public void run() {
+						if (target != null) {
+							TARGET.set(target);
+						}
+						try {
+							runnable.run();
+						} finally {
+							TARGET.remove();
+						}
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	 * Returns the original standard output, which is not redirected.
+	 */
+	public static synchronized PrintStream console() {
+		return (stdout != null ? stdout : System.out);
+	}
+
+	private static class Router extends OutputStream {
+
+		private final OutputStream original;
+
+		Router(OutputStream original) {
+			this.original = original;
+		}
+
+		private OutputStream target() {
+			OutputStream target = TARGET.get();
+			return (target != null ? target : original);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			target().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			target().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			target().flush();
+		}
+	}
+
+	/**
+	 * Copies the log records of redirected threads to their target. The records are still published
+	 * by the other handlers.
+	 */
+	private static class CaptureHandler extends Handler {
+
+		CaptureHandler() {
+			setFormatter(new Formatter() {
+				@Override
+				public String format(LogRecord record) {
+					return record.getLevel() + ": " + formatMessage(record) + "\n";
+				}
+			});
+		}
+
+		@Override
+		public void publish(LogRecord record) {
+			OutputStream target = TARGET.get();
+			if (target != null && isLoggable(record)) {
+				try {
+					target.write(getFormatter().format(record).getBytes());
+				} catch (IOException ex) {
+					// ignore - the record is still published by the console handler
+				}
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.common.util;
+
+import java.io.PrintStream;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Streams typed records in one of the machine readable {@link Format output formats}. Every record is
+ * written (and flushed) as soon as it is passed in so large results never need to be held in memory.
+ * Safe to use from several threads.
+ * <p/>
+ * <ul>
+ * <li>TEXT: a header line then one tab separated line per record</li>
+ * <li>JSON: one JSON object per line</li>
+ * <li>CSV: a header line then one RFC 4180 line per record</li>
+ * </ul>
+ *
+ * @author Jarred Li
+ */
+public class RecordWriter {
+
+	public static final String FORMAT_KEY = "impala.output.format";
+
+	public enum Format {
+		TEXT, JSON, CSV;
+
+		public static Format of(String name) {
+			for (Format format : values()) {
+				if (format.name().equalsIgnoreCase(name)) {
+					return format;
+				}
+			}
+			throw new IllegalArgumentException("Unknown output format [" + name + "] - use text, json or csv");
+		}
+
+		/**
+		 * Returns the output format selected in the given configuration, TEXT by default.
+		 */
+		public static Format of(Configuration configuration) {
+			String name = configuration.get(FORMAT_KEY);
+			return (name == null || name.length() == 0 ? TEXT : of(name));
+		}
+	}
+
+	private final Format format;
+
+	private final PrintStream out;
+
+	private final String[] fields;
+
+	private final StringBuilder line = new StringBuilder();
+
+	/**
+	 * Creates a new writer and writes the header, if the format has one.
+	 *
+	 * @param format output format
+	 * @param out stream to write to
+	 * @param fields field names of the records
+	 */
+	public RecordWriter(Format format, PrintStream out, String... fields) {
+		this.format = format;
+		this.out = out;
+		this.fields = fields;
+		if (format != Format.JSON) {
+			for (int i = 0; i < fields.length; i++) {
+				if (i > 0) {
+					line.append(format == Format.CSV ? ',' : '\t');
+				}
+				append(fields[i]);
+			}
+			flushLine();
+		}
+	}
+
+	/**
+	 * Writes one record.
+	 *
+	 * @param values field values, in the order of the field names given at construction time
+	 */
+	public synchronized void write(Object... values) {
+		if (values.length != fields.length) {
+			throw new IllegalArgumentException("Expected " + fields.length + " values but got " + values.length);
+		}
+		if (format == Format.JSON) {
+			line.append('{');
+			for (int i = 0; i < fields.length; i++) {
+				if (i > 0) {
+					line.append(',');
+				}
+				quoteJson(fields[i]);
+				line.append(':');
+				if (values[i] == null || values[i] instanceof Number || values[i] instanceof Boolean) {
+					line.append(values[i]);
+				}
+				else {
+					quoteJson(values[i].toString());
+				}
+			}
+			line.append('}');
+		}
+		else {
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) {
+					line.append(format == Format.CSV ? ',' : '\t');
+				}
+				append(values[i] == null ? "" : values[i].toString());
+			}
+		}
+		flushLine();
+	}
+
+	private void append(String value) {
+		if (format == Format.CSV && containsAny(value, ",\"\r\n")) {
+			line.append('"').append(value.replace("\"", "\"\"")).append('"');
+		}
+		else {
+			line.append(value);
+		}
+	}
+
+	private void quoteJson(String value) {
+		line.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				line.append("\\\"");
+				break;
+			case '\\':
+				line.append("\\\\");
+				break;
+			case '\n':
+				line.append("\\n");
+				break;
+			case '\r':
+				line.append("\\r");
+				break;
+			case '\t':
+				line.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					line.append(String.format("\\u%04x", (int) c));
+				}
+				else {
+					line.append(c);
+				}
+			}
+		}
+		line.append('"');
+	}
+
+	private void flushLine() {
+		out.println(line);
+		out.flush();
+		line.setLength(0);
+	}
+
+	private static boolean containsAny(String value, String chars) {
+		for (int i = 0; i < value.length(); i++) {
+			if (chars.indexOf(value.charAt(i)) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -33,6 +33,10 @@ import java.security.Permission;
 			enableSystemExitCall();
 		}
  * </code>
+ * <p/>
+ * Only the calling thread, and the threads it starts afterwards, are prevented from exiting, so
+ * several threads can each trap the exit of the code they run. The security manager is installed
+ * while at least one thread forbids the call.
  * 
  * @author Jarred Li
  *
@@ -42,23 +46,68 @@ public class SecurityUtil {
 
 	public static class ExitTrappedException extends SecurityException {
 		private static final long serialVersionUID = 8542706657719758115L;
-		
+
+		private final int status;
+
+		public ExitTrappedException() {
+			this(0);
+		}
+
+		public ExitTrappedException(int status) {
+			super("System.exit(" + status + ") prevented");
+			this.status = status;
+		}
+
+		/**
+		 * Returns the status passed to System.exit().
+		 */
+		public int getStatus() {
+			return status;
+		}
 	}
 
-	public void forbidSystemExitCall() {
-		final SecurityManager securityManager = new SecurityManager() {
-			@Override
-			public void checkPermission(Permission permission) {
-				if (permission.getName().startsWith("exitVM")) {
-					throw new ExitTrappedException();
+	// inherited, so the threads started by the trapped code cannot exit either
+	private static final ThreadLocal<Boolean> TRAPPED = new InheritableThreadLocal<Boolean>();
+
+	private static final SecurityManager EXIT_TRAP = new SecurityManager() {
+		@Override
+		public void checkPermission(Permission permission) {
+			String name = permission.getName();
+			if (name.startsWith("exitVM") && Boolean.TRUE.equals(TRAPPED.get())) {
+				int status = 0;
+				try {
+					status = Integer.parseInt(name.substring(name.indexOf('.') + 1));
+				} catch (NumberFormatException ex) {
+					// no status in the permission name
 				}
+				throw new ExitTrappedException(status);
 			}
-		};
-		System.setSecurityManager(securityManager);
+		}
+
+		@Override
+		public void checkPermission(Permission permission, Object context) {
+			checkPermission(permission);
+		}
+	};
+
+	private static int trappingThreads;
+
+	public void forbidSystemExitCall() {
+		synchronized (SecurityUtil.class) {
+			if (trappingThreads++ == 0) {
+				System.setSecurityManager(EXIT_TRAP);
+			}
+		}
+		TRAPPED.set(Boolean.TRUE);
 	}
 
 	public void enableSystemExitCall() {
-		System.setSecurityManager(null);
+		TRAPPED.remove();
+		synchronized (SecurityUtil.class) {
+			if (trappingThreads > 0 && --trappingThreads == 0) {
+				System.setSecurityManager(null);
+			}
+		}
 	}
 	
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.common.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks.State;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks.Task;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class BackgroundTasksTest {
+
+	private BackgroundTasks tasks;
+
+	@Before
+	public void setUp() {
+		OutputCapture.install();
+		tasks = new BackgroundTasks(2, null);
+	}
+
+	@After
+	public void tearDown() {
+		tasks.shutdown();
+	}
+
+	@Test
+	public void testOutputIsCaptured() throws Exception {
+		Task task = tasks.submit("print", new Callable<Object>() {
+			public Object call() {
+				System.out.println("from the background");
+				return "result";
+			}
+		});
+		Assert.assertTrue(task.await(0));
+		Assert.assertEquals(State.DONE, task.getState());
+		Assert.assertEquals("result", task.getResult());
+		Assert.assertEquals("from the background\n", task.getOutput());
+	}
+
+	@Test
+	public void testOnlyOwnThreadsAreCaptured() throws Exception {
+		Task task = tasks.submit("threads", new Callable<Object>() {
+			public Object call() throws Exception {
+				ExecutorService pool = Executors.newFixedThreadPool(1, OutputCapture.threadFactory());
+				try {
+					pool.submit(new Runnable() {
+						public void run() {
+							System.out.println("from the pool");
+						}
+					}).get();
+				} finally {
+					pool.shutdown();
+				}
+				// stands for a thread of the process started lazily by the command
+				Thread shared = new Thread() {
+					@Override
+					public void run() {
+						System.out.println("from a shared thread");
+					}
+				};
+				shared.start();
+				shared.join();
+				return null;
+			}
+		});
+		Assert.assertTrue(task.await(0));
+		Assert.assertEquals("from the pool\n", task.getOutput());
+	}
+
+	@Test
+	public void testFailureAndCancellation() throws Exception {
+		Task failed = tasks.submit("fail", new Callable<Object>() {
+			public Object call() {
+				throw new IllegalStateException("boom");
+			}
+		});
+		Task sleeping = tasks.submit("sleep", new Callable<Object>() {
+			public Object call() throws Exception {
+				Thread.sleep(60000);
+				return null;
+			}
+		});
+		Assert.assertTrue(failed.await(0));
+		Assert.assertEquals(State.FAILED, failed.getState());
+		Assert.assertEquals("boom", failed.getFailure().getMessage());
+
+		Assert.assertFalse(sleeping.await(100));
+		Assert.assertEquals(State.RUNNING, sleeping.getState());
+		Assert.assertTrue(sleeping.cancel(true));
+		Assert.assertEquals(State.CANCELLED, sleeping.getState());
+		Assert.assertEquals(2, tasks.purge());
+		Assert.assertTrue(tasks.list().isEmpty());
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.hadoop.impala.common.util.RecordWriter.Format;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class RecordWriterTest {
+
+	private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	@Test
+	public void testJson() {
+		RecordWriter writer = new RecordWriter(Format.JSON, new PrintStream(out), "path", "length", "owner");
+		writer.write("/tmp/a \"b\"", 10L, null);
+		Assert.assertEquals("{\"path\":\"/tmp/a \\\"b\\\"\",\"length\":10,\"owner\":null}\n", out.toString());
+	}
+
+	@Test
+	public void testCsv() {
+		RecordWriter writer = new RecordWriter(Format.CSV, new PrintStream(out), "path", "length");
+		writer.write("/tmp/a,b", 10L);
+		Assert.assertEquals("path,length\n\"/tmp/a,b\",10\n", out.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownFormat() {
+		Format.of("xml");
+	}
+}
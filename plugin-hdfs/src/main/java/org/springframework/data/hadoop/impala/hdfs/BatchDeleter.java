@@ -0,0 +1,148 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Trash;
+
+/**
+ * Deletes (or moves to trash) a batch of already resolved paths on a bounded pool of threads,
+ * sharing a single {@link Trash} instance and reporting progress at most once per second.
+ *
+ * @author Jarred Li
+ */
+public class BatchDeleter {
+
+	private static final long PROGRESS_INTERVAL = 1000;
+
+	private final FileSystem fs;
+
+	private final Configuration configuration;
+
+	private final int threads;
+
+	private final PrintStream out;
+
+	public BatchDeleter(FileSystem fs, Configuration configuration, int threads, PrintStream out) {
+		this.fs = fs;
+		this.configuration = configuration;
+		this.threads = Math.max(1, threads);
+		this.out = out;
+	}
+
+	/**
+	 * Deletes the given paths.
+	 *
+	 * @param statuses paths to delete
+	 * @param skipTrash whether to delete the paths right away instead of moving them to trash
+	 * @return the error messages of the paths which could not be deleted
+	 * @throws IOException if the trash cannot be initialized or the deletion is interrupted
+	 */
+	public List<String> delete(final List<FileStatus> statuses, boolean skipTrash) throws IOException {
+		final Trash trash = (skipTrash ? null : new Trash(fs, configuration));
+		final List<String> failures = new ArrayList<String>();
+		final AtomicInteger deleted = new AtomicInteger();
+		final AtomicInteger trashed = new AtomicInteger();
+		final long[] lastReport = { System.currentTimeMillis() };
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (final FileStatus status : statuses) {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							if (trash != null && trash.moveToTrash(status.getPath())) {
+								trashed.incrementAndGet();
+							}
+							else if (fs.delete(status.getPath(), true)) {
+								deleted.incrementAndGet();
+							}
+							else {
+								failed(status, "could not delete");
+							}
+						} catch (IOException ex) {
+							failed(status, ex.getMessage());
+						}
+						progress();
+					}
+
+					private void failed(FileStatus status, String message) {
+						synchronized (failures) {
+							failures.add(status.getPath() + ": " + message);
+						}
+					}
+
+					private void progress() {
+						synchronized (lastReport) {
+							long now = System.currentTimeMillis();
+							if (now - lastReport[0] >= PROGRESS_INTERVAL) {
+								lastReport[0] = now;
+								out.println("Removed " + (deleted.get() + trashed.get()) + "/" + statuses.size() + " paths...");
+							}
+						}
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Deletion interrupted");
+		} finally {
+			executor.shutdownNow();
+		}
+		out.println("Deleted " + deleted.get() + " paths, moved " + trashed.get() + " paths to trash, " + failures.size()
+				+ " failed");
+		return failures;
+	}
+
+	/**
+	 * Reports how many files and bytes deleting the given paths would reclaim, without deleting anything.
+	 *
+	 * @param statuses paths to delete
+	 * @param walker walker used to summarize directories
+	 * @throws IOException in case of I/O errors
+	 */
+	public void dryRun(List<FileStatus> statuses, TreeWalker walker) throws IOException {
+		long files = 0, dirs = 0, bytes = 0;
+		for (FileStatus status : statuses) {
+			if (status.isDir()) {
+				ContentSummary summary = walker.summarize(status.getPath());
+				files += summary.getFileCount();
+				dirs += summary.getDirectoryCount();
+				bytes += summary.getLength();
+			}
+			else {
+				files++;
+				bytes += status.getLen();
+			}
+		}
+		out.println("Removing " + statuses.size() + " paths would reclaim " + bytes + " bytes in " + files + " files and "
+				+ dirs + " directories");
+	}
+}
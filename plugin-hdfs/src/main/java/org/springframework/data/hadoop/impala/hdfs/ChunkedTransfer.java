@@ -0,0 +1,479 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
+
+/**
+ * Transfers a single (large) file between the local file system and a Hadoop file system
+ * as a set of byte ranges (chunks) copied in parallel. Completed chunks are recorded in a
+ * local manifest so that an interrupted transfer resumes with the missing chunks only.
+ * <p/>
+ * Downloads write each range in place into a local temporary file. Uploads write each range into
+ * its own part file next to the destination and concatenate the parts once all of them are present;
+ * the file system <code>concat</code> operation is used when available, otherwise the parts are
+ * streamed into a temporary file renamed to the destination at the end - which writes the data twice
+ * and reads it back once. Until that rename, the upload can be resumed; an upload stopped after the rename
+ * is recognized by the length of the destination and only cleaned up.
+ *
+ * @author Jarred Li
+ */
+public class ChunkedTransfer {
+
+	private static final String PARTS_SUFFIX = "._chunks";
+
+	private static final String TMP_SUFFIX = "._chunking";
+
+	private final Configuration configuration;
+
+	private final long chunkSize;
+
+	private final int threads;
+
+	private File manifestDir = new File(System.getProperty("java.io.tmpdir"), "impala-transfers");
+
+	public ChunkedTransfer(Configuration configuration, long chunkSize, int threads) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunk size must be positive");
+		}
+		this.configuration = configuration;
+		this.chunkSize = chunkSize;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Sets the directory holding the transfer manifests.
+	 *
+	 * @param manifestDir manifest directory
+	 */
+	public void setManifestDir(File manifestDir) {
+		this.manifestDir = manifestDir;
+	}
+
+	/**
+	 * Downloads the given file to the local destination, resuming a previous attempt if possible.
+	 *
+	 * @param srcFs source file system
+	 * @param src source file
+	 * @param dest local destination file
+	 * @return the transfer statistics
+	 * @throws IOException in case of failure; the transfer can be resumed by calling this method again
+	 */
+	public TransferResult download(final FileSystem srcFs, final Path src, File dest) throws IOException {
+		FileStatus status = srcFs.getFileStatus(src);
+		if (status.isDir()) {
+			throw new IOException(src + " is a directory");
+		}
+		if (dest.exists()) {
+			throw new IOException("Target " + dest + " already exists");
+		}
+		final File tmp = new File(dest.getPath() + TMP_SUFFIX);
+		Manifest manifest = new Manifest(srcFs.makeQualified(src).toString(), dest.getAbsolutePath(), status);
+		if (!tmp.exists()) {
+			manifest.reset();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.setLength(status.getLen());
+		} finally {
+			raf.close();
+		}
+
+		TransferResult result = transfer(manifest, new ChunkCopier() {
+			public void copy(long offset, long length) throws IOException {
+				FSDataInputStream in = srcFs.open(src);
+				RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+				try {
+					in.seek(offset);
+					out.seek(offset);
+					byte[] buffer = new byte[bufferSize()];
+					long remaining = length;
+					while (remaining > 0) {
+						int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+						if (read < 0) {
+							throw new IOException("Unexpected end of " + src + " at " + (offset + length - remaining));
+						}
+						out.write(buffer, 0, read);
+						remaining -= read;
+					}
+				} finally {
+					out.close();
+					IOUtils.closeStream(in);
+				}
+			}
+		});
+
+		if (!tmp.renameTo(dest)) {
+			throw new IOException("Cannot rename " + tmp + " to " + dest);
+		}
+		manifest.delete();
+		result.finish();
+		return result;
+	}
+
+	/**
+	 * Uploads the given local file to the destination, resuming a previous attempt if possible.
+	 *
+	 * @param src local source file
+	 * @param dstFs destination file system
+	 * @param dest destination file
+	 * @return the transfer statistics
+	 * @throws IOException in case of failure; the transfer can be resumed by calling this method again
+	 */
+	public TransferResult upload(final File src, final FileSystem dstFs, Path dest) throws IOException {
+		if (!src.isFile()) {
+			throw new IOException(src + ": No such file");
+		}
+		final Path partsDir = new Path(dest.getParent(), dest.getName() + PARTS_SUFFIX);
+		FileStatus status = new FileStatus(src.length(), false, 0, 0, src.lastModified(), new Path(src.getAbsolutePath()));
+		boolean resumed = dstFs.exists(partsDir);
+		Manifest manifest = new Manifest(src.getAbsolutePath(), dstFs.makeQualified(dest).toString(), status);
+		if (manifest.exists() && manifest.completed() == manifest.chunks() && dstFs.exists(dest)
+				&& dstFs.getFileStatus(dest).getLen() == status.getLen()) {
+			// joined by the previous attempt, which stopped before cleaning up
+			TransferResult result = new TransferResult(manifest.chunks(), manifest.completed());
+			dstFs.delete(partsDir, true);
+			manifest.delete();
+			result.finish();
+			return result;
+		}
+		// the destination only appears once complete, unless it was there before
+		if (!(resumed && manifest.exists()) && dstFs.exists(dest)) {
+			throw new IOException("Target " + dest + " already exists");
+		}
+		if (!resumed) {
+			manifest.reset();
+		}
+		dstFs.mkdirs(partsDir);
+
+		TransferResult result = transfer(manifest, new ChunkCopier() {
+			public void copy(long offset, long length) throws IOException {
+				RandomAccessFile in = new RandomAccessFile(src, "r");
+				OutputStream out = null;
+				try {
+					in.seek(offset);
+					out = dstFs.create(partPath(partsDir, offset), true);
+					byte[] buffer = new byte[bufferSize()];
+					long remaining = length;
+					while (remaining > 0) {
+						int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+						if (read < 0) {
+							throw new IOException("Unexpected end of " + src);
+						}
+						out.write(buffer, 0, read);
+						remaining -= read;
+					}
+					out.close();
+					out = null;
+				} finally {
+					IOUtils.closeStream(out);
+					in.close();
+				}
+			}
+		});
+
+		Path[] parts = new Path[manifest.chunks()];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = partPath(partsDir, i * chunkSize);
+		}
+		concat(dstFs, dest, parts);
+		dstFs.delete(partsDir, true);
+		manifest.delete();
+		result.finish();
+		return result;
+	}
+
+	private TransferResult transfer(final Manifest manifest, final ChunkCopier copier) throws IOException {
+		final TransferResult result = new TransferResult(manifest.chunks(), manifest.completed());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		try {
+			for (int i = 0; i < manifest.chunks(); i++) {
+				if (manifest.isDone(i)) {
+					continue;
+				}
+				final int chunk = i;
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() throws IOException {
+						long offset = chunk * chunkSize;
+						long length = Math.min(chunkSize, manifest.length - offset);
+						copier.copy(offset, length);
+						manifest.done(chunk);
+						result.transferred(length);
+						return null;
+					}
+				}));
+			}
+			IOException failure = null;
+			for (Future<Object> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Transfer interrupted");
+				} catch (ExecutionException ex) {
+					if (failure == null) {
+						failure = (ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(
+								String.valueOf(ex.getCause())));
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return result;
+	}
+
+	private void concat(FileSystem fs, Path dest, Path[] parts) throws IOException {
+		if (parts.length == 1) {
+			if (!fs.rename(parts[0], dest)) {
+				throw new IOException("Cannot rename " + parts[0] + " to " + dest);
+			}
+			return;
+		}
+		// concat is not part of the Hadoop 1.x FileSystem API but is exposed by some implementations
+		boolean concat = true;
+		try {
+			Method method = fs.getClass().getMethod("concat", Path.class, Path[].class);
+			Path[] rest = new Path[parts.length - 1];
+			System.arraycopy(parts, 1, rest, 0, rest.length);
+			method.invoke(fs, parts[0], rest);
+		} catch (NoSuchMethodException ex) {
+			concat = false;
+		} catch (Exception ex) {
+			concat = false;
+		}
+		if (concat) {
+			if (!fs.rename(parts[0], dest)) {
+				throw new IOException("Cannot rename " + parts[0] + " to " + dest);
+			}
+			return;
+		}
+
+		// streamed aside, so a failure leaves the parts to resume from instead of a truncated destination
+		Path tmp = new Path(dest.getParent(), dest.getName() + TMP_SUFFIX);
+		OutputStream out = fs.create(tmp, true);
+		try {
+			for (Path part : parts) {
+				InputStream in = fs.open(part);
+				try {
+					IOUtils.copyBytes(in, out, configuration, false);
+				} finally {
+					in.close();
+				}
+			}
+			out.close();
+			out = null;
+		} finally {
+			IOUtils.closeStream(out);
+		}
+		if (!fs.rename(tmp, dest)) {
+			throw new IOException("Cannot rename " + tmp + " to " + dest);
+		}
+	}
+
+	private static Path partPath(Path partsDir, long offset) {
+		return new Path(partsDir, String.format("part-%019d", offset));
+	}
+
+	private int bufferSize() {
+		return configuration.getInt("io.file.buffer.size", 4096);
+	}
+
+	private interface ChunkCopier {
+		void copy(long offset, long length) throws IOException;
+	}
+
+	/**
+	 * Checkpoint of a transfer, persisted after each completed chunk. A manifest whose source no longer
+	 * matches (different length, modification time or chunk size) is discarded.
+	 */
+	private class Manifest {
+
+		private final File file;
+		private final long length;
+		private final long modificationTime;
+		private final BitSet done = new BitSet();
+
+		Manifest(String source, String dest, FileStatus status) throws IOException {
+			this.length = status.getLen();
+			this.modificationTime = status.getModificationTime();
+			this.file = new File(manifestDir, MD5Hash.digest(source + "|" + dest).toString() + ".manifest");
+			load();
+		}
+
+		private void load() throws IOException {
+			if (!file.exists()) {
+				return;
+			}
+			Properties props = new Properties();
+			InputStream in = new FileInputStream(file);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+			if (length != Long.parseLong(props.getProperty("length", "-1"))
+					|| modificationTime != Long.parseLong(props.getProperty("modificationTime", "-1"))
+					|| chunkSize != Long.parseLong(props.getProperty("chunkSize", "-1"))) {
+				return;
+			}
+			String completed = props.getProperty("completed", "");
+			for (String chunk : completed.split(",")) {
+				if (chunk.length() > 0) {
+					done.set(Integer.parseInt(chunk));
+				}
+			}
+		}
+
+		int chunks() {
+			return (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+		}
+
+		synchronized int completed() {
+			return done.cardinality();
+		}
+
+		synchronized boolean isDone(int chunk) {
+			return done.get(chunk);
+		}
+
+		synchronized void done(int chunk) throws IOException {
+			done.set(chunk);
+			save();
+		}
+
+		synchronized void reset() throws IOException {
+			done.clear();
+			save();
+		}
+
+		private void save() throws IOException {
+			if (!manifestDir.isDirectory() && !manifestDir.mkdirs()) {
+				throw new IOException("Mkdirs failed to create " + manifestDir);
+			}
+			StringBuilder completed = new StringBuilder();
+			for (int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+				if (completed.length() > 0) {
+					completed.append(",");
+				}
+				completed.append(i);
+			}
+			Properties props = new Properties();
+			props.setProperty("length", String.valueOf(length));
+			props.setProperty("modificationTime", String.valueOf(modificationTime));
+			props.setProperty("chunkSize", String.valueOf(chunkSize));
+			props.setProperty("completed", completed.toString());
+
+			File tmp = new File(file.getPath() + ".tmp");
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				props.store(out, null);
+			} finally {
+				out.close();
+			}
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Cannot save manifest " + file);
+			}
+		}
+
+		boolean exists() {
+			return file.exists();
+		}
+
+		synchronized void delete() {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Statistics of a chunked transfer.
+	 */
+	public static class TransferResult {
+
+		private final long start = System.currentTimeMillis();
+		private long end;
+		private final int chunks;
+		private final int resumed;
+		private final AtomicLong bytes = new AtomicLong();
+
+		TransferResult(int chunks, int resumed) {
+			this.chunks = chunks;
+			this.resumed = resumed;
+		}
+
+		void transferred(long length) {
+			bytes.addAndGet(length);
+		}
+
+		void finish() {
+			end = System.currentTimeMillis();
+		}
+
+		public int getChunks() {
+			return chunks;
+		}
+
+		public int getResumedChunks() {
+			return resumed;
+		}
+
+		public long getBytes() {
+			return bytes.get();
+		}
+
+		public long getElapsedMillis() {
+			return Math.max(1, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Transferred %d bytes in %d chunks (%d resumed) in %.2f s, %.2f MB/s", getBytes(),
+					chunks - resumed, resumed, getElapsedMillis() / 1000d,
+					(getBytes() / (1024d * 1024d)) / (getElapsedMillis() / 1000d));
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
+
+/**
+ * Packs the small files of a directory tree into a single SequenceFile, keyed by the original path
+ * with the file content as value, and unpacks such archives. Files are read (respectively written)
+ * on a bounded pool of threads while a single thread appends (respectively reads) the records in
+ * order; at most <code>2 * threads</code> files are held in memory at any time.
+ * <p/>
+ * A compacted archive is read back and each record checked against the length and CRC of the file it
+ * was read from; only verified files are removed when deletion is requested.
+ *
+ * @author Jarred Li
+ */
+public class Compactor {
+
+	/**
+	 * Metadata entry holding the directory the archive was created from.
+	 */
+	public static final String ROOT_KEY = "impala.compact.root";
+
+	private final Configuration configuration;
+
+	private final int threads;
+
+	private final PrintStream out;
+
+	private long maxFileSize = 16 * 1024 * 1024;
+
+	private boolean compress = false;
+
+	private boolean delete = false;
+
+	private boolean skipTrash = false;
+
+	private boolean overwrite = false;
+
+	public Compactor(Configuration configuration, int threads, PrintStream out) {
+		this.configuration = configuration;
+		this.threads = Math.max(1, threads);
+		this.out = out;
+	}
+
+	/**
+	 * Sets the size above which files are left in place instead of being compacted.
+	 */
+	public void setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	/**
+	 * Sets whether the archive records are block compressed.
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	/**
+	 * Sets whether the compacted files are removed once the archive has been verified.
+	 */
+	public void setDelete(boolean delete) {
+		this.delete = delete;
+	}
+
+	/**
+	 * Sets whether removed files bypass the trash.
+	 */
+	public void setSkipTrash(boolean skipTrash) {
+		this.skipTrash = skipTrash;
+	}
+
+	/**
+	 * Sets whether extracted files replace existing ones.
+	 */
+	public void setOverwrite(boolean overwrite) {
+		this.overwrite = overwrite;
+	}
+
+	/**
+	 * Compacts the files below the given directory into the archive.
+	 *
+	 * @param fs file system of the directory and the archive
+	 * @param src directory to compact
+	 * @param archive SequenceFile to create
+	 * @return the compaction statistics
+	 * @throws IOException if the archive cannot be written
+	 */
+	public CompactResult compact(final FileSystem fs, Path src, Path archive) throws IOException {
+		FileStatus root = fs.getFileStatus(src);
+		if (!root.isDir()) {
+			throw new IOException(src + " is not a directory");
+		}
+		if (fs.exists(archive)) {
+			throw new IOException("Target " + archive + " already exists");
+		}
+		final String archivePath = fs.makeQualified(archive).toUri().getPath();
+		final List<FileStatus> files = Collections.synchronizedList(new ArrayList<FileStatus>());
+		new TreeWalker(fs, threads).walk(root, new TreeWalker.Visitor() {
+			public void visit(FileStatus dir, FileStatus[] children) {
+				for (FileStatus child : children) {
+					if (!child.isDir() && !child.getPath().toUri().getPath().equals(archivePath)) {
+						files.add(child);
+					}
+				}
+			}
+		});
+		Collections.sort(files, new Comparator<FileStatus>() {
+			public int compare(FileStatus a, FileStatus b) {
+				return a.getPath().compareTo(b.getPath());
+			}
+		});
+
+		CompactResult result = new CompactResult();
+		Map<String, Long> checksums = new HashMap<String, Long>();
+		List<FileStatus> written = new ArrayList<FileStatus>();
+		SequenceFile.Metadata metadata = new SequenceFile.Metadata();
+		metadata.set(new Text(ROOT_KEY), new Text(root.getPath().toUri().getPath()));
+		SequenceFile.Writer writer = SequenceFile.createWriter(fs, configuration, archive, Text.class,
+				BytesWritable.class, (compress ? CompressionType.BLOCK : CompressionType.NONE), new DefaultCodec(),
+				null, metadata);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		LinkedList<Future<FileContent>> window = new LinkedList<Future<FileContent>>();
+		try {
+			for (final FileStatus file : files) {
+				if (file.getLen() > maxFileSize) {
+					result.skipped++;
+					continue;
+				}
+				window.add(executor.submit(new Callable<FileContent>() {
+					public FileContent call() throws IOException {
+						return read(fs, file);
+					}
+				}));
+				if (window.size() >= 2 * threads) {
+					append(writer, window.removeFirst(), result, checksums, written);
+				}
+			}
+			while (!window.isEmpty()) {
+				append(writer, window.removeFirst(), result, checksums, written);
+			}
+		} finally {
+			executor.shutdownNow();
+			writer.close();
+		}
+
+		List<FileStatus> verified = verify(fs, archive, checksums, written, result);
+		if (delete && !verified.isEmpty()) {
+			List<String> failures = new BatchDeleter(fs, configuration, threads, out).delete(verified, skipTrash);
+			result.deleted = verified.size() - failures.size();
+			result.failures.addAll(failures);
+		}
+		return result;
+	}
+
+	/**
+	 * Extracts the files of the archive. Without destination, files are restored to their original path;
+	 * otherwise they are created at the same location relative to the destination as they were to the
+	 * compacted directory.
+	 *
+	 * @param fs file system of the archive
+	 * @param archive SequenceFile created by {@link #compact(FileSystem, Path, Path)}
+	 * @param dstFs destination file system
+	 * @param dest destination directory, or <code>null</code> for the original location
+	 * @return the extraction statistics
+	 * @throws IOException if the archive cannot be read
+	 */
+	public CompactResult extract(FileSystem fs, Path archive, final FileSystem dstFs, Path dest) throws IOException {
+		CompactResult result = new CompactResult();
+		SequenceFile.Reader reader = new SequenceFile.Reader(fs, archive, configuration);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		LinkedList<Future<Long>> window = new LinkedList<Future<Long>>();
+		try {
+			Text rootValue = reader.getMetadata().get(new Text(ROOT_KEY));
+			String root = (rootValue != null ? rootValue.toString() : "/");
+			String prefix = (root.endsWith("/") ? root : root + "/");
+			Text key = new Text();
+			BytesWritable value = new BytesWritable();
+			while (reader.next(key, value)) {
+				String original = key.toString();
+				final Path target;
+				if (dest == null) {
+					target = new Path(original);
+				}
+				else if (original.startsWith(prefix)) {
+					target = new Path(dest, original.substring(prefix.length()));
+				}
+				else {
+					result.failures.add(original + ": not below " + root);
+					continue;
+				}
+				final BytesWritable content = value;
+				window.add(executor.submit(new Callable<Long>() {
+					public Long call() throws IOException {
+						return write(dstFs, target, content);
+					}
+				}));
+				value = new BytesWritable();
+				if (window.size() >= 2 * threads) {
+					collect(window.removeFirst(), result);
+				}
+			}
+			while (!window.isEmpty()) {
+				collect(window.removeFirst(), result);
+			}
+		} finally {
+			executor.shutdownNow();
+			IOUtils.closeStream(reader);
+		}
+		return result;
+	}
+
+	private FileContent read(FileSystem fs, FileStatus file) throws IOException {
+		byte[] data = new byte[(int) file.getLen()];
+		InputStream in = fs.open(file.getPath());
+		try {
+			IOUtils.readFully(in, data, 0, data.length);
+		} finally {
+			IOUtils.closeStream(in);
+		}
+		return new FileContent(file, data);
+	}
+
+	private long write(FileSystem fs, Path target, BytesWritable content) throws IOException {
+		if (!overwrite && fs.exists(target)) {
+			throw new IOException("Target " + target + " already exists");
+		}
+		OutputStream stream = fs.create(target, true);
+		try {
+			stream.write(content.getBytes(), 0, content.getLength());
+		} finally {
+			stream.close();
+		}
+		return content.getLength();
+	}
+
+	private void append(SequenceFile.Writer writer, Future<FileContent> pending, CompactResult result,
+			Map<String, Long> checksums, List<FileStatus> written) throws IOException {
+		FileContent content;
+		try {
+			content = pending.get();
+		} catch (ExecutionException ex) {
+			result.failures.add(ex.getCause().getMessage());
+			return;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Compaction interrupted");
+		}
+		String path = content.file.getPath().toUri().getPath();
+		writer.append(new Text(path), new BytesWritable(content.data));
+		checksums.put(path, crc(content.data, content.data.length));
+		written.add(content.file);
+		result.files++;
+		result.bytes += content.data.length;
+	}
+
+	private void collect(Future<Long> pending, CompactResult result) throws IOException {
+		try {
+			result.bytes += pending.get();
+			result.files++;
+		} catch (ExecutionException ex) {
+			result.failures.add(ex.getCause().getMessage());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Extraction interrupted");
+		}
+	}
+
+	/**
+	 * Reads the archive back and returns the written files whose record matches the content read.
+	 */
+	private List<FileStatus> verify(FileSystem fs, Path archive, Map<String, Long> checksums,
+			List<FileStatus> written, CompactResult result) throws IOException {
+		Map<String, Long> found = new HashMap<String, Long>();
+		SequenceFile.Reader reader = new SequenceFile.Reader(fs, archive, configuration);
+		try {
+			Text key = new Text();
+			BytesWritable value = new BytesWritable();
+			while (reader.next(key, value)) {
+				found.put(key.toString(), crc(value.getBytes(), value.getLength()));
+			}
+		} finally {
+			IOUtils.closeStream(reader);
+		}
+		List<FileStatus> verified = new ArrayList<FileStatus>();
+		for (FileStatus file : written) {
+			String path = file.getPath().toUri().getPath();
+			if (checksums.get(path).equals(found.get(path))) {
+				verified.add(file);
+			}
+			else {
+				result.failures.add(path + ": archived content does not match");
+			}
+		}
+		return verified;
+	}
+
+	private static long crc(byte[] data, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		return crc.getValue();
+	}
+
+	private static class FileContent {
+
+		private final FileStatus file;
+		private final byte[] data;
+
+		FileContent(FileStatus file, byte[] data) {
+			this.file = file;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Statistics of a compaction or extraction.
+	 */
+	public static class CompactResult {
+
+		private int files;
+		private long bytes;
+		private int skipped;
+		private int deleted;
+		private final List<String> failures = new ArrayList<String>();
+
+		public int getFiles() {
+			return files;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public int getSkipped() {
+			return skipped;
+		}
+
+		public int getDeleted() {
+			return deleted;
+		}
+
+		public List<String> getFailures() {
+			return failures;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d files (%d bytes), %d skipped, %d deleted, %d failed", files, bytes, skipped,
+					deleted, failures.size());
+		}
+	}
+}
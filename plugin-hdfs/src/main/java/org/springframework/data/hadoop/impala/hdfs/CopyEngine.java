@@ -0,0 +1,387 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.springframework.data.hadoop.impala.common.util.OutputCapture;
+
+/**
+ * Copies files between two file systems on a bounded pool of worker threads.
+ * The source tree is walked on the calling thread while the workers copy the files already found,
+ * each file being retried a number of times before it is reported as failed. Files can be compressed
+ * or decompressed on the fly while copied.
+ *
+ * @author Jarred Li
+ */
+public class CopyEngine {
+
+	public static final int DEFAULT_RETRIES = 3;
+
+	private static final Logger LOG = Logger.getLogger(CopyEngine.class.getName());
+
+	private final Configuration configuration;
+
+	private final int threads;
+
+	private int retries = DEFAULT_RETRIES;
+
+	private CompressionCodec codec;
+
+	private CompressionCodecFactory decompression;
+
+	public CopyEngine(Configuration configuration, int threads) {
+		this.configuration = configuration;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Returns the codec registered under the given short name: gzip, bzip2, deflate or snappy.
+	 *
+	 * @param name codec name
+	 * @param configuration configuration of the codec
+	 * @return the codec
+	 * @throws IOException if the codec is unknown or not available on this platform
+	 */
+	public static CompressionCodec getCodec(String name, Configuration configuration) throws IOException {
+		Class<? extends CompressionCodec> type;
+		if ("gzip".equalsIgnoreCase(name)) {
+			type = GzipCodec.class;
+		}
+		else if ("bzip2".equalsIgnoreCase(name)) {
+			type = BZip2Codec.class;
+		}
+		else if ("deflate".equalsIgnoreCase(name)) {
+			type = DefaultCodec.class;
+		}
+		else if ("snappy".equalsIgnoreCase(name)) {
+			if (!SnappyCodec.isNativeSnappyLoaded(configuration)) {
+				throw new IOException("Snappy codec requires the native Hadoop library");
+			}
+			type = SnappyCodec.class;
+		}
+		else {
+			throw new IOException("Unknown codec [" + name + "] - use gzip, bzip2, deflate or snappy");
+		}
+		return ReflectionUtils.newInstance(type, configuration);
+	}
+
+	/**
+	 * Sets the codec used to compress the copied files. Targets get the codec extension appended.
+	 *
+	 * @param codec compression codec, <code>null</code> to copy the bytes as is
+	 */
+	public void setCodec(CompressionCodec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Sets whether compressed sources (recognized by their extension) are decompressed while copied.
+	 * Targets of decompressed files lose the codec extension.
+	 *
+	 * @param decompress whether to decompress
+	 */
+	public void setDecompress(boolean decompress) {
+		this.decompression = (decompress ? new CompressionCodecFactory(configuration) : null);
+	}
+
+	/**
+	 * Sets the number of times a failed file copy is retried.
+	 *
+	 * @param retries number of retries per file
+	 */
+	public void setRetries(int retries) {
+		this.retries = Math.max(0, retries);
+	}
+
+	/**
+	 * Copies the given sources to the destination. Follows the <code>FsShell</code> semantics:
+	 * multiple sources require the destination to be a directory, and a source is copied under
+	 * an existing destination directory using its own name.
+	 *
+	 * @param srcFs source file system
+	 * @param sources source paths (globs are expanded)
+	 * @param dstFs destination file system
+	 * @param dest destination path
+	 * @return the copy statistics
+	 * @throws IOException if the sources cannot be resolved or the destination is invalid
+	 */
+	public CopyResult copy(FileSystem srcFs, List<Path> sources, FileSystem dstFs, Path dest) throws IOException {
+		List<FileStatus> srcs = new ArrayList<FileStatus>();
+		for (Path source : sources) {
+			FileStatus[] matches = srcFs.globStatus(source);
+			if (matches == null || matches.length == 0) {
+				throw new IOException(source + ": No such file or directory");
+			}
+			for (FileStatus match : matches) {
+				srcs.add(match);
+			}
+		}
+
+		boolean destIsDir = dstFs.exists(dest) && dstFs.getFileStatus(dest).isDir();
+		if (srcs.size() > 1 && !destIsDir) {
+			throw new IOException("When copying multiple files, destination " + dest + " should be a directory.");
+		}
+
+		CopyResult result = new CopyResult();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, OutputCapture.threadFactory());
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		try {
+			for (FileStatus src : srcs) {
+				Path target = (destIsDir ? rename(src, new Path(dest, src.getPath().getName())) : dest);
+				schedule(executor, futures, result, srcFs, src, dstFs, target);
+			}
+			await(futures);
+		} finally {
+			executor.shutdownNow();
+		}
+		result.finish();
+		return result;
+	}
+
+	/**
+	 * Copies the given files, each to its own target. Existing targets are overwritten and missing
+	 * parent directories created. Targets are used as given, without extension adjustments.
+	 *
+	 * @param srcFs source file system
+	 * @param files source files and their targets
+	 * @param dstFs destination file system
+	 * @return the copy statistics
+	 * @throws IOException if the copy is interrupted
+	 */
+	public CopyResult copyFiles(FileSystem srcFs, Map<FileStatus, Path> files, FileSystem dstFs) throws IOException {
+		CopyResult result = new CopyResult();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, OutputCapture.threadFactory());
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		try {
+			for (Map.Entry<FileStatus, Path> entry : files.entrySet()) {
+				futures.add(executor.submit(new FileCopy(result, srcFs, entry.getKey(), dstFs, entry.getValue())));
+			}
+			await(futures);
+		} finally {
+			executor.shutdownNow();
+		}
+		result.finish();
+		return result;
+	}
+
+	private void await(List<Future<Boolean>> futures) throws IOException {
+		for (Future<Boolean> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Copy interrupted");
+			} catch (ExecutionException ex) {
+				// failures are already accounted for by the task
+			}
+		}
+	}
+
+	private void schedule(ExecutorService executor, List<Future<Boolean>> futures, CopyResult result,
+			FileSystem srcFs, FileStatus src, FileSystem dstFs, Path target) throws IOException {
+		if (src.isDir()) {
+			if (!dstFs.mkdirs(target)) {
+				result.failed(src.getPath(), new IOException("Mkdirs failed to create " + target));
+				return;
+			}
+			FileStatus[] children = srcFs.listStatus(src.getPath());
+			if (children != null) {
+				for (FileStatus child : children) {
+					schedule(executor, futures, result, srcFs, child, dstFs,
+							rename(child, new Path(target, child.getPath().getName())));
+				}
+			}
+		}
+		else {
+			if (dstFs.exists(target)) {
+				result.failed(src.getPath(), new IOException("Target " + target + " already exists"));
+				return;
+			}
+			futures.add(executor.submit(new FileCopy(result, srcFs, src, dstFs, target)));
+		}
+	}
+
+	/**
+	 * Adjusts the extension of a target named after its source file to the (de)compression applied.
+	 */
+	private Path rename(FileStatus src, Path target) {
+		if (src.isDir()) {
+			return target;
+		}
+		String name = target.getName();
+		if (decompression != null) {
+			CompressionCodec sourceCodec = decompression.getCodec(src.getPath());
+			if (sourceCodec != null) {
+				name = CompressionCodecFactory.removeSuffix(name, sourceCodec.getDefaultExtension());
+			}
+		}
+		if (codec != null) {
+			name = name + codec.getDefaultExtension();
+		}
+		return new Path(target.getParent(), name);
+	}
+
+	private class FileCopy implements Callable<Boolean> {
+
+		private final CopyResult result;
+		private final FileSystem srcFs;
+		private final FileStatus src;
+		private final FileSystem dstFs;
+		private final Path target;
+
+		FileCopy(CopyResult result, FileSystem srcFs, FileStatus src, FileSystem dstFs, Path target) {
+			this.result = result;
+			this.srcFs = srcFs;
+			this.src = src;
+			this.dstFs = dstFs;
+			this.target = target;
+		}
+
+		@Override
+		public Boolean call() {
+			IOException lastError = null;
+			for (int attempt = 0; attempt <= retries; attempt++) {
+				if (attempt > 0) {
+					LOG.warning("Retrying copy of " + src.getPath() + " (attempt " + (attempt + 1) + "); cause=" + lastError);
+				}
+				try {
+					copyFile();
+					result.copied(src.getLen());
+					return Boolean.TRUE;
+				} catch (IOException ex) {
+					lastError = ex;
+				}
+			}
+			result.failed(src.getPath(), lastError);
+			return Boolean.FALSE;
+		}
+
+		private void copyFile() throws IOException {
+			CompressionCodec sourceCodec = (decompression != null ? decompression.getCodec(src.getPath()) : null);
+			Decompressor decompressor = (sourceCodec != null ? CodecPool.getDecompressor(sourceCodec) : null);
+			Compressor compressor = (codec != null ? CodecPool.getCompressor(codec) : null);
+			InputStream in = srcFs.open(src.getPath());
+			OutputStream out = null;
+			try {
+				if (sourceCodec != null) {
+					in = sourceCodec.createInputStream(in, decompressor);
+				}
+				// overwrite since a previous attempt may have left a partial file behind
+				out = dstFs.create(target, true);
+				if (codec != null) {
+					out = codec.createOutputStream(out, compressor);
+				}
+				IOUtils.copyBytes(in, out, configuration, false);
+				out.close();
+				out = null;
+			} finally {
+				IOUtils.closeStream(out);
+				IOUtils.closeStream(in);
+				if (decompressor != null) {
+					CodecPool.returnDecompressor(decompressor);
+				}
+				if (compressor != null) {
+					CodecPool.returnCompressor(compressor);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Statistics of a copy run.
+	 */
+	public static class CopyResult {
+
+		private final long start = System.currentTimeMillis();
+		private long end;
+		private final AtomicInteger files = new AtomicInteger();
+		private final AtomicLong bytes = new AtomicLong();
+		private final List<String> failures = new ArrayList<String>();
+
+		void copied(long length) {
+			files.incrementAndGet();
+			bytes.addAndGet(length);
+		}
+
+		synchronized void failed(Path path, IOException cause) {
+			failures.add(path + ": " + (cause != null ? cause.getMessage() : "unknown error"));
+		}
+
+		void finish() {
+			end = System.currentTimeMillis();
+		}
+
+		public int getFiles() {
+			return files.get();
+		}
+
+		public long getBytes() {
+			return bytes.get();
+		}
+
+		public long getElapsedMillis() {
+			return Math.max(1, end - start);
+		}
+
+		public synchronized List<String> getFailures() {
+			return new ArrayList<String>(failures);
+		}
+
+		/**
+		 * Returns the throughput of the run in megabytes per second.
+		 *
+		 * @return the throughput in MB/s
+		 */
+		public double getThroughput() {
+			return (bytes.get() / (1024d * 1024d)) / (getElapsedMillis() / 1000d);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Copied %d files (%d bytes) in %.2f s, %.2f MB/s, %d failed", getFiles(), getBytes(),
+					getElapsedMillis() / 1000d, getThroughput(), getFailures().size());
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Client-side cache of file system metadata (listings, file statuses and content summaries) bounded both
+ * in time and in size. Entries expire after a fixed time-to-live and the least recently used ones are evicted
+ * once the maximum number of entries is reached. Commands modifying the namespace are expected to
+ * {@link #invalidate(FileSystem, Path) invalidate} the paths they touch.
+ * <p/>
+ * A value fetched while an invalidation happens may already be stale, so it is only cached if no
+ * invalidation happened since the cache was looked up.
+ *
+ * @author Jarred Li
+ */
+public class FileStatusCache {
+
+	public static final String TTL_KEY = "impala.fs.cache.ttl";
+
+	public static final String SIZE_KEY = "impala.fs.cache.size";
+
+	public static final long DEFAULT_TTL = 30 * 1000;
+
+	public static final int DEFAULT_SIZE = 1000;
+
+	private static final String LISTING = "ls:";
+
+	private static final String STATUS = "stat:";
+
+	private static final String SUMMARY = "du:";
+
+	private final long ttl;
+
+	private final Map<String, CachedValue> entries;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	// incremented by each invalidation
+	private long generation;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param ttl time-to-live of an entry, in milliseconds (0 disables caching)
+	 * @param maxEntries maximum number of entries
+	 */
+	public FileStatusCache(long ttl, final int maxEntries) {
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<String, CachedValue>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+				if (size() > maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Resolves the given pattern. Only plain paths (no glob characters) are served from the cache.
+	 *
+	 * @param fs file system
+	 * @param pattern path or glob pattern
+	 * @return the matching statuses, empty if there is no match
+	 * @throws IOException in case of I/O errors
+	 */
+	public FileStatus[] globStatus(FileSystem fs, Path pattern) throws IOException {
+		if (isPattern(pattern.toString())) {
+			FileStatus[] matches = fs.globStatus(pattern);
+			return (matches != null ? matches : new FileStatus[0]);
+		}
+		try {
+			return new FileStatus[] { getFileStatus(fs, pattern) };
+		} catch (FileNotFoundException ex) {
+			return new FileStatus[0];
+		}
+	}
+
+	public FileStatus[] listStatus(FileSystem fs, Path path) throws IOException {
+		String key = LISTING + key(fs, path);
+		long generation = generation();
+		FileStatus[] listing = (FileStatus[]) get(key);
+		if (listing == null) {
+			listing = fs.listStatus(path);
+			if (listing != null) {
+				put(key, listing, generation);
+			}
+		}
+		return listing;
+	}
+
+	public FileStatus getFileStatus(FileSystem fs, Path path) throws IOException {
+		String key = STATUS + key(fs, path);
+		long generation = generation();
+		FileStatus status = (FileStatus) get(key);
+		if (status == null) {
+			status = fs.getFileStatus(path);
+			put(key, status, generation);
+		}
+		return status;
+	}
+
+	public ContentSummary getContentSummary(TreeWalker walker, FileSystem fs, Path path) throws IOException {
+		String key = SUMMARY + key(fs, path);
+		long generation = generation();
+		ContentSummary summary = (ContentSummary) get(key);
+		if (summary == null) {
+			summary = walker.summarize(path);
+			put(key, summary, generation);
+		}
+		return summary;
+	}
+
+	/**
+	 * Removes the entries affected by a modification of the given path: the path itself, its descendants
+	 * and its ancestors (whose listings and content summaries change as well). Glob patterns invalidate
+	 * everything below their last non-glob ancestor.
+	 *
+	 * @param fs file system
+	 * @param path modified path (or pattern)
+	 */
+	public synchronized void invalidate(FileSystem fs, Path path) {
+		generation++;
+		Path base = fs.makeQualified(path);
+		while (base.getParent() != null && isPattern(base.toUri().getPath())) {
+			base = base.getParent();
+		}
+		String subtree = base.toString();
+		Iterator<String> it = entries.keySet().iterator();
+		while (it.hasNext()) {
+			String key = it.next();
+			String entryPath = key.substring(key.indexOf(':') + 1);
+			if (entryPath.equals(subtree) || entryPath.startsWith(subtree.endsWith("/") ? subtree : subtree + "/")
+					|| (!key.startsWith(STATUS) && isAncestor(entryPath, subtree))) {
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		generation++;
+		entries.clear();
+	}
+
+	public synchronized String stats() {
+		long requests = hits + misses;
+		return String.format("entries=%d, hits=%d, misses=%d, hit rate=%.1f%%, evictions=%d, ttl=%dms", entries.size(),
+				hits, misses, (requests == 0 ? 0d : hits * 100d / requests), evictions, ttl);
+	}
+
+	private synchronized Object get(String key) {
+		CachedValue entry = entries.get(key);
+		if (entry != null) {
+			if (System.currentTimeMillis() - entry.created < ttl) {
+				hits++;
+				return entry.value;
+			}
+			entries.remove(key);
+		}
+		misses++;
+		return null;
+	}
+
+	private synchronized long generation() {
+		return generation;
+	}
+
+	/**
+	 * Caches a value, unless an invalidation happened since the given generation.
+	 */
+	private synchronized void put(String key, Object value, long fetchedAt) {
+		if (ttl > 0 && fetchedAt == generation) {
+			entries.put(key, new CachedValue(value));
+		}
+	}
+
+	private static String key(FileSystem fs, Path path) {
+		return fs.makeQualified(path).toString();
+	}
+
+	private static boolean isAncestor(String candidate, String path) {
+		String prefix = (candidate.endsWith("/") ? candidate : candidate + "/");
+		return path.startsWith(prefix);
+	}
+
+	private static boolean isPattern(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if ("*?[]{}\\".indexOf(name.charAt(i)) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class CachedValue {
+		private final Object value;
+		private final long created = System.currentTimeMillis();
+
+		CachedValue(Object value) {
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * File system operations behind the <code>fs</code> commands, implemented directly against the
+ * {@link FileSystem} API. Returns typed results instead of printing them, keeps one {@link FileSystem}
+ * per scheme and authority and serves metadata through a {@link FileStatusCache}.
+ * <p/>
+ * Path arguments follow the shell conventions: several paths can be given separated by spaces and
+ * each of them can be a glob pattern.
+ *
+ * @author Jarred Li
+ */
+public class FsOperations {
+
+	private final Configuration configuration;
+
+	private final FileStatusCache cache;
+
+	private final ConcurrentMap<String, FileSystem> fileSystems = new ConcurrentHashMap<String, FileSystem>();
+
+	public FsOperations(Configuration configuration) {
+		this.configuration = configuration;
+		this.cache = new FileStatusCache(configuration.getLong(FileStatusCache.TTL_KEY, FileStatusCache.DEFAULT_TTL),
+				configuration.getInt(FileStatusCache.SIZE_KEY, FileStatusCache.DEFAULT_SIZE));
+	}
+
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+
+	public FileStatusCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the file system the given path belongs to. Instances are cached per scheme and authority,
+	 * unqualified paths resolving to the default file system.
+	 *
+	 * @param path path
+	 * @return the file system of the path
+	 * @throws IOException if the file system cannot be created
+	 */
+	public FileSystem getFileSystem(Path path) throws IOException {
+		URI uri = path.toUri();
+		if (uri.getScheme() == null) {
+			uri = FileSystem.getDefaultUri(configuration);
+		}
+		String key = uri.getScheme() + "://" + (uri.getAuthority() != null ? uri.getAuthority() : "");
+		FileSystem fs = fileSystems.get(key);
+		if (fs == null) {
+			fs = FileSystem.get(URI.create(key + "/"), configuration);
+			FileSystem existing = fileSystems.putIfAbsent(key, fs);
+			if (existing != null) {
+				fs = existing;
+			}
+		}
+		return fs;
+	}
+
+	public TreeWalker walker(FileSystem fs) {
+		return new TreeWalker(fs, configuration.getInt(TreeWalker.CONCURRENCY_KEY, TreeWalker.DEFAULT_CONCURRENCY));
+	}
+
+	/**
+	 * Resolves the given (space separated) paths or patterns.
+	 *
+	 * @param paths paths or patterns
+	 * @return the matching statuses, in argument order
+	 * @throws FileNotFoundException if one of the arguments matches nothing
+	 * @throws IOException in case of I/O errors
+	 */
+	public List<FileStatus> glob(String paths) throws IOException {
+		List<FileStatus> result = new ArrayList<FileStatus>();
+		for (String fileName : paths.split(" ")) {
+			Path pattern = new Path(fileName);
+			FileStatus[] matches = cache.globStatus(getFileSystem(pattern), pattern);
+			if (matches.length == 0) {
+				throw new FileNotFoundException("Cannot access " + fileName + ": No such file or directory.");
+			}
+			result.addAll(Arrays.asList(matches));
+		}
+		return result;
+	}
+
+	/**
+	 * Lists the given paths: directories are replaced by their content, files are returned as is.
+	 *
+	 * @param paths paths or patterns
+	 * @return the listing
+	 * @throws IOException in case of I/O errors
+	 */
+	public List<FileStatus> list(String paths) throws IOException {
+		List<FileStatus> result = new ArrayList<FileStatus>();
+		for (FileStatus match : glob(paths)) {
+			result.addAll(Arrays.asList(list(match)));
+		}
+		return result;
+	}
+
+	/**
+	 * Lists the given status: the content of a directory or the file itself.
+	 *
+	 * @param status resolved status
+	 * @return the listing
+	 * @throws IOException in case of I/O errors
+	 */
+	public FileStatus[] list(FileStatus status) throws IOException {
+		if (!status.isDir()) {
+			return new FileStatus[] { status };
+		}
+		FileStatus[] children = cache.listStatus(getFileSystem(status.getPath()), status.getPath());
+		return (children != null ? children : new FileStatus[0]);
+	}
+
+	/**
+	 * Visits the given paths and, for directories, their whole sub-tree. Matching files are handed to
+	 * the visitor as a single entry listing whose parent is the file itself.
+	 *
+	 * @param paths paths or patterns
+	 * @param visitor visitor, invoked concurrently
+	 * @throws IOException in case of I/O errors
+	 */
+	public void walk(String paths, TreeWalker.Visitor visitor) throws IOException {
+		for (FileStatus match : glob(paths)) {
+			if (match.isDir()) {
+				walker(getFileSystem(match.getPath())).walk(match, visitor);
+			}
+			else {
+				visitor.visit(match, new FileStatus[] { match });
+			}
+		}
+	}
+
+	/**
+	 * Summarizes the given paths, or the entries they contain.
+	 *
+	 * @param paths paths or patterns
+	 * @param content whether to summarize the content of directories instead of the directories themselves
+	 * @return the summaries
+	 * @throws IOException in case of I/O errors
+	 */
+	public List<PathSummary> summarize(String paths, boolean content) throws IOException {
+		List<FileStatus> items = (content ? list(paths) : glob(paths));
+		List<PathSummary> result = new ArrayList<PathSummary>(items.size());
+		for (FileStatus item : items) {
+			result.add(new PathSummary(item.getPath(), summarize(item)));
+		}
+		return result;
+	}
+
+	/**
+	 * Summarizes the given status, through the cache for directories.
+	 *
+	 * @param status resolved status
+	 * @return the content summary
+	 * @throws IOException in case of I/O errors
+	 */
+	public ContentSummary summarize(FileStatus status) throws IOException {
+		if (!status.isDir()) {
+			return new ContentSummary(status.getLen(), 1, 0);
+		}
+		FileSystem fs = getFileSystem(status.getPath());
+		return cache.getContentSummary(walker(fs), fs, status.getPath());
+	}
+
+	/**
+	 * Evicts the metadata of the given (space separated) paths from the cache.
+	 *
+	 * @param paths modified paths or patterns
+	 */
+	public void invalidate(String paths) {
+		for (String fileName : paths.split(" ")) {
+			try {
+				Path path = new Path(fileName);
+				cache.invalidate(getFileSystem(path), path);
+			} catch (Exception ex) {
+				// the path cannot be resolved hence it cannot be cached either
+			}
+		}
+	}
+
+	/**
+	 * Content summary of a path.
+	 */
+	public static class PathSummary {
+
+		private final Path path;
+		private final ContentSummary summary;
+
+		public PathSummary(Path path, ContentSummary summary) {
+			this.path = path;
+			this.summary = summary;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		public ContentSummary getSummary() {
+			return summary;
+		}
+	}
+}
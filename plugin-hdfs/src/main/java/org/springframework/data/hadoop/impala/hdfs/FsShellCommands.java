@@ -15,19 +15,41 @@
  */
 package org.springframework.data.hadoop.impala.hdfs;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.Formatter;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
 
 import javax.annotation.PostConstruct;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.FsShell;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.Trash;
+import org.apache.hadoop.fs.permission.ChmodParser;
+import org.apache.hadoop.fs.permission.FsPermission;
 import org.springframework.data.hadoop.impala.common.ConfigurationAware;
+import org.springframework.data.hadoop.impala.common.util.RecordWriter;
+import org.springframework.data.hadoop.impala.common.util.RecordWriter.Format;
+import org.springframework.data.hadoop.impala.hdfs.Compactor.CompactResult;
+import org.springframework.data.hadoop.impala.hdfs.CopyEngine.CopyResult;
+import org.springframework.data.hadoop.impala.hdfs.FsOperations.PathSummary;
+import org.springframework.data.hadoop.impala.hdfs.TreeSync.SyncResult;
 import org.springframework.shell.core.ExecutionProcessor;
 import org.springframework.shell.core.annotation.CliCommand;
 import org.springframework.shell.core.annotation.CliOption;
@@ -45,11 +67,28 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 
 	private static final String PREFIX = "fs ";
 
+	// commands modifying the namespace, whose path arguments need to be evicted from the cache
+	private static final Set<String> MUTATING_COMMANDS = new HashSet<String>(Arrays.asList("chgrp", "chown", "chmod",
+			"compact", "copyFromLocal", "extract", "put", "moveFromLocal", "cp", "mv", "mkdir", "rm", "setrep", "sync", "touchz"));
+
+	private static final String[] LISTING_FIELDS = { "path", "type", "permission", "replication", "owner", "group",
+			"length", "modificationTime" };
+
+	// bytes buffered per file read ahead by copyMergeToLocal
+	private static final int MERGE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	// bytes read at a time by cat, text and tail, io.file.buffer.size being sized for small requests - also
+	// the length lines are cut at with --lines and --grep
+	private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
 	private FsShell shell;
 
+	private FsOperations ops;
+
 	@PostConstruct
 	public void init() {
 		shell = new FsShell(getHadoopConfiguration());
+		ops = new FsOperations(getHadoopConfiguration());
 	}
 
 	@Override
@@ -79,33 +118,78 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 		}
 	}
 
+	@Override
+	public void afterReturningInvocation(ParseResult invocationContext, Object result) {
+		invalidate(invocationContext);
+	}
+
+	@Override
+	public void afterThrowingInvocation(ParseResult invocationContext, Throwable thrown) {
+		invalidate(invocationContext);
+	}
+
+	private void invalidate(ParseResult invocationContext) {
+		String name = invocationContext.getMethod().getName();
+		if ("expunge".equals(name)) {
+			ops.getCache().clear();
+		}
+		else if (MUTATING_COMMANDS.contains(name)) {
+			for (Object argument : invocationContext.getArguments()) {
+				if (argument instanceof String) {
+					ops.invalidate((String) argument);
+				}
+			}
+		}
+	}
+
 	@CliCommand(value = PREFIX + "ls", help = "List files in the directory")
 	public void ls(
 			@CliOption(key = { "" }, mandatory = false, specifiedDefaultValue = ".", unspecifiedDefaultValue = ".", help = "directory to be listed") final String path,
 			@CliOption(key = { "recursive" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether with recursion") final boolean recursive) {
+		RecordWriter writer = recordWriter(LISTING_FIELDS);
 		if (recursive) {
-			runCommand("-lsr", path);
+			listRecursively(path, writer);
 		}
 		else {
-			runCommand("-ls", path);
+			list(path, writer);
 		}
 	}
 
+	@CliCommand(value = PREFIX + "cache stats", help = "Show the statistics of the file metadata cache")
+	public String cacheStats() {
+		return ops.getCache().stats();
+	}
+
+	@CliCommand(value = PREFIX + "cache clear", help = "Clear the file metadata cache")
+	public void cacheClear() {
+		ops.getCache().clear();
+	}
+
 
 	@CliCommand(value = PREFIX + "cat", help = "Copy source paths to stdout")
-	public void cat(@CliOption(key = { "" }, mandatory = true, specifiedDefaultValue = ".", unspecifiedDefaultValue = ".", help = "file name to be showed") final String path) {
-		runCommand("-cat", path);
+	public void cat(@CliOption(key = { "" }, mandatory = true, specifiedDefaultValue = ".", unspecifiedDefaultValue = ".", help = "file name to be showed") final String path,
+			@CliOption(key = { "offset" }, mandatory = false, unspecifiedDefaultValue = "0", help = "byte offset to start from (negative counts from the end)") final long offset,
+			@CliOption(key = { "length" }, mandatory = false, unspecifiedDefaultValue = "-1", help = "maximum number of bytes to show") final long length,
+			@CliOption(key = { "lines" }, mandatory = false, unspecifiedDefaultValue = "-1", help = "maximum number of lines to show, lines being cut at 256 KB") final long lines,
+			@CliOption(key = { "grep" }, mandatory = false, help = "only show lines matching this regular expression, lines being cut at 256 KB") final String grep) {
+		if (offset == 0 && length < 0 && lines < 0 && grep == null) {
+			runCommand("-cat", path);
+		}
+		else {
+			stream(path, offset, length, lines, grep, false, false);
+		}
 	}
 
 	@CliCommand(value = PREFIX + "chgrp", help = "Change group association of files")
 	public void chgrp(@CliOption(key = { "recursive" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether with recursion") final boolean recursive,
 			@CliOption(key = { "group" }, mandatory = true, help = "group name") final String group,
 			@CliOption(key = { "" }, mandatory = true, help = "file name to be changed group") final String path) {
-		List<String> argv = new ArrayList<String>();
-		argv.add("-chgrp");
 		if (recursive) {
-			argv.add("-R");
+			applyRecursively(path, ownerAction(null, group));
+			return;
 		}
+		List<String> argv = new ArrayList<String>();
+		argv.add("-chgrp");
 		argv.add(group);
 		String[] fileNames = path.split(" ");
 		argv.addAll(Arrays.asList(fileNames));
@@ -117,11 +201,12 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 			@CliOption(key = { "recursive" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether with recursion") final boolean recursive,
 			@CliOption(key = { "owner" }, mandatory = true, help = "owner name") final String owner,
 			@CliOption(key = { "" }, mandatory = true, help = "file name to be changed group") final String path) {
-		List<String> argv = new ArrayList<String>();
-		argv.add("-chown");
 		if (recursive) {
-			argv.add("-R");
+			applyRecursively(path, ownerAction(owner));
+			return;
 		}
+		List<String> argv = new ArrayList<String>();
+		argv.add("-chown");
 		argv.add(owner);
 		String[] fileNames = path.split(" ");
 		argv.addAll(Arrays.asList(fileNames));
@@ -133,21 +218,53 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 			@CliOption(key = { "recursive" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether with recursion") final boolean recursive,
 			@CliOption(key = { "mode" }, mandatory = true, help = "permission mode") final String mode,
 			@CliOption(key = { "" }, mandatory = true, help = "file name to be changed permissions") final String path) {
-		List<String> argv = new ArrayList<String>();
-		argv.add("-chmod");
 		if (recursive) {
-			argv.add("-R");
+			applyRecursively(path, permissionAction(mode));
+			return;
 		}
+		List<String> argv = new ArrayList<String>();
+		argv.add("-chmod");
 		argv.add(mode);
 		String[] fileNames = path.split(" ");
 		argv.addAll(Arrays.asList(fileNames));
 		run(argv.toArray(new String[0]));
 	}
 	
+	@CliCommand(value = PREFIX + "compact", help = "Pack the small files of a directory into a SequenceFile keyed by their original path")
+	public void compact(
+			@CliOption(key = { "from" }, mandatory = true, help = "directory to compact") final String source,
+			@CliOption(key = { "to" }, mandatory = true, help = "SequenceFile to create") final String dest,
+			@CliOption(key = { "maxFileSize" }, mandatory = false, unspecifiedDefaultValue = "16", help = "size in MB above which files are left in place") final long maxFileSize,
+			@CliOption(key = { "compress" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether block compress the archive") final boolean compress,
+			@CliOption(key = { "delete" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether remove the compacted files once the archive is verified") final boolean delete,
+			@CliOption(key = { "skipTrash" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether skip trash when removing the compacted files") final boolean skipTrash,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "10", help = "number of files read in parallel") final int threads) {
+		try {
+			Path src = new Path(source);
+			Compactor compactor = new Compactor(getHadoopConfiguration(), threads, System.out);
+			compactor.setMaxFileSize(maxFileSize * 1024 * 1024);
+			compactor.setCompress(compress);
+			compactor.setDelete(delete);
+			compactor.setSkipTrash(skipTrash);
+			CompactResult result = compactor.compact(ops.getFileSystem(src), src, new Path(dest));
+			for (String failure : result.getFailures()) {
+				LOG.severe("compact failed: " + failure);
+			}
+			System.out.println("Compacted " + result);
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
 	@CliCommand(value = PREFIX + "copyFromLocal", help = "Copy single src, or multiple srcs from local file system to the destination file system. Same as put")
 	public void copyFromLocal(
 			@CliOption(key = { "from" }, mandatory = true, help = "source file names") final String source,
-			@CliOption(key = { "to" }, mandatory = true, help = "destination path name") final String dest) {
+			@CliOption(key = { "to" }, mandatory = true, help = "destination path name") final String dest,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "1", help = "number of threads copying files in parallel") final int threads) {
+		if (threads > 1) {
+			parallelPut(source, dest, threads, null);
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-copyFromLocal");
 		String[] fileNames = source.split(" ");
@@ -159,7 +276,22 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 	@CliCommand(value = PREFIX + "put", help = "Copy single src, or multiple srcs from local file system to the destination file system")
 	public void put(
 			@CliOption(key = { "from" }, mandatory = true, help = "source file names") final String source,
-			@CliOption(key = { "to" }, mandatory = true, help = "destination path name") final String dest) {
+			@CliOption(key = { "to" }, mandatory = true, help = "destination path name") final String dest,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "1", help = "number of threads copying files in parallel") final int threads,
+			@CliOption(key = { "chunkSize" }, mandatory = false, unspecifiedDefaultValue = "0", help = "transfer a single file as resumable chunks of this many MB - on Hadoop 1.x, which has no concat, joining the chunks writes the data to HDFS a second time and reads it back once") final long chunkSize,
+			@CliOption(key = { "codec" }, mandatory = false, help = "compress the files while uploading them - gzip, bzip2, deflate or snappy") final String codec) {
+		if (chunkSize > 0 && codec != null) {
+			LOG.severe("Compressed files cannot be transferred in chunks, please use either --chunkSize or --codec");
+			return;
+		}
+		if (chunkSize > 0) {
+			chunkedPut(source, dest, chunkSize, threads);
+			return;
+		}
+		if (threads > 1 || codec != null) {
+			parallelPut(source, dest, threads, codec);
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-put");
 		String[] fileNames = source.split(" ");
@@ -186,7 +318,12 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 			@CliOption(key = { "from" }, mandatory = true, help = "source file names") final String source,
 			@CliOption(key = { "to" }, mandatory = true, help = "destination path name") final String dest,
 			@CliOption(key = { "ignoreCrc" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether ignore CRC") final boolean ignoreCrc,
-			@CliOption(key = { "crc" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether copy CRC") final boolean crc) {
+			@CliOption(key = { "crc" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether copy CRC") final boolean crc,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "1", help = "number of threads copying files in parallel") final int threads) {
+		if (threads > 1 && !crc) {
+			parallelGet(source, dest, ignoreCrc, threads, null, false);
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-copyToLocal");
 		if(ignoreCrc){
@@ -204,15 +341,42 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 	public void copyMergeToLocal(
 			@CliOption(key = { "from" }, mandatory = true, help = "source file names") final String source,
 			@CliOption(key = { "to" }, mandatory = true, help = "destination path name") final String dest,
-			@CliOption(key = { "endline" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether add a newline character at the end of each file") final boolean endline){
-		List<String> argv = new ArrayList<String>();
-		argv.add("-getmerge");
-		argv.add(source);
-		argv.add(dest);
-		if(endline){
-			argv.add("true");
+			@CliOption(key = { "endline" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether add a newline character at the end of each file") final boolean endline,
+			@CliOption(key = { "prefetch" }, mandatory = false, unspecifiedDefaultValue = "8", help = "number of files read ahead concurrently") final int prefetch,
+			@CliOption(key = { "decompress" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether decompress the files recognized as compressed by their extension") final boolean decompress,
+			@CliOption(key = { "headerLines" }, mandatory = false, unspecifiedDefaultValue = "0", help = "number of header lines of each file, only kept from the first one") final int headerLines) {
+		try {
+			List<FileStatus> files = new ArrayList<FileStatus>();
+			for (FileStatus match : ops.glob(source)) {
+				// a copy, the listing may be the one held by the cache
+				FileStatus[] items = ops.list(match).clone();
+				Arrays.sort(items);
+				for (FileStatus item : items) {
+					if (!item.isDir()) {
+						files.add(item);
+					}
+				}
+			}
+			MergeEngine engine = new MergeEngine(getHadoopConfiguration(), prefetch, MERGE_BUFFER_SIZE);
+			engine.setEndline(endline);
+			engine.setDecompress(decompress);
+			engine.setHeaderLines(headerLines);
+			long start = System.currentTimeMillis();
+			OutputStream out = new FileOutputStream(dest);
+			long bytes;
+			try {
+				bytes = engine.merge(ops.getFileSystem(new Path(source)), files, out);
+			} finally {
+				out.close();
+			}
+			double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000d;
+			System.out.println(String.format("Merged %d files (%d bytes) in %.2f s, %.2f MB/s", files.size(), bytes,
+					seconds, bytes / (1024d * 1024d) / seconds));
+		} catch (FileNotFoundException ex) {
+			LOG.severe(ex.getMessage());
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
 		}
-		run(argv.toArray(new String[0]));
 	}
 
 	
@@ -221,7 +385,24 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 			@CliOption(key = { "from" }, mandatory = true, help = "source file names") final String source,
 			@CliOption(key = { "to" }, mandatory = true, help = "destination path name") final String dest,
 			@CliOption(key = { "ignoreCrc" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether ignore CRC") final boolean ignoreCrc,
-			@CliOption(key = { "crc" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether copy CRC") final boolean crc) {
+			@CliOption(key = { "crc" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether copy CRC") final boolean crc,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "1", help = "number of threads copying files in parallel") final int threads,
+			@CliOption(key = { "chunkSize" }, mandatory = false, unspecifiedDefaultValue = "0", help = "transfer a single file as resumable chunks of this many MB") final long chunkSize,
+			@CliOption(key = { "codec" }, mandatory = false, help = "compress the files while downloading them - gzip, bzip2, deflate or snappy") final String codec,
+			@CliOption(key = { "decompress" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether decompress the files recognized as compressed by their extension") final boolean decompress) {
+		boolean transcode = (codec != null || decompress);
+		if (transcode && (chunkSize > 0 || crc)) {
+			LOG.severe("Compressed files cannot be transferred in chunks or with their CRC files");
+			return;
+		}
+		if (chunkSize > 0) {
+			chunkedGet(source, dest, ignoreCrc, chunkSize, threads);
+			return;
+		}
+		if ((threads > 1 && !crc) || transcode) {
+			parallelGet(source, dest, ignoreCrc, threads, codec, decompress);
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-get");
 		if(ignoreCrc){
@@ -240,20 +421,38 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 	public void count(
 			@CliOption(key = { "quota" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether with quta information") final boolean quota,
 			@CliOption(key = { "path" }, mandatory = true, help = "path name") final String path) {
-		List<String> argv = new ArrayList<String>();
-		argv.add("-count");
-		if(quota){
-			argv.add("-q");
+		try {
+			RecordWriter writer = recordWriter("path", "directories", "files", "length", "quota", "spaceConsumed", "spaceQuota");
+			for (String fileName : path.split(" ")) {
+				try {
+					for (PathSummary summary : ops.summarize(fileName, false)) {
+						ContentSummary content = summary.getSummary();
+						if (writer != null) {
+							writer.write(summary.getPath(), content.getDirectoryCount(), content.getFileCount(),
+									content.getLength(), content.getQuota(), content.getSpaceConsumed(), content.getSpaceQuota());
+						}
+						else {
+							System.out.println(content.toString(quota) + summary.getPath());
+						}
+					}
+				} catch (FileNotFoundException ex) {
+					LOG.severe("Can not find listing for " + fileName);
+				}
+			}
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
 		}
-		String[] fileNames = path.split(" ");
-		argv.addAll(Arrays.asList(fileNames));
-		run(argv.toArray(new String[0]));
 	}
 	
 	@CliCommand(value = PREFIX + "cp", help = "Copy files from source to destination. This command allows multiple sources as well in which case the destination must be a directory")
 	public void cp(
 			@CliOption(key = { "from" }, mandatory = true, help = "source file names") final String source,
-			@CliOption(key = { "to" }, mandatory = true, help = "destination path name") final String dest) {
+			@CliOption(key = { "to" }, mandatory = true, help = "destination path name") final String dest,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "1", help = "number of threads copying files in parallel") final int threads) {
+		if (threads > 1) {
+			parallelCopy(source, dest, threads);
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-cp");
 		String[] fileNames = source.split(" ");
@@ -278,15 +477,35 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 	public void du(
 			@CliOption(key = { "" }, mandatory = false, specifiedDefaultValue = ".", unspecifiedDefaultValue = ".", help = "directory to be listed") final String path,
 			@CliOption(key = { "summary" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether with summary") final boolean summary) {
-		List<String> argv = new ArrayList<String>();
-		if(summary){
-			argv.add("-dus");
-		}
-		else{
-			argv.add("-du");
+		try {
+			RecordWriter writer = recordWriter("path", "length");
+			if (writer != null) {
+				for (FileStatus item : (summary ? ops.glob(path) : ops.list(path))) {
+					writer.write(item.getPath(), ops.summarize(item).getLength());
+				}
+				return;
+			}
+			List<PathSummary> summaries = ops.summarize(path, !summary);
+			if (summary) {
+				for (PathSummary item : summaries) {
+					System.out.println(item.getPath() + "\t" + item.getSummary().getLength());
+				}
+				return;
+			}
+			System.out.println("Found " + summaries.size() + " items");
+			int maxLength = 10;
+			for (PathSummary item : summaries) {
+				maxLength = Math.max(maxLength, String.valueOf(item.getSummary().getLength()).length());
+			}
+			for (PathSummary item : summaries) {
+				System.out.printf("%-" + (maxLength + 2) + "d", item.getSummary().getLength());
+				System.out.println(item.getPath());
+			}
+		} catch (FileNotFoundException ex) {
+			LOG.severe(ex.getMessage());
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
 		}
-		argv.add(path);
-		run(argv.toArray(new String[0]));
 	}
 	
 	@CliCommand(value = PREFIX + "expunge", help = "Empty the trash")
@@ -297,6 +516,29 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 	}
 	
 	
+	@CliCommand(value = PREFIX + "extract", help = "Restore the files packed by fs compact")
+	public void extract(
+			@CliOption(key = { "from" }, mandatory = true, help = "SequenceFile created by fs compact") final String source,
+			@CliOption(key = { "to" }, mandatory = false, help = "destination directory, the original location if not specified") final String dest,
+			@CliOption(key = { "overwrite" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether replace existing files") final boolean overwrite,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "10", help = "number of files written in parallel") final int threads) {
+		try {
+			Path archive = new Path(source);
+			FileSystem fs = ops.getFileSystem(archive);
+			Path destPath = (dest != null ? new Path(dest) : null);
+			Compactor compactor = new Compactor(getHadoopConfiguration(), threads, System.out);
+			compactor.setOverwrite(overwrite);
+			CompactResult result = compactor.extract(fs, archive, (destPath != null ? ops.getFileSystem(destPath) : fs),
+					destPath);
+			for (String failure : result.getFailures()) {
+				LOG.severe("extract failed: " + failure);
+			}
+			System.out.println("Extracted " + result);
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
 	@CliCommand(value = PREFIX + "mkdir", help = "Create a new directory")
 	public void mkdir(
 			@CliOption(key = { "" }, mandatory = true, help = "directory name") final String dir) {
@@ -310,21 +552,31 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 	public void rm(
 			@CliOption(key = { "" }, mandatory = false, specifiedDefaultValue = ".", unspecifiedDefaultValue = ".", help = "directory to be listed") final String path,
 			@CliOption(key = { "skipTrash" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether skip trash") final boolean skipTrash,
-			@CliOption(key = { "recursive" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether with recursion") final boolean recursive) {
+			@CliOption(key = { "recursive" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether with recursion") final boolean recursive,
+			@CliOption(key = { "dry-run" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "only report what would be removed") final boolean dryRun) {
 		try {
 			Path file = new Path(path);
-			FileSystem fs = file.getFileSystem(getHadoopConfiguration());
-			for (Path p : FileUtil.stat2Paths(fs.globStatus(file), file)) {
-				FileStatus status = fs.getFileStatus(p);
+			FileSystem fs = ops.getFileSystem(file);
+			FileStatus[] matches = fs.globStatus(file);
+			if (matches == null || matches.length == 0) {
+				LOG.severe("run HDFS shell failed. Message is: File " + path + " does not exist.");
+				return;
+			}
+			List<FileStatus> statuses = Arrays.asList(matches);
+			for (FileStatus status : statuses) {
 				if (status.isDir() && !recursive) {
 					LOG.severe("To remove directory, please use fs rm --recursive instead");
 					return;
 				}
-				if (!skipTrash) {
-						Trash trash = new Trash(fs, getHadoopConfiguration());
-						trash.moveToTrash(p);
-				}
-				fs.delete(p, recursive);
+			}
+			BatchDeleter deleter = new BatchDeleter(fs, getHadoopConfiguration(), getHadoopConfiguration().getInt(
+					TreeWalker.CONCURRENCY_KEY, TreeWalker.DEFAULT_CONCURRENCY), System.out);
+			if (dryRun) {
+				deleter.dryRun(statuses, ops.walker(fs));
+				return;
+			}
+			for (String failure : deleter.delete(statuses, skipTrash)) {
+				LOG.severe("rm failed: " + failure);
 			}
 		} catch (Throwable t) {
 			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
@@ -353,10 +605,66 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 		run(argv.toArray(new String[0]));
 	}
 	
+	@CliCommand(value = PREFIX + "stat", help = "Print statistics about the file/directory")
+	public void stat(
+			@CliOption(key = { "" }, mandatory = true, help = "path name") final String path,
+			@CliOption(key = { "format" }, mandatory = false, unspecifiedDefaultValue = "%y", help = "output format: %b size, %F type, %n name, %o block size, %r replication, %y modification date, %Y modification time in ms") final String format) {
+		try {
+			RecordWriter writer = recordWriter("path", "type", "length", "blockSize", "replication", "modificationTime");
+			for (FileStatus status : ops.glob(path)) {
+				if (writer != null) {
+					writer.write(status.getPath(), (status.isDir() ? "directory" : "file"), status.getLen(),
+							status.getBlockSize(), status.getReplication(), status.getModificationTime());
+				}
+				else {
+					System.out.println(formatStatus(status, format));
+				}
+			}
+		} catch (FileNotFoundException ex) {
+			LOG.severe(ex.getMessage());
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
+	@CliCommand(value = PREFIX + "sync", help = "Copy the new and changed files of the source tree to the destination")
+	public void sync(
+			@CliOption(key = { "from" }, mandatory = true, help = "source path, on the local file system unless qualified") final String source,
+			@CliOption(key = { "to" }, mandatory = true, help = "destination path name") final String dest,
+			@CliOption(key = { "checksum" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether compare files of the same size by checksum instead of modification time") final boolean checksum,
+			@CliOption(key = { "delete" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether remove destination files missing from the source") final boolean delete,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "10", help = "number of threads comparing and copying files in parallel") final int threads) {
+		try {
+			Path src = new Path(source);
+			FileSystem srcFs = (src.toUri().getScheme() == null ? localFileSystem() : ops.getFileSystem(src));
+			Path destPath = new Path(dest);
+			TreeSync sync = new TreeSync(getHadoopConfiguration(), threads, System.out);
+			sync.setChecksum(checksum);
+			sync.setDelete(delete);
+			SyncResult result = sync.sync(srcFs, src, ops.getFileSystem(destPath), destPath);
+			for (String failure : result.getFailures()) {
+				LOG.severe("sync failed: " + failure);
+			}
+			System.out.println(result);
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
 	@CliCommand(value = PREFIX + "tail", help = "Display last kilobyte of the file to stdout")
 	public void tail(
 			@CliOption(key = { "" }, mandatory = true, help = "file to be tailed") final String path,
-			@CliOption(key = { "file" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether show content while file grow") final boolean file) {
+			@CliOption(key = { "file" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether show content while file grow") final boolean file,
+			@CliOption(key = { "lines" }, mandatory = false, unspecifiedDefaultValue = "-1", help = "number of lines to show instead of the last kilobyte, lines being cut at 256 KB, not with --file") final long lines,
+			@CliOption(key = { "grep" }, mandatory = false, help = "only show lines matching this regular expression, lines being cut at 256 KB, not with --file") final String grep) {
+		if (file && (lines >= 0 || grep != null)) {
+			LOG.severe("A growing file cannot be followed by lines or filtered, please use either --file or --lines and --grep");
+			return;
+		}
+		if (lines >= 0 || grep != null) {
+			stream(path, -1024, -1, lines, grep, false, lines >= 0);
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-tail");
 		if(file){
@@ -368,7 +676,15 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 	
 	@CliCommand(value = PREFIX + "text", help = "Take a source file and output the file in text format")
 	public void text(
-			@CliOption(key = { "" }, mandatory = true, help = "file to be showed") final String path) {
+			@CliOption(key = { "" }, mandatory = true, help = "file to be showed") final String path,
+			@CliOption(key = { "offset" }, mandatory = false, unspecifiedDefaultValue = "0", help = "offset in the decoded content to start from") final long offset,
+			@CliOption(key = { "length" }, mandatory = false, unspecifiedDefaultValue = "-1", help = "maximum number of decoded bytes to show") final long length,
+			@CliOption(key = { "lines" }, mandatory = false, unspecifiedDefaultValue = "-1", help = "maximum number of lines to show, lines being cut at 256 KB") final long lines,
+			@CliOption(key = { "grep" }, mandatory = false, help = "only show lines matching this regular expression, lines being cut at 256 KB") final String grep) {
+		if (offset != 0 || length >= 0 || lines >= 0 || grep != null) {
+			stream(path, offset, length, lines, grep, true, false);
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-text");
 		argv.add(path);
@@ -385,6 +701,374 @@ public class FsShellCommands extends ConfigurationAware implements ExecutionProc
 	}
 	
 	
+	private void list(String path, RecordWriter writer) {
+		try {
+			for (String fileName : path.split(" ")) {
+				List<FileStatus> matches;
+				try {
+					matches = ops.glob(fileName);
+				} catch (FileNotFoundException ex) {
+					LOG.severe(ex.getMessage());
+					continue;
+				}
+				for (FileStatus match : matches) {
+					FileStatus[] items = ops.list(match);
+					if (writer == null && matches.size() == 1 && items.length > 0) {
+						System.out.println("Found " + items.length + " items");
+					}
+					printListing(items, writer);
+				}
+			}
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
+	private void listRecursively(String path, final RecordWriter writer) {
+		try {
+			for (String fileName : path.split(" ")) {
+				try {
+					ops.walk(fileName, new TreeWalker.Visitor() {
+						public void visit(FileStatus dir, FileStatus[] children) {
+							printListing(children, writer);
+						}
+					});
+				} catch (FileNotFoundException ex) {
+					LOG.severe(ex.getMessage());
+				}
+			}
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
+	/**
+	 * Applies the given action to every file and directory matching the (space separated) paths,
+	 * descending into directories through the {@link TreeWalker}.
+	 */
+	private void applyRecursively(String path, final StatusAction action) {
+		try {
+			for (String fileName : path.split(" ")) {
+				Path pattern = new Path(fileName);
+				final FileSystem fs = ops.getFileSystem(pattern);
+				FileStatus[] matches = fs.globStatus(pattern);
+				if (matches == null || matches.length == 0) {
+					LOG.severe("could not get status for '" + fileName + "': File does not exist");
+					continue;
+				}
+				for (FileStatus match : matches) {
+					action.apply(fs, match);
+					ops.walker(fs).walk(match, new TreeWalker.Visitor() {
+						public void visit(FileStatus dir, FileStatus[] children) throws IOException {
+							for (FileStatus child : children) {
+								action.apply(fs, child);
+							}
+						}
+					});
+				}
+			}
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
+	private interface StatusAction {
+		void apply(FileSystem fs, FileStatus status) throws IOException;
+	}
+
+	private StatusAction permissionAction(String mode) {
+		final ChmodParser parser = new ChmodParser(mode);
+		return new StatusAction() {
+			public void apply(FileSystem fs, FileStatus status) throws IOException {
+				short permission = parser.applyNewPermission(status);
+				if (status.getPermission().toShort() != permission) {
+					fs.setPermission(status.getPath(), new FsPermission(permission));
+				}
+			}
+		};
+	}
+
+	private StatusAction ownerAction(String ownerAndGroup) {
+		int separator = ownerAndGroup.indexOf(':');
+		String owner = (separator < 0 ? ownerAndGroup : ownerAndGroup.substring(0, separator));
+		String group = (separator < 0 ? null : ownerAndGroup.substring(separator + 1));
+		return ownerAction((owner.length() > 0 ? owner : null), (group != null && group.length() > 0 ? group : null));
+	}
+
+	private StatusAction ownerAction(final String owner, final String group) {
+		return new StatusAction() {
+			public void apply(FileSystem fs, FileStatus status) throws IOException {
+				if ((owner != null && !owner.equals(status.getOwner()))
+						|| (group != null && !group.equals(status.getGroup()))) {
+					fs.setOwner(status.getPath(), owner, group);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns a writer for the records of the current command, or <code>null</code> if the output format is text.
+	 */
+	private RecordWriter recordWriter(String... fields) {
+		Format format = Format.of(getHadoopConfiguration());
+		return (format == Format.TEXT ? null : new RecordWriter(format, System.out, fields));
+	}
+
+	/**
+	 * Prints the given statuses in the <code>fs -ls</code> format, or as records if a writer is given.
+	 * Safe to call from several threads.
+	 */
+	private synchronized void printListing(FileStatus[] items, RecordWriter writer) {
+		if (writer != null) {
+			for (FileStatus item : items) {
+				writer.write(item.getPath(), (item.isDir() ? "directory" : "file"), item.getPermission(),
+						item.getReplication(), item.getOwner(), item.getGroup(), item.getLen(), item.getModificationTime());
+			}
+			return;
+		}
+		int maxReplication = 3, maxLen = 10, maxOwner = 0, maxGroup = 0;
+		for (FileStatus item : items) {
+			maxReplication = Math.max(maxReplication, String.valueOf(item.getReplication()).length());
+			maxLen = Math.max(maxLen, String.valueOf(item.getLen()).length());
+			maxOwner = Math.max(maxOwner, String.valueOf(item.getOwner()).length());
+			maxGroup = Math.max(maxGroup, String.valueOf(item.getGroup()).length());
+		}
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		StringBuilder sb = new StringBuilder();
+		Formatter formatter = new Formatter(sb);
+		for (FileStatus item : items) {
+			sb.append(item.isDir() ? "d" : "-").append(item.getPermission()).append(" ");
+			formatter.format("%" + maxReplication + "s ", (item.isDir() ? "-" : String.valueOf(item.getReplication())));
+			if (maxOwner > 0) {
+				formatter.format("%-" + maxOwner + "s ", item.getOwner());
+			}
+			if (maxGroup > 0) {
+				formatter.format("%-" + maxGroup + "s ", item.getGroup());
+			}
+			formatter.format("%" + maxLen + "d ", item.getLen());
+			sb.append(dateFormat.format(new Date(item.getModificationTime()))).append(" ");
+			sb.append(item.getPath().toUri().getPath());
+			System.out.println(sb);
+			sb.setLength(0);
+		}
+	}
+
+	/**
+	 * Formats the given status in the <code>fs -stat</code> format.
+	 */
+	private String formatStatus(FileStatus status, String format) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < format.length(); i++) {
+			char c = format.charAt(i);
+			if (c != '%' || i == format.length() - 1) {
+				sb.append(c);
+				continue;
+			}
+			switch (format.charAt(++i)) {
+			case 'b':
+				sb.append(status.getLen());
+				break;
+			case 'F':
+				sb.append(status.isDir() ? "directory" : (status.getLen() > 0 ? "regular file" : "regular empty file"));
+				break;
+			case 'n':
+				sb.append(status.getPath().getName());
+				break;
+			case 'o':
+				sb.append(status.getBlockSize());
+				break;
+			case 'r':
+				sb.append(status.getReplication());
+				break;
+			case 'y':
+				SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+				dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+				sb.append(dateFormat.format(new Date(status.getModificationTime())));
+				break;
+			case 'Y':
+				sb.append(status.getModificationTime());
+				break;
+			default:
+				sb.append('%').append(format.charAt(i));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Streams a window of each file matching the given pattern to stdout.
+	 *
+	 * @param decode whether to decode compressed and sequence files (read sequentially)
+	 * @param lastLines whether the window starts at the last <code>lines</code> lines instead of the offset
+	 */
+	private void stream(String path, long offset, long length, long lines, String grep, boolean decode, boolean lastLines) {
+		try {
+			Path pattern = new Path(path);
+			FileSystem fs = ops.getFileSystem(pattern);
+			FileStatus[] matches = fs.globStatus(pattern);
+			if (matches == null || matches.length == 0) {
+				LOG.severe(path + ": No such file or directory");
+				return;
+			}
+			StreamingReader reader = new StreamingReader(STREAM_BUFFER_SIZE);
+			reader.setLength(length);
+			reader.setLines(lines);
+			reader.setGrep(grep);
+			for (FileStatus status : matches) {
+				if (status.isDir()) {
+					LOG.severe(status.getPath() + ": is a directory");
+					continue;
+				}
+				long next;
+				long end = status.getLen();
+				if (decode) {
+					reader.setOffset(offset);
+					InputStream in = StreamingReader.openText(fs, status.getPath(), getHadoopConfiguration());
+					try {
+						next = reader.read(in, System.out);
+						end = (in.read() < 0 ? next : -1);
+					} finally {
+						in.close();
+					}
+				}
+				else {
+					FSDataInputStream in = fs.open(status.getPath());
+					try {
+						reader.setOffset(lastLines ? reader.lastLinesOffset(in, status.getLen(), lines) : offset);
+						next = reader.read(in, status.getLen(), System.out);
+					} finally {
+						in.close();
+					}
+				}
+				if (next != end) {
+					if (lines < 0 && grep == null) {
+						System.out.println();
+					}
+					System.out.println("[more content available, continue with --offset " + next + "]");
+				}
+			}
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
+	private void parallelPut(String source, String dest, int threads, String codec) {
+		try {
+			copy(localFileSystem(), source, null, dest, copyEngine(threads, codec, false));
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
+	private void parallelGet(String source, String dest, boolean ignoreCrc, int threads, String codec, boolean decompress) {
+		try {
+			FileSystem srcFs = (ignoreCrc ? uncheckedFileSystem(new Path(source)) : ops.getFileSystem(new Path(source)));
+			try {
+				copy(srcFs, source, localFileSystem().getRawFileSystem(), dest, copyEngine(threads, codec, decompress));
+			} finally {
+				if (ignoreCrc) {
+					srcFs.close();
+				}
+			}
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
+	private void parallelCopy(String source, String dest, int threads) {
+		try {
+			copy(null, source, null, dest, copyEngine(threads, null, false));
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage());
+		}
+	}
+
+	private void chunkedPut(String source, String dest, long chunkSize, int threads) {
+		try {
+			File src = new File(source);
+			Path destPath = new Path(dest);
+			FileSystem dstFs = ops.getFileSystem(destPath);
+			if (dstFs.exists(destPath) && dstFs.getFileStatus(destPath).isDir()) {
+				destPath = new Path(destPath, src.getName());
+			}
+			ChunkedTransfer transfer = new ChunkedTransfer(getHadoopConfiguration(), chunkSize * 1024 * 1024, threads);
+			System.out.println(transfer.upload(src, dstFs, destPath));
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage() + " - re-run the command to resume");
+		}
+	}
+
+	/**
+	 * Returns a file system instance of its own which does not verify checksums, leaving the shared cached
+	 * instance, which other commands may be using, as it is. To be closed once done with.
+	 */
+	private FileSystem uncheckedFileSystem(Path path) throws IOException {
+		Configuration configuration = new Configuration(getHadoopConfiguration());
+		String scheme = (path.toUri().getScheme() != null ? path.toUri().getScheme() : FileSystem.getDefaultUri(
+				configuration).getScheme());
+		configuration.setBoolean("fs." + scheme + ".impl.disable.cache", true);
+		FileSystem fs = path.getFileSystem(configuration);
+		fs.setVerifyChecksum(false);
+		return fs;
+	}
+
+	private void chunkedGet(String source, String dest, boolean ignoreCrc, long chunkSize, int threads) {
+		try {
+			Path src = new Path(source);
+			FileSystem srcFs = (ignoreCrc ? uncheckedFileSystem(src) : ops.getFileSystem(src));
+			File destFile = new File(dest);
+			if (destFile.isDirectory()) {
+				destFile = new File(destFile, src.getName());
+			}
+			ChunkedTransfer transfer = new ChunkedTransfer(getHadoopConfiguration(), chunkSize * 1024 * 1024, threads);
+			try {
+				System.out.println(transfer.download(srcFs, src, destFile));
+			} finally {
+				if (ignoreCrc) {
+					srcFs.close();
+				}
+			}
+		} catch (Throwable t) {
+			LOG.severe("run HDFS shell failed. Message is: " + t.getMessage() + " - re-run the command to resume");
+		}
+	}
+
+	/**
+	 * Copies the (space separated) sources to the destination through the {@link CopyEngine}.
+	 * A <code>null</code> file system stands for the one the path belongs to.
+	 */
+	private void copy(FileSystem srcFs, String source, FileSystem dstFs, String dest, CopyEngine engine) throws IOException {
+		List<Path> sources = new ArrayList<Path>();
+		for (String fileName : source.split(" ")) {
+			sources.add(new Path(fileName));
+		}
+		if (srcFs == null) {
+			srcFs = ops.getFileSystem(sources.get(0));
+		}
+		Path destPath = new Path(dest);
+		if (dstFs == null) {
+			dstFs = ops.getFileSystem(destPath);
+		}
+		CopyResult result = engine.copy(srcFs, sources, dstFs, destPath);
+		for (String failure : result.getFailures()) {
+			LOG.severe("copy failed: " + failure);
+		}
+		System.out.println(result);
+	}
+
+	private CopyEngine copyEngine(int threads, String codec, boolean decompress) throws IOException {
+		CopyEngine engine = new CopyEngine(getHadoopConfiguration(), threads);
+		if (codec != null) {
+			engine.setCodec(CopyEngine.getCodec(codec, getHadoopConfiguration()));
+		}
+		engine.setDecompress(decompress);
+		return engine;
+	}
+
+	private LocalFileSystem localFileSystem() throws IOException {
+		return FileSystem.getLocal(getHadoopConfiguration());
+	}
+
 	/**
 	 * @param value
 	 */
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+
+/**
+ * Concatenates files into a single stream, in order, while reading ahead several of them concurrently.
+ * Each file being read fills its own bounded queue of chunks, and a file is only submitted once the one
+ * <code>prefetch</code> files before it has been written: the memory used is capped at
+ * <code>prefetch * bufferSize</code> regardless of the number and sizes of the files, and the writer
+ * only waits on the file it is currently writing.
+ * <p/>
+ * The file being written is always among the ones being read, hence the pipeline cannot stall.
+ *
+ * @author Jarred Li
+ */
+public class MergeEngine {
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	// end of file marker, compared by identity
+	private static final byte[] EOF = new byte[0];
+
+	private final Configuration configuration;
+
+	private final int prefetch;
+
+	private final int chunksPerFile;
+
+	private boolean endline = false;
+
+	private boolean decompress = false;
+
+	private int headerLines = 0;
+
+	/**
+	 * Creates a new merge engine.
+	 *
+	 * @param configuration Hadoop configuration
+	 * @param prefetch number of files read concurrently
+	 * @param bufferSize maximum number of bytes buffered per file
+	 */
+	public MergeEngine(Configuration configuration, int prefetch, int bufferSize) {
+		this.configuration = configuration;
+		this.prefetch = Math.max(1, prefetch);
+		this.chunksPerFile = Math.max(1, bufferSize / CHUNK_SIZE);
+	}
+
+	/**
+	 * Sets whether a newline is added after each file.
+	 */
+	public void setEndline(boolean endline) {
+		this.endline = endline;
+	}
+
+	/**
+	 * Sets whether files recognized as compressed by their extension are decompressed.
+	 */
+	public void setDecompress(boolean decompress) {
+		this.decompress = decompress;
+	}
+
+	/**
+	 * Sets the number of header lines each file starts with. Headers are kept from the first file only.
+	 */
+	public void setHeaderLines(int headerLines) {
+		this.headerLines = Math.max(0, headerLines);
+	}
+
+	/**
+	 * Writes the content of the given files, in order, to the output stream.
+	 *
+	 * @param fs file system of the files
+	 * @param files files to merge
+	 * @param out output stream (not closed)
+	 * @return the number of bytes written
+	 * @throws IOException if a file cannot be read or the output written
+	 */
+	public long merge(FileSystem fs, List<FileStatus> files, OutputStream out) throws IOException {
+		CompressionCodecFactory codecs = (decompress ? new CompressionCodecFactory(configuration) : null);
+		ExecutorService executor = Executors.newFixedThreadPool(prefetch);
+		LinkedList<Prefetch> window = new LinkedList<Prefetch>();
+		int next = 0;
+		long bytes = 0;
+		try {
+			while (next < files.size() || !window.isEmpty()) {
+				// the files written free their place in the window for the next ones
+				while (next < files.size() && window.size() < prefetch) {
+					Prefetch read = new Prefetch(fs, files.get(next), codecs, (next > 0 ? headerLines : 0));
+					window.add(read);
+					executor.execute(read);
+					next++;
+				}
+				Prefetch read = window.removeFirst();
+				for (byte[] chunk = read.chunks.take(); chunk != EOF; chunk = read.chunks.take()) {
+					out.write(chunk);
+					bytes += chunk.length;
+				}
+				if (read.failure != null) {
+					IOException ex = new IOException(read.file.getPath() + ": " + read.failure.getMessage());
+					ex.initCause(read.failure);
+					throw ex;
+				}
+				if (endline) {
+					out.write('\n');
+					bytes++;
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Merge interrupted");
+		} finally {
+			executor.shutdownNow();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads one file into its queue of chunks, dropping the header lines if needed.
+	 */
+	private class Prefetch implements Runnable {
+
+		private final FileSystem fs;
+		private final FileStatus file;
+		private final CompressionCodecFactory codecs;
+		private long linesToSkip;
+		private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(chunksPerFile + 1);
+		private volatile Throwable failure;
+
+		Prefetch(FileSystem fs, FileStatus file, CompressionCodecFactory codecs, long linesToSkip) {
+			this.fs = fs;
+			this.file = file;
+			this.codecs = codecs;
+			this.linesToSkip = linesToSkip;
+		}
+
+		public void run() {
+			try {
+				read();
+			} catch (InterruptedException ex) {
+				// merge aborted - nobody is waiting for the remaining chunks, nor for the end of the file
+				Thread.currentThread().interrupt();
+			} catch (Throwable t) {
+				failure = t;
+			} finally {
+				// the merge waits for the end of the file whatever happened to the read
+				try {
+					chunks.put(EOF);
+				} catch (InterruptedException ex) {
+					// merge aborted
+				}
+			}
+		}
+
+		private void read() throws IOException, InterruptedException {
+			InputStream in = fs.open(file.getPath());
+			try {
+				CompressionCodec codec = (codecs != null ? codecs.getCodec(file.getPath()) : null);
+				if (codec != null) {
+					in = codec.createInputStream(in);
+				}
+				byte[] buffer = new byte[CHUNK_SIZE];
+				int length;
+				while ((length = fill(in, buffer)) > 0) {
+					int start = skipHeader(buffer, length);
+					if (start == 0 && length == buffer.length) {
+						chunks.put(buffer);
+						buffer = new byte[CHUNK_SIZE];
+					}
+					else if (start < length) {
+						chunks.put(Arrays.copyOfRange(buffer, start, length));
+					}
+				}
+			} finally {
+				IOUtils.closeStream(in);
+			}
+		}
+
+		/**
+		 * Returns the offset of the first byte past the header lines remaining in the buffer.
+		 */
+		private int skipHeader(byte[] buffer, int length) {
+			int start = 0;
+			while (linesToSkip > 0 && start < length) {
+				if (buffer[start++] == '\n') {
+					linesToSkip--;
+				}
+			}
+			return start;
+		}
+
+		private int fill(InputStream in, byte[] buffer) throws IOException {
+			int total = 0;
+			while (total < buffer.length) {
+				int read = in.read(buffer, total, buffer.length - total);
+				if (read < 0) {
+					break;
+				}
+				total += read;
+			}
+			return total;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Streams a window of a file to an output stream, reading only the bytes that are actually displayed.
+ * Raw files are read through positional reads into a single reusable buffer; decoded (compressed or
+ * sequence) files are read sequentially. The window is defined by an offset (negative values count from
+ * the end of the file), a maximum length and, for line oriented output, a maximum number of lines and
+ * an optional regular expression the lines have to match. In that line oriented mode, lines are cut at the
+ * buffer size - the rest of a longer line is skipped and the regular expression matched against the part
+ * kept - so that data without newlines never piles up in memory.
+ * <p/>
+ * Instances are not thread-safe.
+ *
+ * @author Jarred Li
+ */
+public class StreamingReader {
+
+	private final byte[] buffer;
+
+	private long offset = 0;
+
+	private long length = -1;
+
+	private long lines = -1;
+
+	private Pattern grep;
+
+	public StreamingReader(int bufferSize) {
+		this.buffer = new byte[bufferSize];
+	}
+
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	public void setLength(long length) {
+		this.length = length;
+	}
+
+	public void setLines(long lines) {
+		this.lines = lines;
+	}
+
+	public void setGrep(String regex) {
+		this.grep = (regex != null && regex.length() > 0 ? Pattern.compile(regex) : null);
+	}
+
+	/**
+	 * Writes the configured window of a raw file using positional reads.
+	 *
+	 * @param in file stream
+	 * @param fileLength file length
+	 * @param out destination
+	 * @return the file offset right after the last byte consumed, usable as the offset of the next page
+	 * @throws IOException in case of I/O errors
+	 */
+	public long read(FSDataInputStream in, long fileLength, OutputStream out) throws IOException {
+		long pos = (offset < 0 ? Math.max(0, fileLength + offset) : Math.min(offset, fileLength));
+		long end = (length < 0 ? fileLength : Math.min(fileLength, pos + length));
+		LineSink sink = new LineSink(out);
+		while (pos < end && !sink.isDone()) {
+			int size = (int) Math.min(buffer.length, end - pos);
+			in.readFully(pos, buffer, 0, size);
+			pos += sink.write(buffer, 0, size);
+		}
+		sink.flush();
+		return pos;
+	}
+
+	/**
+	 * Writes the configured window of a stream which can only be read sequentially (the offset cannot be negative).
+	 *
+	 * @param in stream
+	 * @param out destination
+	 * @return the stream offset right after the last byte consumed
+	 * @throws IOException in case of I/O errors
+	 */
+	public long read(InputStream in, OutputStream out) throws IOException {
+		if (offset < 0) {
+			throw new IOException("Negative offsets are not supported for decoded files");
+		}
+		long pos = 0;
+		while (pos < offset) {
+			long skipped = in.skip(offset - pos);
+			if (skipped <= 0) {
+				return pos;
+			}
+			pos += skipped;
+		}
+		long end = (length < 0 ? Long.MAX_VALUE : pos + length);
+		LineSink sink = new LineSink(out);
+		while (pos < end && !sink.isDone()) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, end - pos));
+			if (read < 0) {
+				break;
+			}
+			pos += sink.write(buffer, 0, read);
+		}
+		sink.flush();
+		return pos;
+	}
+
+	/**
+	 * Returns the offset at which the last <code>count</code> lines of a raw file start,
+	 * found by reading the file backwards.
+	 *
+	 * @param in file stream
+	 * @param fileLength file length
+	 * @param count number of lines
+	 * @return the offset of the first of the last lines
+	 * @throws IOException in case of I/O errors
+	 */
+	public long lastLinesOffset(FSDataInputStream in, long fileLength, long count) throws IOException {
+		if (count <= 0) {
+			return fileLength;
+		}
+		long pos = fileLength;
+		// a trailing newline terminates the last line instead of starting a new one
+		long newlines = -1;
+		if (fileLength > 0) {
+			in.readFully(fileLength - 1, buffer, 0, 1);
+			newlines = (buffer[0] == '\n' ? -1 : 0);
+		}
+		while (pos > 0) {
+			int size = (int) Math.min(buffer.length, pos);
+			long start = pos - size;
+			in.readFully(start, buffer, 0, size);
+			for (int i = size - 1; i >= 0; i--) {
+				if (buffer[i] == '\n' && ++newlines == count) {
+					return start + i + 1;
+				}
+			}
+			pos = start;
+		}
+		return 0;
+	}
+
+	/**
+	 * Opens the given file for display, decoding sequence and compressed files the same way
+	 * <code>fs -text</code> does.
+	 *
+	 * @param fs file system
+	 * @param path file
+	 * @param conf configuration
+	 * @return the (decoded) content
+	 * @throws IOException in case of I/O errors
+	 */
+	public static InputStream openText(FileSystem fs, Path path, Configuration conf) throws IOException {
+		FSDataInputStream in = fs.open(path);
+		try {
+			short magic = in.readShort();
+			if (magic == (short) 0x1f8b) {
+				in.seek(0);
+				return new GZIPInputStream(in);
+			}
+			if (magic == (short) 0x5345 && in.readByte() == 'Q') {
+				in.close();
+				return new SequenceFileStream(fs, path, conf);
+			}
+		} catch (IOException ex) {
+			// too short for a magic number
+		}
+		in.seek(0);
+		CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+		return (codec != null ? codec.createInputStream(in) : in);
+	}
+
+	/**
+	 * Writes complete lines, optionally filtered, and tracks how many input bytes have been consumed
+	 * until the line limit was reached.
+	 */
+	private class LineSink {
+
+		private final OutputStream out;
+		private final boolean lineMode = (lines >= 0 || grep != null);
+		private byte[] line = new byte[Math.min(256, buffer.length)];
+		private int lineLength = 0;
+		private long emitted = 0;
+
+		LineSink(OutputStream out) {
+			this.out = out;
+		}
+
+		boolean isDone() {
+			return lines >= 0 && emitted >= lines;
+		}
+
+		int write(byte[] bytes, int off, int len) throws IOException {
+			if (!lineMode) {
+				out.write(bytes, off, len);
+				return len;
+			}
+			for (int i = off; i < off + len; i++) {
+				if (bytes[i] == '\n') {
+					emit();
+					if (isDone()) {
+						return i + 1 - off;
+					}
+				}
+				else {
+					append(bytes[i]);
+				}
+			}
+			return len;
+		}
+
+		void flush() throws IOException {
+			if (lineMode && lineLength > 0 && !isDone()) {
+				emit();
+			}
+			out.flush();
+		}
+
+		private void append(byte b) {
+			if (lineLength == buffer.length) {
+				// cut, the rest of the line is skipped
+				return;
+			}
+			if (lineLength == line.length) {
+				byte[] larger = new byte[Math.min(line.length * 2, buffer.length)];
+				System.arraycopy(line, 0, larger, 0, lineLength);
+				line = larger;
+			}
+			line[lineLength++] = b;
+		}
+
+		private void emit() throws IOException {
+			if (grep == null || grep.matcher(new String(line, 0, lineLength, "UTF-8")).find()) {
+				out.write(line, 0, lineLength);
+				out.write('\n');
+				emitted++;
+			}
+			lineLength = 0;
+		}
+	}
+
+	/**
+	 * Renders the records of a sequence file as <code>key TAB value</code> lines.
+	 */
+	private static class SequenceFileStream extends InputStream {
+
+		private final SequenceFile.Reader reader;
+		private final WritableComparable<?> key;
+		private final Writable value;
+		private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+		private InputStream current = new ByteArrayInputStream(new byte[0]);
+
+		SequenceFileStream(FileSystem fs, Path path, Configuration conf) throws IOException {
+			reader = new SequenceFile.Reader(fs, path, conf);
+			key = ReflectionUtils.newInstance(reader.getKeyClass().asSubclass(WritableComparable.class), conf);
+			value = ReflectionUtils.newInstance(reader.getValueClass().asSubclass(Writable.class), conf);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = current.read();
+			while (b < 0) {
+				if (!nextRecord()) {
+					return -1;
+				}
+				b = current.read();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = current.read(b, off, len);
+			while (read < 0) {
+				if (!nextRecord()) {
+					return -1;
+				}
+				read = current.read(b, off, len);
+			}
+			return read;
+		}
+
+		private boolean nextRecord() throws IOException {
+			if (!reader.next(key, value)) {
+				return false;
+			}
+			record.reset();
+			record.write(key.toString().getBytes("UTF-8"));
+			record.write('\t');
+			record.write(value.toString().getBytes("UTF-8"));
+			record.write('\n');
+			current = new ByteArrayInputStream(record.toByteArray());
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
+import org.springframework.data.hadoop.impala.hdfs.CopyEngine.CopyResult;
+
+/**
+ * Makes a destination tree mirror a source tree by transferring only the files which are new or changed.
+ * A file is considered changed if its size differs or the source is more recent than the destination;
+ * optionally, files of the same size are compared by checksum instead of modification time. Both trees
+ * are listed through the {@link TreeWalker}, files are compared and copied on a bounded pool of threads.
+ * <p/>
+ * HDFS checksums are MD5 digests of the per-block MD5 digests of the chunk CRCs. File systems without
+ * checksums (such as the local one) get the same digest computed client side, using the chunk and block
+ * sizes of the checksum they are compared to.
+ *
+ * @author Jarred Li
+ */
+public class TreeSync {
+
+	private static final Pattern MD5_MD5_CRC = Pattern.compile("MD5-of-(\\d+)MD5-of-(\\d+)CRC32");
+
+	private final Configuration configuration;
+
+	private final int threads;
+
+	private final PrintStream out;
+
+	private boolean checksum = false;
+
+	private boolean delete = false;
+
+	public TreeSync(Configuration configuration, int threads, PrintStream out) {
+		this.configuration = configuration;
+		this.threads = Math.max(1, threads);
+		this.out = out;
+	}
+
+	/**
+	 * Sets whether files of the same size are compared by checksum instead of modification time.
+	 *
+	 * @param checksum whether to compare checksums
+	 */
+	public void setChecksum(boolean checksum) {
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Sets whether destination entries missing from the source are removed (moved to trash if enabled).
+	 *
+	 * @param delete whether to remove extra entries
+	 */
+	public void setDelete(boolean delete) {
+		this.delete = delete;
+	}
+
+	/**
+	 * Synchronizes the destination with the source. A source directory is mirrored into the destination
+	 * directory; a source file is copied to the destination, or under it if the destination is a directory.
+	 *
+	 * @param srcFs source file system
+	 * @param src source path
+	 * @param dstFs destination file system
+	 * @param dest destination path
+	 * @return the synchronization statistics
+	 * @throws IOException in case of I/O errors
+	 */
+	public SyncResult sync(FileSystem srcFs, Path src, FileSystem dstFs, Path dest) throws IOException {
+		FileStatus srcRoot = srcFs.getFileStatus(src);
+		FileStatus dstRoot = (dstFs.exists(dest) ? dstFs.getFileStatus(dest) : null);
+		SyncResult result = new SyncResult();
+
+		SortedMap<String, FileStatus> sources = new TreeMap<String, FileStatus>();
+		SortedMap<String, FileStatus> targets = new TreeMap<String, FileStatus>();
+		if (srcRoot.isDir()) {
+			if (dstRoot != null && !dstRoot.isDir()) {
+				throw new IOException("Cannot sync directory " + src + " to file " + dest);
+			}
+			sources = list(srcFs, srcRoot);
+			if (dstRoot != null) {
+				targets = list(dstFs, dstRoot);
+			}
+			else if (!dstFs.mkdirs(dest)) {
+				throw new IOException("Mkdirs failed to create " + dest);
+			}
+		}
+		else {
+			if (dstRoot != null && dstRoot.isDir()) {
+				dest = new Path(dest, src.getName());
+				dstRoot = (dstFs.exists(dest) ? dstFs.getFileStatus(dest) : null);
+			}
+			sources.put("", srcRoot);
+			if (dstRoot != null) {
+				targets.put("", dstRoot);
+			}
+		}
+
+		Map<FileStatus, Path> transfers = diff(srcFs, sources, dstFs, targets, dest, result);
+		result.copy = new CopyEngine(configuration, threads).copyFiles(srcFs, transfers, dstFs);
+		if (delete) {
+			List<FileStatus> extras = extras(sources, targets);
+			if (!extras.isEmpty()) {
+				List<String> failures = new BatchDeleter(dstFs, configuration, threads, out).delete(extras, false);
+				result.deleted = extras.size() - failures.size();
+				result.failures.addAll(failures);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Lists the tree below the given directory, keyed by path relative to it.
+	 */
+	private SortedMap<String, FileStatus> list(FileSystem fs, FileStatus root) throws IOException {
+		String rootPath = root.getPath().toUri().getPath();
+		final String prefix = (rootPath.endsWith("/") ? rootPath : rootPath + "/");
+		final SortedMap<String, FileStatus> entries = new ConcurrentSkipListMap<String, FileStatus>();
+		new TreeWalker(fs, threads).walk(root, new TreeWalker.Visitor() {
+			public void visit(FileStatus dir, FileStatus[] children) {
+				for (FileStatus child : children) {
+					entries.put(child.getPath().toUri().getPath().substring(prefix.length()), child);
+				}
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * Compares the source and destination entries (in parallel, as checksums may require reading the files),
+	 * creates the missing directories and returns the files to transfer.
+	 */
+	private Map<FileStatus, Path> diff(final FileSystem srcFs, SortedMap<String, FileStatus> sources,
+			final FileSystem dstFs, SortedMap<String, FileStatus> targets, Path dest, SyncResult result)
+			throws IOException {
+		Map<FileStatus, Path> transfers = new LinkedHashMap<FileStatus, Path>();
+		Map<FileStatus, Future<Boolean>> comparisons = new LinkedHashMap<FileStatus, Future<Boolean>>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (Map.Entry<String, FileStatus> entry : sources.entrySet()) {
+				final FileStatus source = entry.getValue();
+				final FileStatus target = targets.get(entry.getKey());
+				Path targetPath = (entry.getKey().length() == 0 ? dest : new Path(dest, entry.getKey()));
+				if (target != null && source.isDir() != target.isDir()) {
+					result.failures.add(source.getPath() + ": cannot replace " + targetPath + " - type mismatch");
+				}
+				else if (source.isDir()) {
+					if (target == null && !dstFs.mkdirs(targetPath)) {
+						result.failures.add(source.getPath() + ": Mkdirs failed to create " + targetPath);
+					}
+				}
+				else if (target == null) {
+					result.created++;
+					transfers.put(source, targetPath);
+				}
+				else {
+					comparisons.put(source, executor.submit(new Callable<Boolean>() {
+						public Boolean call() throws IOException {
+							return changed(srcFs, source, dstFs, target);
+						}
+					}));
+					transfers.put(source, targetPath);
+				}
+			}
+			for (Map.Entry<FileStatus, Future<Boolean>> comparison : comparisons.entrySet()) {
+				boolean changed = true;
+				try {
+					changed = comparison.getValue().get();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Sync interrupted");
+				} catch (ExecutionException ex) {
+					// cannot tell - transfer the file again
+				}
+				if (changed) {
+					result.changed++;
+				}
+				else {
+					result.unchanged++;
+					transfers.remove(comparison.getKey());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return transfers;
+	}
+
+	private boolean changed(FileSystem srcFs, FileStatus source, FileSystem dstFs, FileStatus target)
+			throws IOException {
+		if (source.getLen() != target.getLen()) {
+			return true;
+		}
+		if (checksum && source.getLen() > 0) {
+			FileChecksum srcChecksum = srcFs.getFileChecksum(source.getPath());
+			FileChecksum dstChecksum = dstFs.getFileChecksum(target.getPath());
+			if (srcChecksum == null && dstChecksum != null) {
+				srcChecksum = computeChecksum(srcFs, source, dstChecksum.getAlgorithmName());
+			}
+			else if (dstChecksum == null && srcChecksum != null) {
+				dstChecksum = computeChecksum(dstFs, target, srcChecksum.getAlgorithmName());
+			}
+			if (srcChecksum != null && dstChecksum != null) {
+				return !srcChecksum.equals(dstChecksum);
+			}
+		}
+		return source.getModificationTime() > target.getModificationTime();
+	}
+
+	/**
+	 * Computes the HDFS checksum of the given file for the chunk and block sizes found in the algorithm name.
+	 *
+	 * @return the checksum or <code>null</code> if the algorithm is not supported
+	 */
+	private FileChecksum computeChecksum(FileSystem fs, FileStatus status, String algorithm) throws IOException {
+		Matcher matcher = MD5_MD5_CRC.matcher(algorithm);
+		if (!matcher.matches() || Integer.parseInt(matcher.group(2)) <= 0) {
+			return null;
+		}
+		long crcPerBlock = Long.parseLong(matcher.group(1));
+		int bytesPerCrc = Integer.parseInt(matcher.group(2));
+		// single block files are reported with 0 checksums per block
+		long blockSize = (crcPerBlock > 0 ? crcPerBlock * bytesPerCrc : Long.MAX_VALUE);
+
+		MessageDigest fileDigest = newDigest();
+		MessageDigest blockDigest = newDigest();
+		CRC32 crc = new CRC32();
+		byte[] crcBytes = new byte[4];
+		byte[] buffer = new byte[bytesPerCrc];
+		long blockBytes = 0;
+		InputStream in = fs.open(status.getPath());
+		try {
+			int read;
+			while ((read = readChunk(in, buffer)) > 0) {
+				crc.reset();
+				crc.update(buffer, 0, read);
+				long value = crc.getValue();
+				crcBytes[0] = (byte) (value >>> 24);
+				crcBytes[1] = (byte) (value >>> 16);
+				crcBytes[2] = (byte) (value >>> 8);
+				crcBytes[3] = (byte) value;
+				blockDigest.update(crcBytes);
+				blockBytes += read;
+				if (blockBytes >= blockSize) {
+					fileDigest.update(blockDigest.digest());
+					blockBytes = 0;
+				}
+			}
+		} finally {
+			IOUtils.closeStream(in);
+		}
+		if (blockBytes > 0) {
+			fileDigest.update(blockDigest.digest());
+		}
+		return new MD5MD5CRC32FileChecksum(bytesPerCrc, crcPerBlock, new MD5Hash(fileDigest.digest()));
+	}
+
+	private static MessageDigest newDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (Exception ex) {
+			throw new IOException("MD5 not available: " + ex.getMessage());
+		}
+	}
+
+	private static int readChunk(InputStream in, byte[] buffer) throws IOException {
+		int total = 0;
+		while (total < buffer.length) {
+			int read = in.read(buffer, total, buffer.length - total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the destination entries missing from the source, without the descendants of missing directories.
+	 */
+	private static List<FileStatus> extras(SortedMap<String, FileStatus> sources, SortedMap<String, FileStatus> targets) {
+		List<FileStatus> extras = new ArrayList<FileStatus>();
+		Set<String> extraDirs = new HashSet<String>();
+		// sorted keys - a directory is always seen before its descendants
+		for (Map.Entry<String, FileStatus> entry : targets.entrySet()) {
+			String key = entry.getKey();
+			if (sources.containsKey(key) || hasAncestor(key, extraDirs)) {
+				continue;
+			}
+			extras.add(entry.getValue());
+			if (entry.getValue().isDir()) {
+				extraDirs.add(key);
+			}
+		}
+		return extras;
+	}
+
+	private static boolean hasAncestor(String key, Set<String> dirs) {
+		for (int i = key.indexOf('/'); i > 0; i = key.indexOf('/', i + 1)) {
+			if (dirs.contains(key.substring(0, i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Statistics of a synchronization.
+	 */
+	public static class SyncResult {
+
+		private int created;
+		private int changed;
+		private int unchanged;
+		private int deleted;
+		private CopyResult copy;
+		private final List<String> failures = new ArrayList<String>();
+
+		public int getCreated() {
+			return created;
+		}
+
+		public int getChanged() {
+			return changed;
+		}
+
+		public int getUnchanged() {
+			return unchanged;
+		}
+
+		public int getDeleted() {
+			return deleted;
+		}
+
+		public CopyResult getCopy() {
+			return copy;
+		}
+
+		public List<String> getFailures() {
+			List<String> all = new ArrayList<String>(failures);
+			all.addAll(copy.getFailures());
+			return all;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d new, %d changed, %d unchanged, %d deleted - %s", created, changed, unchanged,
+					deleted, copy);
+		}
+	}
+}
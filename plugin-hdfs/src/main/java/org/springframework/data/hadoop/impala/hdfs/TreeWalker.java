@@ -0,0 +1,180 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+
+/**
+ * Walks a directory tree listing sub-directories concurrently, with at most a fixed number of
+ * listing calls in flight. Each listing is handed to the {@link Visitor} as soon as it arrives so
+ * callers can stream results while the walk is still in progress.
+ *
+ * @author Jarred Li
+ */
+public class TreeWalker {
+
+	public static final String CONCURRENCY_KEY = "impala.fs.walker.concurrency";
+
+	public static final int DEFAULT_CONCURRENCY = 10;
+
+	/**
+	 * Callback receiving the content of each directory. Invoked concurrently from the walker threads.
+	 */
+	public interface Visitor {
+
+		void visit(FileStatus dir, FileStatus[] children) throws IOException;
+	}
+
+	private final FileSystem fs;
+
+	private final int concurrency;
+
+	public TreeWalker(FileSystem fs, int concurrency) {
+		this.fs = fs;
+		this.concurrency = Math.max(1, concurrency);
+	}
+
+	/**
+	 * Walks the tree rooted at the given directory and blocks until all directories have been visited.
+	 * Directories which cannot be listed are reported once the walk completes; the rest of the tree is
+	 * still visited.
+	 *
+	 * @param root root directory
+	 * @param visitor directory visitor
+	 * @throws IOException the first listing or visitor failure
+	 */
+	public void walk(FileStatus root, Visitor visitor) throws IOException {
+		if (!root.isDir()) {
+			return;
+		}
+		Walk walk = new Walk(visitor);
+		walk.submit(root);
+		walk.await();
+	}
+
+	/**
+	 * Computes the content summary of the given path. HDFS computes summaries on the name node in a single
+	 * call, which is cheaper than any client side traversal; other file systems are walked in parallel.
+	 *
+	 * @param path path to summarize
+	 * @return the content summary (without quota information unless computed by HDFS)
+	 * @throws IOException in case of I/O errors
+	 */
+	public ContentSummary summarize(Path path) throws IOException {
+		if (fs instanceof DistributedFileSystem) {
+			return fs.getContentSummary(path);
+		}
+		FileStatus root = fs.getFileStatus(path);
+		if (!root.isDir()) {
+			// as FileSystem#getContentSummary has it for a file
+			return new ContentSummary(root.getLen(), 1, 0);
+		}
+		final AtomicLong length = new AtomicLong();
+		final AtomicLong files = new AtomicLong();
+		final AtomicLong dirs = new AtomicLong(1);
+		walk(root, new Visitor() {
+			public void visit(FileStatus dir, FileStatus[] children) {
+				for (FileStatus child : children) {
+					if (child.isDir()) {
+						dirs.incrementAndGet();
+					}
+					else {
+						files.incrementAndGet();
+						length.addAndGet(child.getLen());
+					}
+				}
+			}
+		});
+		return new ContentSummary(length.get(), files.get(), dirs.get());
+	}
+
+	/**
+	 * State of one walk: the pool, the number of directories not yet visited and the first failure.
+	 */
+	private class Walk {
+
+		private final Visitor visitor;
+		private final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		private int pending = 0;
+		private IOException failure;
+
+		Walk(Visitor visitor) {
+			this.visitor = visitor;
+		}
+
+		synchronized void submit(final FileStatus dir) {
+			pending++;
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						FileStatus[] children = fs.listStatus(dir.getPath());
+						if (children != null) {
+							visitor.visit(dir, children);
+							for (FileStatus child : children) {
+								if (child.isDir()) {
+									submit(child);
+								}
+							}
+						}
+					} catch (IOException ex) {
+						failed(ex);
+					} catch (RuntimeException ex) {
+						failed(new IOException(ex.toString()));
+					} finally {
+						done();
+					}
+				}
+			});
+		}
+
+		synchronized void failed(IOException ex) {
+			if (failure == null) {
+				failure = ex;
+			}
+		}
+
+		synchronized void done() {
+			if (--pending == 0) {
+				notifyAll();
+			}
+		}
+
+		synchronized void await() throws IOException {
+			try {
+				while (pending > 0) {
+					wait();
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Walk interrupted");
+			} finally {
+				executor.shutdownNow();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+}
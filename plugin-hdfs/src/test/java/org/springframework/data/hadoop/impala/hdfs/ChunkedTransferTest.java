@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class ChunkedTransferTest {
+
+	private File workDir = new File("/tmp/impala-chunked-test");
+
+	private FileSystem fs;
+
+	private ChunkedTransfer transfer;
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+		workDir.mkdirs();
+		fs = FileSystem.getLocal(new Configuration()).getRawFileSystem();
+		transfer = new ChunkedTransfer(new Configuration(), 7, 3);
+		transfer.setManifestDir(new File(workDir, "manifests"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+	}
+
+	@Test
+	public void testUploadAndDownload() throws Exception {
+		File src = new File("src/test/resources/test.properties");
+		Path remote = new Path(workDir.getAbsolutePath(), "remote.properties");
+		File local = new File(workDir, "local.properties");
+
+		transfer.upload(src, fs, remote);
+		Assert.assertFalse(fs.exists(new Path(workDir.getAbsolutePath(), "remote.properties._chunks")));
+		transfer.download(fs, remote, local);
+
+		Assert.assertEquals(new String(FileCopyUtils.copyToByteArray(src)),
+				new String(FileCopyUtils.copyToByteArray(local)));
+		Assert.assertEquals(0, new File(workDir, "manifests").list().length);
+	}
+
+	@Test
+	public void testUploadResumesAfterFailedConcat() throws Exception {
+		File src = new File("src/test/resources/test.properties");
+		Path remote = new Path(workDir.getAbsolutePath(), "remote.properties");
+		// fails while the parts are streamed into the destination
+		FileSystem failing = new FilterFileSystem(fs) {
+			@Override
+			public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite, int bufferSize,
+					short replication, long blockSize, Progressable progress) throws IOException {
+				if (!f.getName().startsWith("part-")) {
+					FSDataOutputStream out = super.create(f, permission, overwrite, bufferSize, replication,
+							blockSize, progress);
+					out.write("truncated".getBytes("UTF-8"));
+					out.close();
+					throw new IOException("disk full");
+				}
+				return super.create(f, permission, overwrite, bufferSize, replication, blockSize, progress);
+			}
+		};
+		try {
+			transfer.upload(src, failing, remote);
+			Assert.fail("the concat should have failed");
+		} catch (IOException ex) {
+			Assert.assertEquals("disk full", ex.getMessage());
+		}
+		Assert.assertFalse(fs.exists(remote));
+		Assert.assertTrue(fs.exists(new Path(workDir.getAbsolutePath(), "remote.properties._chunks")));
+
+		ChunkedTransfer.TransferResult result = transfer.upload(src, fs, remote);
+		Assert.assertEquals(new String(FileCopyUtils.copyToByteArray(src)),
+				new String(FileCopyUtils.copyToByteArray(new File(workDir, "remote.properties"))));
+		Assert.assertFalse(fs.exists(new Path(workDir.getAbsolutePath(), "remote.properties._chunks")));
+		Assert.assertEquals(0, new File(workDir, "manifests").list().length);
+		// all the chunks were uploaded by the first attempt
+		Assert.assertEquals(result.getChunks(), result.getResumedChunks());
+	}
+
+	@Test
+	public void testUploadResumesAfterJoin() throws Exception {
+		File src = new File("src/test/resources/test.properties");
+		Path remote = new Path(workDir.getAbsolutePath(), "remote.properties");
+		Path partsDir = new Path(workDir.getAbsolutePath(), "remote.properties._chunks");
+		// stops once the destination is complete, before the parts are removed
+		FileSystem failing = new FilterFileSystem(fs) {
+			@Override
+			public boolean delete(Path f, boolean recursive) throws IOException {
+				if (f.getName().endsWith("._chunks")) {
+					throw new IOException("killed");
+				}
+				return super.delete(f, recursive);
+			}
+		};
+		try {
+			transfer.upload(src, failing, remote);
+			Assert.fail("the clean up should have failed");
+		} catch (IOException ex) {
+			Assert.assertEquals("killed", ex.getMessage());
+		}
+		Assert.assertTrue(fs.exists(remote));
+		Assert.assertTrue(fs.exists(partsDir));
+
+		// like HDFS, does not rename onto an existing file
+		FileSystem hdfs = new FilterFileSystem(fs) {
+			@Override
+			public boolean rename(Path src, Path dst) throws IOException {
+				return !exists(dst) && super.rename(src, dst);
+			}
+		};
+		ChunkedTransfer.TransferResult result = transfer.upload(src, hdfs, remote);
+		Assert.assertEquals(0, result.getBytes());
+		Assert.assertEquals(result.getChunks(), result.getResumedChunks());
+		Assert.assertEquals(new String(FileCopyUtils.copyToByteArray(src)),
+				new String(FileCopyUtils.copyToByteArray(new File(workDir, "remote.properties"))));
+		Assert.assertFalse(fs.exists(partsDir));
+		Assert.assertEquals(0, new File(workDir, "manifests").list().length);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.hadoop.impala.hdfs.Compactor.CompactResult;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class CompactorTest {
+
+	private File workDir = new File("/tmp/impala-compact-test");
+
+	private File src = new File(workDir, "src");
+
+	private Path archive = new Path(workDir.getAbsolutePath(), "src.seq");
+
+	private FileSystem fs;
+
+	private Compactor compactor;
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+		new File(src, "a/b").mkdirs();
+		FileCopyUtils.copy("one".getBytes(), new File(src, "one"));
+		FileCopyUtils.copy("two".getBytes(), new File(src, "a/two"));
+		FileCopyUtils.copy("three".getBytes(), new File(src, "a/b/three"));
+		fs = FileSystem.getLocal(new Configuration()).getRawFileSystem();
+		compactor = new Compactor(new Configuration(), 2, System.out);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+	}
+
+	@Test
+	public void testCompactAndExtract() throws Exception {
+		compactor.setCompress(true);
+		CompactResult result = compactor.compact(fs, new Path(src.getAbsolutePath()), archive);
+		Assert.assertEquals(3, result.getFiles());
+		Assert.assertEquals(11, result.getBytes());
+		Assert.assertTrue(result.getFailures().isEmpty());
+		Assert.assertTrue(new File(src, "a/two").exists());
+
+		Path dest = new Path(workDir.getAbsolutePath(), "dest");
+		result = compactor.extract(fs, archive, fs, dest);
+		Assert.assertEquals(3, result.getFiles());
+		Assert.assertEquals("three", new String(FileCopyUtils.copyToByteArray(new File(dest.toString(), "a/b/three"))));
+		Assert.assertEquals("one", new String(FileCopyUtils.copyToByteArray(new File(dest.toString(), "one"))));
+	}
+
+	@Test
+	public void testDeleteAndRestore() throws Exception {
+		compactor.setMaxFileSize(4);
+		compactor.setDelete(true);
+		compactor.setSkipTrash(true);
+		CompactResult result = compactor.compact(fs, new Path(src.getAbsolutePath()), archive);
+		Assert.assertEquals(2, result.getFiles());
+		Assert.assertEquals(1, result.getSkipped());
+		Assert.assertEquals(2, result.getDeleted());
+		Assert.assertFalse(new File(src, "one").exists());
+		Assert.assertTrue(new File(src, "a/b/three").exists());
+
+		result = compactor.extract(fs, archive, fs, null);
+		Assert.assertEquals(2, result.getFiles());
+		Assert.assertEquals("two", new String(FileCopyUtils.copyToByteArray(new File(src, "a/two"))));
+
+		result = compactor.extract(fs, archive, fs, null);
+		Assert.assertEquals(0, result.getFiles());
+		Assert.assertEquals(2, result.getFailures().size());
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class FileStatusCacheTest {
+
+	private Path dir = new Path("/tmp/impala-cache-test");
+
+	private FileSystem fs;
+
+	private FileStatusCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		fs = FileSystem.getLocal(new Configuration());
+		fs.delete(dir, true);
+		fs.mkdirs(new Path(dir, "a"));
+		cache = new FileStatusCache(60 * 1000, 2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fs.delete(dir, true);
+	}
+
+	@Test
+	public void testListingIsCachedUntilInvalidated() throws Exception {
+		Assert.assertEquals(1, cache.listStatus(fs, dir).length);
+		fs.mkdirs(new Path(dir, "b"));
+		Assert.assertEquals(1, cache.listStatus(fs, dir).length);
+		Assert.assertTrue(cache.stats().contains("hits=1"));
+
+		cache.invalidate(fs, new Path(dir, "b"));
+		Assert.assertEquals(2, cache.listStatus(fs, dir).length);
+	}
+
+	@Test
+	public void testGlobInvalidatesParent() throws Exception {
+		cache.listStatus(fs, dir);
+		fs.mkdirs(new Path(dir, "b"));
+		cache.invalidate(fs, new Path(dir, "*"));
+		Assert.assertEquals(2, cache.listStatus(fs, dir).length);
+	}
+
+	@Test
+	public void testInvalidationDuringFetchIsNotOverwritten() throws Exception {
+		// the listing is fetched while another command modifies the directory
+		FileSystem racing = new FilterFileSystem(fs) {
+			@Override
+			public FileStatus[] listStatus(Path path) throws IOException {
+				FileStatus[] listing = super.listStatus(path);
+				fs.mkdirs(new Path(dir, "b"));
+				cache.invalidate(fs, new Path(dir, "b"));
+				return listing;
+			}
+		};
+		Assert.assertEquals(1, cache.listStatus(racing, dir).length);
+		Assert.assertEquals(2, cache.listStatus(fs, dir).length);
+		Assert.assertTrue(cache.stats().contains("entries=1"));
+	}
+
+	@Test
+	public void testSizeBound() throws Exception {
+		cache.listStatus(fs, dir);
+		cache.getFileStatus(fs, dir);
+		cache.getContentSummary(new TreeWalker(fs, 2), fs, dir);
+		Assert.assertTrue(cache.stats().contains("entries=2"));
+		Assert.assertTrue(cache.stats().contains("evictions=1"));
+	}
+}
@@ -15,15 +15,24 @@
  */
 package org.springframework.data.hadoop.impala.hdfs;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.PrintStream;
 
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.hadoop.impala.common.util.RecordWriter;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
 
 /**
  * @author Jarred Li
@@ -52,7 +61,7 @@ public class FsShellCommandsTest {
 		fsCmd.init();
 		File f = new File(srcFile);
 		String fullPath = f.getAbsolutePath();
-		fsCmd.put(fullPath, tmpFile);
+		fsCmd.put(fullPath, tmpFile, 1, 0, null);
 	}
 
 	/**
@@ -60,7 +69,7 @@ public class FsShellCommandsTest {
 	 */
 	@After
 	public void tearDown() throws Exception {
-		fsCmd.rm(tmpFile, false, false);
+		fsCmd.rm(tmpFile, false, false, false);
 		fsCmd = null;
 	}
 
@@ -78,12 +87,46 @@ public class FsShellCommandsTest {
 		fsCmd.ls("/tmp", true);
 	}
 
+	@Test
+	public void testLs_json() {
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(captured));
+		fsCmd.getHadoopConfiguration().set(RecordWriter.FORMAT_KEY, "json");
+		try {
+			fsCmd.ls(tmpFile, false);
+		} finally {
+			fsCmd.getHadoopConfiguration().set(RecordWriter.FORMAT_KEY, "text");
+			System.setOut(stdout);
+		}
+		Assert.assertTrue(captured.toString().startsWith("{\"path\":\"file:" + tmpFile + "\",\"type\":\"file\""));
+	}
+
 	/**
-	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#cat(java.lang.String)}.
+	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#cat(java.lang.String, long, long, long, java.lang.String)}.
 	 */
 	@Test
 	public void testCat() {
-		fsCmd.cat(tmpFile);
+		fsCmd.cat(tmpFile, 0, -1, -1, null);
+	}
+
+	@Test
+	public void testCat_withRange() {
+		fsCmd.cat(tmpFile, 5, 10, -1, null);
+		fsCmd.cat(tmpFile, 0, -1, 1, "url");
+	}
+
+	@Test
+	public void testTail_withLines() {
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(captured));
+		try {
+			fsCmd.tail(tmpFile, false, 1, null);
+		} finally {
+			System.setOut(stdout);
+		}
+		Assert.assertEquals("mr.url=local\n", captured.toString());
 	}
 
 	/**
@@ -113,30 +156,59 @@ public class FsShellCommandsTest {
 		fsCmd.ls(tmpFile, false);
 	}
 
+	@Test
+	public void testChmod_withRecursion() throws Exception {
+		FileSystem fs = FileSystem.get(fsCmd.getHadoopConfiguration());
+		Path dir = new Path("/tmp/chmod-dir");
+		fs.mkdirs(new Path(dir, "a/b"));
+		fs.create(new Path(dir, "a/b/file")).close();
+		fsCmd.chmod(true, "go-rwx", dir.toString());
+		Assert.assertTrue(fs.getFileStatus(new Path(dir, "a/b")).getPermission().toString().endsWith("------"));
+		Assert.assertTrue(fs.getFileStatus(new Path(dir, "a/b/file")).getPermission().toString().endsWith("------"));
+		fsCmd.ls(dir.toString(), true);
+		fs.delete(dir, true);
+	}
+
 	/**
-	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#copyFromLocal(java.lang.String, java.lang.String)}.
+	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#copyFromLocal(java.lang.String, java.lang.String, int)}.
 	 */
 	@Test
 	public void testCopyFromLocal() {
-		fsCmd.rm(tmpFile, false, false);
+		fsCmd.rm(tmpFile, false, false, false);
 		File f = new File(srcFile);
 		String fullPath = f.getAbsolutePath();
-		fsCmd.copyFromLocal(fullPath, tmpFile);
+		fsCmd.copyFromLocal(fullPath, tmpFile, 1);
 		fsCmd.ls(tmpFile, false);
 	}
 
 	/**
-	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#put(java.lang.String, java.lang.String)}.
+	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#put(java.lang.String, java.lang.String, int, long, java.lang.String)}.
 	 */
 	@Test
 	public void testPut() {
-		fsCmd.rm(tmpFile, false, false);
+		fsCmd.rm(tmpFile, false, false, false);
 		File f = new File(srcFile);
 		String fullPath = f.getAbsolutePath();
-		fsCmd.put(fullPath, tmpFile);
+		fsCmd.put(fullPath, tmpFile, 1, 0, null);
 		fsCmd.ls(tmpFile, false);
 	}
 
+	@Test
+	public void testPut_withThreads() throws Exception {
+		File dir = new File("/tmp/local-put-dir");
+		dir.mkdirs();
+		for (int i = 0; i < 10; i++) {
+			FileCopyUtils.copy(new File(srcFile), new File(dir, "file-" + i));
+		}
+		String target = "/tmp/put-dir";
+		fsCmd.rm(target, true, true, false);
+		fsCmd.put(dir.getAbsolutePath(), target, 4, 0, null);
+		FileSystem fs = FileSystem.get(fsCmd.getHadoopConfiguration());
+		Assert.assertEquals(10, fs.listStatus(new Path(target)).length);
+		fsCmd.rm(target, true, true, false);
+		FileSystemUtils.deleteRecursively(dir);
+	}
+
 	/**
 	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#moveFromLocal(java.lang.String, java.lang.String)}.
 	 */
@@ -144,14 +216,14 @@ public class FsShellCommandsTest {
 	public void testMoveFromLocal() {
 		File file = new File(localTmpFile);
 		if(!file.exists()){
-			fsCmd.copyToLocal(tmpFile, localTmpFile, true, false);
+			fsCmd.copyToLocal(tmpFile, localTmpFile, true, false, 1);
 		}
 		fsCmd.moveFromLocal(localTmpFile, tmpFile);
 		fsCmd.ls(tmpFile, false);
 	}
 
 	/**
-	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#copyToLocal(java.lang.String, java.lang.String, boolean, boolean)}.
+	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#copyToLocal(java.lang.String, java.lang.String, boolean, boolean, int)}.
 	 */
 	@Test
 	public void testCopyToLocal() {
@@ -159,7 +231,7 @@ public class FsShellCommandsTest {
 		if(file.exists()){
 			file.delete();
 		}
-		fsCmd.copyToLocal(tmpFile, localTmpFile, true, false);
+		fsCmd.copyToLocal(tmpFile, localTmpFile, true, false, 1);
 	}
 	
 	@Test
@@ -168,11 +240,36 @@ public class FsShellCommandsTest {
 		if(file.exists()){
 			file.delete();
 		}
-		fsCmd.copyMergeToLocal(tmpFile, localTmpFile, false);
+		fsCmd.copyMergeToLocal(tmpFile, localTmpFile, false, 8, false, 0);
+	}
+
+	@Test
+	public void testCopyMergeToLocal_withHeader() throws Exception {
+		FileSystem fs = FileSystem.get(fsCmd.getHadoopConfiguration());
+		Path dir = new Path("/tmp/merge-dir");
+		fs.delete(dir, true);
+		for (int i = 0; i < 20; i++) {
+			FSDataOutputStream out = fs.create(new Path(dir, String.format("part-%05d", i)));
+			out.write(("key\tvalue\n" + i + "\t" + i + "\n").getBytes());
+			out.close();
+		}
+		File file = new File(localTmpFile);
+		try {
+			fsCmd.copyMergeToLocal(dir.toString(), localTmpFile, false, 3, false, 1);
+			String[] lines = new String(FileCopyUtils.copyToByteArray(file)).split("\n");
+			Assert.assertEquals(21, lines.length);
+			Assert.assertEquals("key\tvalue", lines[0]);
+			for (int i = 0; i < 20; i++) {
+				Assert.assertEquals(i + "\t" + i, lines[i + 1]);
+			}
+		} finally {
+			fs.delete(dir, true);
+			file.delete();
+		}
 	}
 
 	/**
-	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#get(java.lang.String, java.lang.String, boolean, boolean)}.
+	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#get(java.lang.String, java.lang.String, boolean, boolean, int, long, java.lang.String, boolean)}.
 	 */
 	@Test
 	public void testGet() {
@@ -180,7 +277,27 @@ public class FsShellCommandsTest {
 		if(file.exists()){
 			file.delete();
 		}
-		fsCmd.get(tmpFile, localTmpFile, true, false);
+		fsCmd.get(tmpFile, localTmpFile, true, false, 1, 0, null, false);
+	}
+
+	@Test
+	public void testPutAndGet_withCodec() throws Exception {
+		FileSystem fs = FileSystem.get(fsCmd.getHadoopConfiguration());
+		Path remoteDir = new Path("/tmp/codec-dir");
+		File localDir = new File("/tmp/local-codec-dir");
+		fs.mkdirs(remoteDir);
+		localDir.mkdirs();
+		try {
+			fsCmd.put(new File(srcFile).getAbsolutePath(), remoteDir.toString(), 1, 0, "gzip");
+			Path compressed = new Path(remoteDir, "test.properties.gz");
+			Assert.assertTrue(fs.exists(compressed));
+			fsCmd.get(compressed.toString(), localDir.getAbsolutePath(), false, false, 1, 0, null, true);
+			Assert.assertEquals(new String(FileCopyUtils.copyToByteArray(new File(srcFile))),
+					new String(FileCopyUtils.copyToByteArray(new File(localDir, "test.properties"))));
+		} finally {
+			fs.delete(remoteDir, true);
+			FileSystemUtils.deleteRecursively(localDir);
+		}
 	}
 
 	/**
@@ -192,11 +309,11 @@ public class FsShellCommandsTest {
 	}
 
 	/**
-	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#cp(java.lang.String, java.lang.String)}.
+	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#cp(java.lang.String, java.lang.String, int)}.
 	 */
 	@Test
 	public void testCp() {
-		fsCmd.cp(tmpFile, newTmpFile);
+		fsCmd.cp(tmpFile, newTmpFile, 1);
 		fsCmd.ls(tmpFile, false);
 		fsCmd.ls(newTmpFile, false);
 	}
@@ -236,22 +353,39 @@ public class FsShellCommandsTest {
 	}
 
 	/**
-	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#rm(java.lang.String, boolean, boolean)}.
+	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#rm(java.lang.String, boolean, boolean, boolean)}.
 	 */
 	@Test
 	public void testRm() {
-		fsCmd.rm("/tmp/tmp", false, true);
+		fsCmd.rm("/tmp/tmp", false, true, false);
 	}
 
-	
+	@Test
+	public void testRm_dryRun() throws Exception {
+		fsCmd.rm(tmpFile, false, false, true);
+		Assert.assertTrue(FileSystem.get(fsCmd.getHadoopConfiguration()).exists(new Path(tmpFile)));
+	}
+
+	@Test
+	public void testStat() {
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(captured));
+		try {
+			fsCmd.stat(tmpFile, "%n %F %b");
+		} finally {
+			System.setOut(stdout);
+		}
+		Assert.assertEquals("test.properties regular file " + new File(srcFile).length() + "\n", captured.toString());
+	}
 
 
 	/**
-	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#text(java.lang.String)}.
+	 * Test method for {@link org.springframework.data.hadoop.impala.hdfs.FsShellCommands#text(java.lang.String, long, long, long, java.lang.String)}.
 	 */
 	@Test
 	public void testText() {
-		fsCmd.text(tmpFile);
+		fsCmd.text(tmpFile, 0, -1, -1, null);
 	}
 
 	/**
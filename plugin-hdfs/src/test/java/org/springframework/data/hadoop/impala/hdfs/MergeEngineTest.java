@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class MergeEngineTest {
+
+	private File workDir = new File("/tmp/impala-merge-test");
+
+	private List<FileStatus> files = new ArrayList<FileStatus>();
+
+	private AtomicInteger opened = new AtomicInteger();
+
+	private FileSystem fs;
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+		workDir.mkdirs();
+		fs = new FilterFileSystem(FileSystem.getLocal(new Configuration()).getRawFileSystem()) {
+			@Override
+			public FSDataInputStream open(Path path, int bufferSize) throws IOException {
+				opened.incrementAndGet();
+				return super.open(path, bufferSize);
+			}
+		};
+		for (int i = 0; i < 50; i++) {
+			File file = new File(workDir, String.format("part-%05d", i));
+			FileCopyUtils.copy((i + "\n").getBytes("UTF-8"), file);
+			files.add(fs.getFileStatus(new Path(file.getAbsolutePath())));
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+	}
+
+	@Test
+	public void testReadAheadIsBoundedBySlowWriter() throws Exception {
+		final int[] ahead = new int[1];
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			private int lines;
+
+			@Override
+			public synchronized void write(byte[] bytes, int offset, int length) {
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				// files opened beyond those already written
+				ahead[0] = Math.max(ahead[0], opened.get() - lines);
+				super.write(bytes, offset, length);
+				for (int i = offset; i < offset + length; i++) {
+					if (bytes[i] == '\n') {
+						lines++;
+					}
+				}
+			}
+		};
+		MergeEngine engine = new MergeEngine(new Configuration(), 3, 4 * 1024 * 1024);
+		engine.merge(fs, files, out);
+
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < files.size(); i++) {
+			expected.append(i).append('\n');
+		}
+		Assert.assertEquals(expected.toString(), out.toString("UTF-8"));
+		Assert.assertTrue("read " + ahead[0] + " files ahead", ahead[0] <= 3);
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class StreamingReaderTest {
+
+	@Test
+	public void testLongLinesAreCut() throws Exception {
+		StringBuilder data = new StringBuilder("short\n");
+		for (int i = 0; i < 1000; i++) {
+			data.append("key=").append(i).append(' ');
+		}
+		data.append("\nlast\n");
+
+		StreamingReader reader = new StreamingReader(16);
+		reader.setGrep("key|last");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		reader.read(new ByteArrayInputStream(data.toString().getBytes("UTF-8")), out);
+		// matched on the part kept, the rest of the line skipped
+		Assert.assertEquals("key=0 key=1 key=\nlast\n", out.toString("UTF-8"));
+
+		reader.setGrep(null);
+		reader.setLines(2);
+		out.reset();
+		reader.read(new ByteArrayInputStream(data.toString().getBytes("UTF-8")), out);
+		Assert.assertEquals("short\nkey=0 key=1 key=\n", out.toString("UTF-8"));
+	}
+}
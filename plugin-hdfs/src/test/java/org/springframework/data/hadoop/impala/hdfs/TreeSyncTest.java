@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.hdfs;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.hadoop.impala.hdfs.TreeSync.SyncResult;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class TreeSyncTest {
+
+	private File workDir = new File("/tmp/impala-sync-test");
+
+	private File src = new File(workDir, "src");
+
+	private Path dest = new Path(workDir.getAbsolutePath(), "dest");
+
+	private FileSystem fs;
+
+	private TreeSync sync;
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+		new File(src, "a/b").mkdirs();
+		FileCopyUtils.copy("one".getBytes(), new File(src, "one"));
+		FileCopyUtils.copy("two".getBytes(), new File(src, "a/two"));
+		FileCopyUtils.copy("three".getBytes(), new File(src, "a/b/three"));
+		fs = FileSystem.getLocal(new Configuration()).getRawFileSystem();
+		sync = new TreeSync(new Configuration(), 3, System.out);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+	}
+
+	@Test
+	public void testOnlyChangedFilesAreCopied() throws Exception {
+		SyncResult result = sync.sync(fs, new Path(src.getAbsolutePath()), fs, dest);
+		Assert.assertEquals(3, result.getCreated());
+		Assert.assertEquals(3, result.getCopy().getFiles());
+
+		FileCopyUtils.copy("changed".getBytes(), new File(src, "a/two"));
+		result = sync.sync(fs, new Path(src.getAbsolutePath()), fs, dest);
+		Assert.assertEquals(0, result.getCreated());
+		Assert.assertEquals(1, result.getChanged());
+		Assert.assertEquals(2, result.getUnchanged());
+		Assert.assertEquals("changed", new String(FileCopyUtils.copyToByteArray(new File(dest.toString(), "a/two"))));
+	}
+
+	@Test
+	public void testExtrasAreDeleted() throws Exception {
+		sync.sync(fs, new Path(src.getAbsolutePath()), fs, dest);
+		FileSystemUtils.deleteRecursively(new File(src, "a"));
+
+		SyncResult result = sync.sync(fs, new Path(src.getAbsolutePath()), fs, dest);
+		Assert.assertEquals(0, result.getDeleted());
+		Assert.assertTrue(fs.exists(new Path(dest, "a")));
+
+		sync.setDelete(true);
+		result = sync.sync(fs, new Path(src.getAbsolutePath()), fs, dest);
+		Assert.assertEquals(1, result.getDeleted());
+		Assert.assertFalse(fs.exists(new Path(dest, "a")));
+		Assert.assertTrue(fs.exists(new Path(dest, "one")));
+	}
+}
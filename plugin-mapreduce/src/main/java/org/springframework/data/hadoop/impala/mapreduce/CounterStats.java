@@ -0,0 +1,230 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.RunningJob;
+
+/**
+ * Statistics of the counters of several jobs, such as the daily runs of the same job: for each counter,
+ * the sum, minimum, maximum and percentiles of its values across the jobs. Counters are named
+ * <code>group:counter</code>; a counter missing from a job does not take part in its statistics.
+ *
+ * @author Jarred Li
+ */
+public class CounterStats {
+
+	// sorted values of each counter
+	private final SortedMap<String, long[]> values = new TreeMap<String, long[]>();
+
+	/**
+	 * Creates the statistics of the given counters.
+	 *
+	 * @param counters counters of each job
+	 * @param group group to restrict the statistics to, <code>null</code> for all the groups
+	 */
+	public CounterStats(Collection<Counters> counters, String group) {
+		Map<String, List<Long>> lists = new TreeMap<String, List<Long>>();
+		for (Counters jobCounters : counters) {
+			for (Map.Entry<String, Long> counter : flatten(jobCounters, group).entrySet()) {
+				List<Long> list = lists.get(counter.getKey());
+				if (list == null) {
+					list = new ArrayList<Long>();
+					lists.put(counter.getKey(), list);
+				}
+				list.add(counter.getValue());
+			}
+		}
+		for (Map.Entry<String, List<Long>> entry : lists.entrySet()) {
+			long[] sorted = new long[entry.getValue().size()];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = entry.getValue().get(i);
+			}
+			Arrays.sort(sorted);
+			values.put(entry.getKey(), sorted);
+		}
+	}
+
+	/**
+	 * Fetches the counters of several jobs, one request per job.
+	 *
+	 * @param client client of the job tracker
+	 * @param jobIds ids of the jobs
+	 * @param threads number of requests running at the same time
+	 * @return the counters of each job, in the given order
+	 * @throws IOException if a job cannot be found or its counters are not available
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the counters
+	 */
+	public static Map<String, Counters> fetch(final JobClient client, List<String> jobIds, int threads)
+			throws IOException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, jobIds.size())));
+		try {
+			Map<String, Future<Counters>> futures = new LinkedHashMap<String, Future<Counters>>();
+			for (final String jobId : jobIds) {
+				futures.put(jobId, executor.submit(new Callable<Counters>() {
+					public Counters call() throws IOException {
+						RunningJob job = client.getJob(JobID.forName(jobId));
+						if (job == null) {
+							throw new IOException("Could not find job " + jobId);
+						}
+						Counters counters = job.getCounters();
+						if (counters == null) {
+							throw new IOException("Counters not available for job " + jobId);
+						}
+						return counters;
+					}
+				}));
+			}
+			Map<String, Counters> counters = new LinkedHashMap<String, Counters>();
+			for (Map.Entry<String, Future<Counters>> future : futures.entrySet()) {
+				try {
+					counters.put(future.getKey(), future.getValue().get());
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					throw (cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage()));
+				}
+			}
+			return counters;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Compares the counters of two jobs.
+	 *
+	 * @param base counters of the reference job
+	 * @param other counters of the compared job
+	 * @param group group to restrict the comparison to, <code>null</code> for all the groups
+	 * @return the base and compared value of each counter, 0 when it is missing from a job
+	 */
+	public static SortedMap<String, long[]> diff(Counters base, Counters other, String group) {
+		SortedMap<String, long[]> diff = new TreeMap<String, long[]>();
+		for (Map.Entry<String, Long> counter : flatten(base, group).entrySet()) {
+			diff.put(counter.getKey(), new long[] { counter.getValue(), 0 });
+		}
+		for (Map.Entry<String, Long> counter : flatten(other, group).entrySet()) {
+			long[] values = diff.get(counter.getKey());
+			if (values == null) {
+				values = new long[2];
+				diff.put(counter.getKey(), values);
+			}
+			values[1] = counter.getValue();
+		}
+		return diff;
+	}
+
+	/**
+	 * Returns the names of the counters, sorted.
+	 */
+	public Collection<String> getNames() {
+		return values.keySet();
+	}
+
+	/**
+	 * Returns the number of jobs having the counter.
+	 */
+	public int count(String name) {
+		return values.get(name).length;
+	}
+
+	public long sum(String name) {
+		long sum = 0;
+		for (long value : values.get(name)) {
+			sum += value;
+		}
+		return sum;
+	}
+
+	public long min(String name) {
+		return values.get(name)[0];
+	}
+
+	public long max(String name) {
+		long[] sorted = values.get(name);
+		return sorted[sorted.length - 1];
+	}
+
+	/**
+	 * Returns a percentile of the counter values, using the nearest rank.
+	 *
+	 * @param name counter name
+	 * @param percent percentile, between 0 and 100
+	 */
+	public long percentile(String name, double percent) {
+		return percentile(values.get(name), percent);
+	}
+
+	/**
+	 * Returns a percentile of sorted values, using the nearest rank.
+	 *
+	 * @param sorted values in ascending order, at least one
+	 * @param percent percentile, between 0 and 100
+	 */
+	static long percentile(long[] sorted, double percent) {
+		int rank = (int) Math.ceil(percent / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+	}
+
+	/**
+	 * Returns the value of a counter, 0 if it is missing.
+	 * <p/>
+	 * The counter is looked up by name: <code>Counters.Group#getCounter(String)</code> expects the display
+	 * name for the groups having one, such as the built-in task counters.
+	 *
+	 * @param counters counters to search
+	 * @param group group name
+	 * @param name counter name
+	 */
+	static long value(Counters counters, String group, String name) {
+		for (Counters.Counter counter : counters.getGroup(group)) {
+			if (counter.getName().equals(name)) {
+				return counter.getValue();
+			}
+		}
+		return 0;
+	}
+
+	private static Map<String, Long> flatten(Counters counters, String group) {
+		Map<String, Long> flat = new LinkedHashMap<String, Long>();
+		for (Counters.Group counterGroup : counters) {
+			if (group != null && !group.equals(counterGroup.getName())) {
+				continue;
+			}
+			for (Counters.Counter counter : counterGroup) {
+				flat.put(counterGroup.getName() + ":" + counter.getName(), counter.getValue());
+			}
+		}
+		return flat;
+	}
+}
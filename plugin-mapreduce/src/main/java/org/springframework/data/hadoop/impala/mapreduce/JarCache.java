@@ -0,0 +1,374 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Cache of job jar class loaders and of the nested jars they copied out (see {@link NestedJarClassLoader}),
+ * keyed by the SHA-1 digest of the jar content. Running the same jar again reuses both an idle class loader
+ * and the nested jars; the digest itself is remembered for a given path, size and modification time so
+ * unchanged jars are not read again either.
+ * <p/>
+ * Entry directories survive the session and are found again on the next one. When the cache exceeds its
+ * size or entry limit, the least recently used entries which are not in use are removed.
+ *
+ * @author Jarred Li
+ */
+public class JarCache {
+
+	public static final String SIZE_KEY = "impala.mr.jar.cache.size";
+
+	public static final String ENTRIES_KEY = "impala.mr.jar.cache.entries";
+
+	// marks a fully created entry
+	private static final String COMPLETE_MARKER = ".complete";
+
+	private final File root;
+
+	private final long maxBytes;
+
+	private final int maxEntries;
+
+	// access ordered - the eldest entry is the least recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private final Map<String, String> digests = new HashMap<String, String>();
+
+	private int hits;
+
+	private int misses;
+
+	/**
+	 * Creates a new cache, picking up the entries extracted by previous sessions.
+	 *
+	 * @param root directory holding the extracted jars
+	 * @param maxBytes maximum size of the extracted jars
+	 * @param maxEntries maximum number of extracted jars
+	 */
+	public JarCache(File root, long maxBytes, int maxEntries) {
+		this.root = root;
+		this.maxBytes = maxBytes;
+		this.maxEntries = Math.max(1, maxEntries);
+		root.mkdirs();
+		File[] dirs = root.listFiles();
+		List<Entry> found = new ArrayList<Entry>();
+		for (File dir : (dirs != null ? dirs : new File[0])) {
+			if (new File(dir, COMPLETE_MARKER).isFile()) {
+				found.add(new Entry(dir.getName(), dir));
+			}
+			else if (dir.isDirectory()) {
+				// left over by an interrupted extraction
+				delete(dir);
+			}
+		}
+		// oldest first, so the access order matches the last use
+		Collections.sort(found, new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				long m1 = e1.dir.lastModified(), m2 = e2.dir.lastModified();
+				return (m1 < m2 ? -1 : (m1 == m2 ? 0 : 1));
+			}
+		});
+		for (Entry entry : found) {
+			entries.put(entry.digest, entry);
+		}
+		evict();
+	}
+
+	/**
+	 * Returns the entry of the given jar, creating it if needed. The entry cannot be evicted until
+	 * it is {@link #release(Entry) released}.
+	 *
+	 * @param jar jar file
+	 * @return the cache entry
+	 * @throws IOException if the jar cannot be read
+	 */
+	public Entry acquire(File jar) throws IOException {
+		String digest = digest(jar);
+		synchronized (this) {
+			Entry entry = entries.get(digest);
+			if (entry != null) {
+				hits++;
+				entry.dir.setLastModified(System.currentTimeMillis());
+			}
+			else {
+				misses++;
+				File dir = new File(root, digest);
+				if (!dir.mkdirs() && !dir.isDirectory()) {
+					throw new IOException("Mkdirs failed to create " + dir);
+				}
+				new File(dir, COMPLETE_MARKER).createNewFile();
+				entry = new Entry(digest, dir);
+				entries.put(digest, entry);
+			}
+			entry.bind(jar);
+			entry.users++;
+			evict();
+			return entry;
+		}
+	}
+
+	/**
+	 * Releases an entry obtained through {@link #acquire(File)}.
+	 *
+	 * @param entry the entry no longer used
+	 */
+	public synchronized void release(Entry entry) {
+		entry.users--;
+		evict();
+	}
+
+	/**
+	 * Removes all the entries which are not in use.
+	 *
+	 * @return the number of entries removed
+	 */
+	public synchronized int clear() {
+		int removed = 0;
+		for (Entry entry : new ArrayList<Entry>(entries.values())) {
+			if (entry.users == 0) {
+				remove(entry);
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	@Override
+	public synchronized String toString() {
+		long bytes = 0;
+		for (Entry entry : entries.values()) {
+			bytes += size(entry.dir);
+		}
+		return String.format("%d jars (%d bytes) in %s, %d hits, %d misses", entries.size(), bytes, root, hits, misses);
+	}
+
+	private void evict() {
+		Map<Entry, Long> sizes = new HashMap<Entry, Long>();
+		long bytes = 0;
+		for (Entry entry : entries.values()) {
+			long size = size(entry.dir);
+			sizes.put(entry, size);
+			bytes += size;
+		}
+		for (Entry entry : new ArrayList<Entry>(entries.values())) {
+			if (bytes <= maxBytes && entries.size() <= maxEntries) {
+				break;
+			}
+			if (entry.users == 0) {
+				remove(entry);
+				bytes -= sizes.get(entry);
+			}
+		}
+	}
+
+	private void remove(Entry entry) {
+		entries.remove(entry.digest);
+		entry.close();
+		delete(entry.dir);
+	}
+
+	private static void delete(File dir) {
+		try {
+			FileUtil.fullyDelete(dir);
+		} catch (IOException ex) {
+			// ignore - retried when the cache is next created
+		}
+	}
+
+	/**
+	 * Returns the content digest of the jar, only reading it if it changed since it was last digested.
+	 */
+	String digest(File jar) throws IOException {
+		if (!jar.isFile()) {
+			throw new IOException("Cannot find jar " + jar);
+		}
+		String key = jar.getCanonicalPath() + "|" + jar.length() + "|" + jar.lastModified();
+		synchronized (digests) {
+			String digest = digests.get(key);
+			if (digest != null) {
+				return digest;
+			}
+		}
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-1");
+		} catch (Exception ex) {
+			throw new IOException("SHA-1 not available: " + ex.getMessage());
+		}
+		InputStream in = new FileInputStream(jar);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				sha.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		String digest = StringUtils.byteToHexString(sha.digest());
+		synchronized (digests) {
+			digests.put(key, digest);
+		}
+		return digest;
+	}
+
+	private static long size(File file) {
+		if (file.isFile()) {
+			return file.length();
+		}
+		long size = 0;
+		File[] children = file.listFiles();
+		for (File child : (children != null ? children : new File[0])) {
+			size += size(child);
+		}
+		return size;
+	}
+
+	/**
+	 * A cached jar: the directory holding its nested jars and the class loaders reading it.
+	 * <p/>
+	 * A class loader is used by one run at a time: concurrent runs of the same jar each borrow their own,
+	 * so they neither share static state nor see each other's resources. Loaders given back are kept for
+	 * the next runs.
+	 */
+	public static class Entry {
+
+		private final String digest;
+		private final File dir;
+		private final LinkedList<Loader> idle = new LinkedList<Loader>();
+		private File jar;
+		private String jarStamp;
+		private int loaders;
+		private int users;
+
+		Entry(String digest, File dir) {
+			this.digest = digest;
+			this.dir = dir;
+		}
+
+		public String getDigest() {
+			return digest;
+		}
+
+		/**
+		 * Returns the directory of the entry.
+		 */
+		public File getDirectory() {
+			return dir;
+		}
+
+		/**
+		 * Borrows a class loader of the jar, creating one if all the existing ones are in use. It must be
+		 * {@link #giveBack(Loader) given back} once the run is over.
+		 *
+		 * @param parent parent of the class loader, if it needs to be created
+		 * @return the class loader
+		 * @throws IOException if the jar cannot be opened
+		 */
+		public synchronized Loader borrow(ClassLoader parent) throws IOException {
+			if (!idle.isEmpty()) {
+				return idle.removeFirst();
+			}
+			File resourceDir = new File(dir, "impala-hadoop-configuration-" + (++loaders));
+			NestedJarClassLoader classLoader = new NestedJarClassLoader(jar, new File(dir, "lib"),
+					new File[] { resourceDir }, parent);
+			return new Loader(classLoader, resourceDir, jarStamp);
+		}
+
+		/**
+		 * Gives back a class loader obtained through {@link #borrow(ClassLoader)}.
+		 *
+		 * @param loader the loader no longer used
+		 */
+		public synchronized void giveBack(Loader loader) {
+			if (loader.jarStamp.equals(jarStamp)) {
+				idle.addFirst(loader);
+			}
+			else {
+				loader.close();
+			}
+		}
+
+		/**
+		 * Points the entry to the given copy of its jar. The idle class loaders are closed if the jar they
+		 * read has been moved or modified since; the ones in use are closed when given back.
+		 */
+		synchronized void bind(File jar) {
+			String stamp = jar.getAbsolutePath() + "|" + jar.lastModified();
+			if (!stamp.equals(jarStamp)) {
+				this.jar = jar;
+				this.jarStamp = stamp;
+				close();
+			}
+		}
+
+		synchronized void close() {
+			for (Loader loader : idle) {
+				loader.close();
+			}
+			idle.clear();
+		}
+	}
+
+	/**
+	 * A class loader of a cached jar, along with the directory put first on its class path to provide
+	 * the resources which vary between runs such as the Hadoop configuration.
+	 */
+	public static class Loader {
+
+		private final NestedJarClassLoader classLoader;
+		private final File resourceDir;
+		private final String jarStamp;
+
+		Loader(NestedJarClassLoader classLoader, File resourceDir, String jarStamp) {
+			this.classLoader = classLoader;
+			this.resourceDir = resourceDir;
+			this.jarStamp = jarStamp;
+		}
+
+		public ClassLoader getClassLoader() {
+			return classLoader;
+		}
+
+		public File getResourceDirectory() {
+			return resourceDir;
+		}
+
+		void close() {
+			try {
+				classLoader.close();
+			} catch (IOException ex) {
+				// ignore - only the jar file handle is released
+			}
+		}
+	}
+}
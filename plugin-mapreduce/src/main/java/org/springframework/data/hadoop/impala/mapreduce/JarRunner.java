@@ -0,0 +1,172 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.hadoop.conf.Configuration;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks.Task;
+import org.springframework.data.hadoop.impala.common.util.SecurityUtil;
+import org.springframework.data.hadoop.impala.common.util.SecurityUtil.ExitTrappedException;
+
+/**
+ * Runs the main class of job jars the way <code>hadoop jar</code> does, except that several runs can
+ * take place at the same time in the shell JVM: each run borrows its own class loader from the
+ * {@link JarCache}, sees its own copy of the Hadoop configuration and only traps the System.exit() calls
+ * of its own thread. Runs started in the background also get their own thread and captured output.
+ *
+ * @author Jarred Li
+ * @author Author of <code>org.apache.hadoop.util.RunJar</code>
+ */
+public class JarRunner {
+
+	private static final String[] CONFIGURATION_FILES = { "core-site.xml", "hdfs-site.xml", "mapred-site.xml" };
+
+	private final JarCache cache;
+
+	private final SecurityUtil securityUtil;
+
+	/**
+	 * Creates a new runner.
+	 *
+	 * @param cache cache providing the class loaders of the jars
+	 * @param securityUtil used to trap the System.exit() calls of the jobs
+	 */
+	public JarRunner(JarCache cache, SecurityUtil securityUtil) {
+		this.cache = cache;
+		this.securityUtil = securityUtil;
+	}
+
+	/**
+	 * Starts the main class of a jar in the background.
+	 *
+	 * @param tasks pool running the job, which captures its output
+	 * @param description text describing the run, usually the command line
+	 * @param jar job jar
+	 * @param mainClassName main class name
+	 * @param args arguments of the main method
+	 * @param configuration Hadoop configuration of the job, copied so later changes do not affect the run
+	 * @param stager stager of the <code>-libjars</code> of the job, <code>null</code> to let Hadoop copy them
+	 * @return the task, whose result is the exit status of the job
+	 */
+	public Task start(BackgroundTasks tasks, String description, final File jar, final String mainClassName,
+			final String[] args, Configuration configuration, final JarStager stager) {
+		final Configuration copy = new Configuration(configuration);
+		return tasks.submit(description, new Callable<Object>() {
+			public Object call() throws Exception {
+				return run(jar, mainClassName, args, copy, stager);
+			}
+		});
+	}
+
+	/**
+	 * Runs the main class of a jar on the calling thread.
+	 *
+	 * @param jar job jar
+	 * @param mainClassName main class name
+	 * @param args arguments of the main method
+	 * @param configuration Hadoop configuration, put first on the class path of the job
+	 * @param stager stager of the <code>-libjars</code> of the job, <code>null</code> to let Hadoop copy them
+	 * @return the status passed to System.exit(), 0 if the main method returned
+	 * @throws Exception if the jar cannot be loaded or the main method failed
+	 */
+	public int run(File jar, String mainClassName, String[] args, Configuration configuration, JarStager stager)
+			throws Exception {
+		List<File> libJars = new ArrayList<File>();
+		if (stager != null) {
+			args = stager.stageLibJars(args, libJars);
+		}
+		JarCache.Entry entry = cache.acquire(jar);
+		JarCache.Loader loader = null;
+		Thread thread = Thread.currentThread();
+		ClassLoader contextLoader = thread.getContextClassLoader();
+		securityUtil.forbidSystemExitCall();
+		try {
+			loader = entry.borrow(getClass().getClassLoader());
+			//This is to add hadoop configuration dir to classpath so that
+			//user's configuration can be accessed when running the jar
+			writeConfiguration(loader.getResourceDirectory(), configuration);
+
+			ClassLoader jobLoader = loader.getClassLoader();
+			if (!libJars.isEmpty()) {
+				// Hadoop only puts the local -libjars on the class path of the driver
+				URL[] urls = new URL[libJars.size()];
+				for (int i = 0; i < urls.length; i++) {
+					urls[i] = libJars.get(i).toURI().toURL();
+				}
+				jobLoader = new URLClassLoader(urls, jobLoader);
+			}
+			thread.setContextClassLoader(jobLoader);
+			Class<?> mainClass = Class.forName(mainClassName, true, loader.getClassLoader());
+			Method main = mainClass.getMethod("main", String[].class);
+			main.invoke(null, new Object[] { args });
+			return 0;
+		} catch (InvocationTargetException ex) {
+			for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+				if (cause instanceof ExitTrappedException) {
+					return ((ExitTrappedException) cause).getStatus();
+				}
+			}
+			if (ex.getCause() instanceof Exception) {
+				throw (Exception) ex.getCause();
+			}
+			if (ex.getCause() instanceof Error) {
+				throw (Error) ex.getCause();
+			}
+			throw ex;
+		} finally {
+			securityUtil.enableSystemExitCall();
+			thread.setContextClassLoader(contextLoader);
+			if (loader != null) {
+				entry.giveBack(loader);
+			}
+			cache.release(entry);
+		}
+	}
+
+	/**
+	 * Writes the Hadoop configuration to one directory,
+	 * file name is "core-site.xml", "hdfs-site.xml" and "mapred-site.xml".
+	 *
+	 * @param configDir the directory that the file be written
+	 * @param configuration Hadoop configuration
+	 * @throws IOException if a file cannot be written
+	 */
+	static void writeConfiguration(File configDir, Configuration configuration) throws IOException {
+		if (!configDir.mkdirs() && !configDir.isDirectory()) {
+			throw new IOException("Mkdirs failed to create " + configDir);
+		}
+		for (String name : CONFIGURATION_FILES) {
+			OutputStream out = new FileOutputStream(new File(configDir, name));
+			try {
+				configuration.writeXml(out);
+			} finally {
+				out.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Content-addressed cache of job jars on the cluster file system. Each jar is uploaded once under
+ * <code>&lt;root&gt;/&lt;SHA-1 digest&gt;/&lt;name&gt;</code> and put on the class path of the jobs through
+ * the distributed cache, so Hadoop finds it already on the job tracker file system and does not copy it to
+ * the staging directory of every job.
+ * <p/>
+ * A job jar is split into the jar without its <code>lib/</code> directory and the nested jars of that
+ * directory, each staged on its own: a new build of a fat jar only uploads the classes which changed,
+ * its dependencies being shared with the previous builds. The split is remembered by the digest of the job
+ * jar, so submitting the same build again neither rewrites nor digests its parts.
+ *
+ * @author Jarred Li
+ */
+public class JarStager {
+
+	public static final String ENABLED_KEY = "impala.mr.jar.staging";
+
+	public static final String DIR_KEY = "impala.mr.jar.staging.dir";
+
+	private static final String LIB = "lib/";
+
+	private static final String CLASSES = "classes/";
+
+	private static final String JAR_KEY = "mapred.jar";
+
+	private static final String LIBJARS_KEY = "tmpjars";
+
+	private final FileSystem fs;
+
+	private final Path root;
+
+	private final JarCache digests;
+
+	/** class path of the job jars already split, by digest - empty for the jars which cannot be split */
+	private final Map<String, List<Path>> jobJars = new HashMap<String, List<Path>>();
+
+	private int splits;
+
+	private int uploads;
+
+	private long uploadedBytes;
+
+	private int reuses;
+
+	private long reusedBytes;
+
+	/**
+	 * Creates a new stager.
+	 *
+	 * @param fs file system of the job tracker
+	 * @param root directory of the staged jars
+	 * @param digests cache remembering the digests of the local jars
+	 */
+	public JarStager(FileSystem fs, Path root, JarCache digests) {
+		this.fs = fs;
+		this.root = fs.makeQualified(root);
+		this.digests = digests;
+	}
+
+	/**
+	 * Stages a jar, unless a jar with the same content and name is staged already.
+	 *
+	 * @param jar local jar
+	 * @return the staged jar
+	 * @throws IOException if the jar cannot be read or uploaded
+	 */
+	public Path stage(File jar) throws IOException {
+		return stage(jar, digests.digest(jar), jar.getName());
+	}
+
+	/**
+	 * Stages a job jar: the jar without its <code>lib/</code> directory, then each of the nested jars.
+	 *
+	 * @param jar local job jar
+	 * @return the class path of the job, or <code>null</code> if the jar has a <code>classes/</code>
+	 * directory, which only the unpacking of the job jar by Hadoop puts on the class path
+	 * @throws IOException if the jar cannot be read or uploaded
+	 */
+	public List<Path> stageJobJar(File jar) throws IOException {
+		String digest = digests.digest(jar);
+		List<Path> known;
+		synchronized (this) {
+			known = jobJars.get(digest);
+		}
+		if (known != null) {
+			if (known.isEmpty()) {
+				return null;
+			}
+			if (reuse(known)) {
+				return new ArrayList<Path>(known);
+			}
+		}
+		List<Path> classPath = split(jar);
+		synchronized (this) {
+			jobJars.put(digest, (classPath != null ? classPath : Collections.<Path> emptyList()));
+			if (classPath != null) {
+				splits++;
+			}
+		}
+		return (classPath != null ? new ArrayList<Path>(classPath) : null);
+	}
+
+	private List<Path> split(File jar) throws IOException {
+		JarFile jarFile = new JarFile(jar);
+		try {
+			List<JarEntry> libs = new ArrayList<JarEntry>();
+			for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+				JarEntry entry = entries.nextElement();
+				if (entry.getName().startsWith(CLASSES)) {
+					return null;
+				}
+				if (isLib(entry)) {
+					libs.add(entry);
+				}
+			}
+			List<Path> classPath = new ArrayList<Path>();
+			if (libs.isEmpty()) {
+				classPath.add(stage(jar));
+				return classPath;
+			}
+			File tmpDir = new File(System.getProperty("java.io.tmpdir"), "impala-jar-staging-" + UUID.randomUUID());
+			if (!tmpDir.mkdirs()) {
+				throw new IOException("Mkdirs failed to create " + tmpDir);
+			}
+			try {
+				File thin = new File(tmpDir, jar.getName());
+				classPath.add(stage(thin, copy(jarFile, null, thin), jar.getName()));
+				for (JarEntry lib : libs) {
+					String name = lib.getName().substring(LIB.length());
+					File file = new File(tmpDir, name);
+					classPath.add(stage(file, copy(jarFile, lib, file), name));
+				}
+			} finally {
+				FileUtil.fullyDelete(tmpDir);
+			}
+			return classPath;
+		} finally {
+			jarFile.close();
+		}
+	}
+
+	/**
+	 * Stages the local job jar and <code>tmpjars</code> (<code>-libjars</code>) of a job and puts them on
+	 * its class path through the distributed cache instead.
+	 *
+	 * @param job job configuration
+	 * @return the configuration to submit, a copy of the given one if it changed since settings cannot be
+	 * removed from a configuration
+	 * @throws IOException if a jar cannot be read or uploaded
+	 */
+	public JobConf stageJob(JobConf job) throws IOException {
+		List<Path> classPath = new ArrayList<Path>();
+		String jar = job.getJar();
+		boolean jarStaged = false;
+		if (jar != null && isLocal(jar, true)) {
+			List<Path> jobJar = stageJobJar(localFile(jar));
+			if (jobJar != null) {
+				classPath.addAll(jobJar);
+				jarStaged = true;
+			}
+		}
+		String libJars = job.get(LIBJARS_KEY);
+		List<String> remoteJars = new ArrayList<String>();
+		if (libJars != null) {
+			for (String libJar : libJars.split(",")) {
+				// Hadoop resolves the jars without a scheme against the default file system
+				if (isLocal(libJar, false)) {
+					classPath.add(stage(localFile(libJar)));
+				}
+				else {
+					remoteJars.add(libJar);
+				}
+			}
+		}
+		if (classPath.isEmpty()) {
+			return job;
+		}
+		JobConf staged = new JobConf(false);
+		for (Map.Entry<String, String> entry : job) {
+			if (!(jarStaged && JAR_KEY.equals(entry.getKey())) && !LIBJARS_KEY.equals(entry.getKey())) {
+				staged.set(entry.getKey(), entry.getValue());
+			}
+		}
+		if (!remoteJars.isEmpty()) {
+			staged.set(LIBJARS_KEY, StringUtils.join(",", remoteJars));
+		}
+		for (Path path : classPath) {
+			DistributedCache.addFileToClassPath(new Path(path.toUri().getPath()), staged, fs);
+		}
+		return staged;
+	}
+
+	/**
+	 * Stages the local jars given to the <code>-libjars</code> option of a command line, which Hadoop
+	 * does not copy again as they are then on the job tracker file system.
+	 *
+	 * @param args command line
+	 * @param localJars receives the local jars which were staged, for the class path of the driver
+	 * @return the command line naming the staged jars instead
+	 * @throws IOException if a jar cannot be read or uploaded
+	 */
+	public String[] stageLibJars(String[] args, List<File> localJars) throws IOException {
+		String[] staged = args.clone();
+		for (int i = 0; i < staged.length - 1; i++) {
+			if (!"-libjars".equals(staged[i])) {
+				continue;
+			}
+			List<String> jars = new ArrayList<String>();
+			for (String libJar : staged[i + 1].split(",")) {
+				if (isLocal(libJar, true)) {
+					File file = localFile(libJar);
+					localJars.add(file);
+					jars.add(stage(file).toString());
+				}
+				else {
+					jars.add(libJar);
+				}
+			}
+			staged[i + 1] = StringUtils.join(",", jars);
+		}
+		return staged;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("staged jars in %s: %d uploaded (%d bytes), %d reused (%d bytes), %d job jars split",
+				root, uploads, uploadedBytes, reuses, reusedBytes, splits);
+	}
+
+	/**
+	 * Counts the jars staged for an earlier submission as reused, unless one of them was removed since.
+	 */
+	private boolean reuse(List<Path> staged) throws IOException {
+		long bytes = 0;
+		for (Path path : staged) {
+			try {
+				bytes += fs.getFileStatus(path).getLen();
+			} catch (FileNotFoundException ex) {
+				return false;
+			}
+		}
+		synchronized (this) {
+			reuses += staged.size();
+			reusedBytes += bytes;
+		}
+		return true;
+	}
+
+	private Path stage(File file, String digest, String name) throws IOException {
+		Path path = new Path(new Path(root, digest), name);
+		if (fs.exists(path)) {
+			synchronized (this) {
+				reuses++;
+				reusedBytes += file.length();
+			}
+			return path;
+		}
+		// uploaded aside then renamed, so a partial upload is never used
+		Path tmp = new Path(root, "." + digest + "-" + UUID.randomUUID());
+		fs.copyFromLocalFile(new Path(file.getAbsoluteFile().toURI()), tmp);
+		fs.mkdirs(path.getParent());
+		if (!fs.rename(tmp, path)) {
+			fs.delete(tmp, false);
+			if (!fs.exists(path)) {
+				throw new IOException("Cannot stage " + file + " to " + path);
+			}
+			// staged meanwhile by another submission
+		}
+		synchronized (this) {
+			uploads++;
+			uploadedBytes += file.length();
+		}
+		return path;
+	}
+
+	/**
+	 * Copies a nested jar out of a jar, or the jar itself without its nested jars, and returns the digest
+	 * of the copy.
+	 */
+	private static String copy(JarFile jar, JarEntry lib, File file) throws IOException {
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-1");
+		} catch (Exception ex) {
+			throw new IOException("SHA-1 not available: " + ex.getMessage());
+		}
+		OutputStream out = new DigestOutputStream(new FileOutputStream(file), sha);
+		try {
+			if (lib != null) {
+				copy(jar.getInputStream(lib), out);
+			}
+			else {
+				ZipOutputStream zip = new ZipOutputStream(out);
+				for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+					JarEntry entry = entries.nextElement();
+					if (isLib(entry)) {
+						continue;
+					}
+					ZipEntry copy = new ZipEntry(entry.getName());
+					// same content, same digest
+					copy.setTime(entry.getTime());
+					zip.putNextEntry(copy);
+					if (!entry.isDirectory()) {
+						copy(jar.getInputStream(entry), zip);
+					}
+					zip.closeEntry();
+				}
+				zip.finish();
+			}
+		} finally {
+			out.close();
+		}
+		return StringUtils.byteToHexString(sha.digest());
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static boolean isLib(JarEntry entry) {
+		String name = entry.getName();
+		return name.startsWith(LIB) && name.endsWith(".jar") && name.indexOf('/', LIB.length()) < 0;
+	}
+
+	private static boolean isLocal(String path, boolean noScheme) {
+		String scheme = new Path(path).toUri().getScheme();
+		return (scheme == null ? noScheme : "file".equals(scheme));
+	}
+
+	private static File localFile(String path) {
+		return new File(new Path(path).toUri().getPath());
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapred.RunningJob;
+import org.springframework.util.StringUtils;
+
+/**
+ * A batch of job files submitted together. The batch is read either from a directory, whose
+ * <code>*.xml</code> files are the jobs, or from a manifest listing one job file per line, optionally
+ * followed by the names of the jobs it depends on:
+ * <pre>
+ * # nightly run
+ * extract.xml
+ * transform.xml extract
+ * load.xml transform
+ * </pre>
+ * A job is named after its file, without the <code>.xml</code> extension, and relative paths are resolved
+ * against the directory of the manifest. A job file can also declare its dependencies itself, as a comma
+ * separated list of job names in the {@link #DEPENDS_KEY} property.
+ * <p/>
+ * Each job is submitted as soon as the jobs it depends on succeeded, with at most a given number of jobs
+ * submitted and not yet completed; a job whose dependency did not succeed is skipped.
+ *
+ * @author Jarred Li
+ */
+public class JobBatch {
+
+	public static final String DEPENDS_KEY = "impala.job.depends";
+
+	private static final long POLL_INTERVAL = 1000;
+
+	public enum Outcome {
+		PENDING, RUNNING, SUCCEEDED, FAILED, KILLED, SKIPPED, ERROR
+	}
+
+	// dependencies first
+	private final List<Job> jobs;
+
+	private final Map<String, Job> byName = new LinkedHashMap<String, Job>();
+
+	JobBatch(List<Job> jobs) throws IOException {
+		for (Job job : jobs) {
+			if (byName.put(job.name, job) != null) {
+				throw new IOException("Duplicate job name " + job.name);
+			}
+		}
+		for (Job job : jobs) {
+			for (String dependency : job.dependencies) {
+				if (!byName.containsKey(dependency)) {
+					throw new IOException("Job " + job.name + " depends on unknown job " + dependency);
+				}
+			}
+		}
+		this.jobs = sort(jobs);
+	}
+
+	/**
+	 * Reads a batch from a directory of job files or from a manifest.
+	 *
+	 * @param source directory or manifest file
+	 * @return the batch, its jobs sorted so that each one comes after its dependencies
+	 * @throws IOException if a file cannot be read or the dependencies are inconsistent
+	 */
+	public static JobBatch load(File source) throws IOException {
+		List<Job> jobs = new ArrayList<Job>();
+		if (source.isDirectory()) {
+			File[] files = source.listFiles(new FilenameFilter() {
+				public boolean accept(File dir, String name) {
+					return name.endsWith(".xml");
+				}
+			});
+			Arrays.sort(files);
+			for (File file : files) {
+				jobs.add(new Job(file, Collections.<String> emptyList()));
+			}
+		}
+		else if (source.isFile()) {
+			BufferedReader reader = new BufferedReader(new FileReader(source));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("#")) {
+						continue;
+					}
+					String[] tokens = line.split("\\s+");
+					File file = new File(tokens[0]);
+					if (!file.isAbsolute()) {
+						file = new File(source.getAbsoluteFile().getParentFile(), tokens[0]);
+					}
+					jobs.add(new Job(file, Arrays.asList(tokens).subList(1, tokens.length)));
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		else {
+			throw new IOException("Cannot find job directory or manifest " + source);
+		}
+		return new JobBatch(jobs);
+	}
+
+	/**
+	 * Returns the jobs of the batch, each one after its dependencies.
+	 */
+	public List<Job> getJobs() {
+		return jobs;
+	}
+
+	/**
+	 * Submits the jobs and waits for all of them to complete.
+	 *
+	 * @param configuration configuration the job files are applied to
+	 * @param maxRunning maximum number of jobs submitted and not completed at the same time
+	 * @param out stream notified of the submission and completion of each job
+	 * @throws InterruptedException if the current thread is interrupted while waiting - the jobs already
+	 * submitted keep running
+	 */
+	public void run(final Configuration configuration, int maxRunning, final PrintStream out)
+			throws InterruptedException {
+		int slots = Math.max(1, maxRunning);
+		ExecutorService executor = Executors.newFixedThreadPool(slots);
+		CompletionService<Job> completions = new ExecutorCompletionService<Job>(executor);
+		List<Job> pending = new ArrayList<Job>(jobs);
+		Set<String> completed = new HashSet<String>();
+		int running = 0;
+		try {
+			while (!pending.isEmpty() || running > 0) {
+				// only the jobs whose dependencies are complete take a slot, the others wait in the list
+				for (Iterator<Job> it = pending.iterator(); it.hasNext() && running < slots;) {
+					final Job job = it.next();
+					if (!completed.containsAll(job.dependencies)) {
+						continue;
+					}
+					it.remove();
+					String failed = failedDependency(job);
+					if (failed != null) {
+						job.outcome = Outcome.SKIPPED;
+						job.message = "dependency " + failed + " " + byName.get(failed).outcome;
+						completed.add(job.name);
+						// the jobs depending on this one may be skipped as well, start over
+						it = pending.iterator();
+						continue;
+					}
+					completions.submit(new Callable<Job>() {
+						public Job call() {
+							JobBatch.this.run(job, configuration, out);
+							return job;
+						}
+					});
+					running++;
+				}
+				if (running > 0) {
+					completed.add(take(completions).name);
+					running--;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private String failedDependency(Job job) {
+		for (String name : job.dependencies) {
+			if (byName.get(name).outcome != Outcome.SUCCEEDED) {
+				return name;
+			}
+		}
+		return null;
+	}
+
+	private static Job take(CompletionService<Job> completions) throws InterruptedException {
+		try {
+			return completions.take().get();
+		} catch (ExecutionException ex) {
+			// not expected, run(Job) records every failure in the outcome of the job
+			throw new IllegalStateException(ex.getCause());
+		}
+	}
+
+	private void run(Job job, Configuration configuration, PrintStream out) {
+		try {
+			job.started = System.currentTimeMillis();
+			JobConf conf = jobConf(job.file, configuration);
+			// a client of its own, as the local job runner runs the jobs with the configuration of its client
+			JobClient client = new JobClient(conf);
+			try {
+				RunningJob running;
+				// one submission at a time, the local job runner hands out its job ids without locking
+				synchronized (this) {
+					running = client.submitJob(conf);
+				}
+				job.jobId = running.getID().toString();
+				job.outcome = Outcome.RUNNING;
+				out.println("[" + job.name + "] submitted " + job.jobId);
+				while (!running.isComplete()) {
+					Thread.sleep(POLL_INTERVAL);
+				}
+				if (running.isSuccessful()) {
+					job.outcome = Outcome.SUCCEEDED;
+				}
+				else {
+					job.outcome = (running.getJobState() == JobStatus.KILLED ? Outcome.KILLED : Outcome.FAILED);
+					job.message = running.getFailureInfo();
+				}
+			} finally {
+				client.close();
+			}
+			out.println("[" + job.name + "] " + job.outcome);
+		} catch (InterruptedException ex) {
+			job.message = "interrupted";
+		} catch (Throwable t) {
+			// whatever happens, the job completes so that the batch goes on
+			job.outcome = Outcome.ERROR;
+			job.message = t.getMessage();
+			out.println("[" + job.name + "] " + job.outcome + ": " + t.getMessage());
+		} finally {
+			job.finished = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Returns the configuration of a job: the given configuration overridden by the job file.
+	 */
+	static JobConf jobConf(File file, Configuration configuration) {
+		JobConf conf = new JobConf(configuration);
+		for (Map.Entry<String, String> property : read(file)) {
+			conf.set(property.getKey(), property.getValue());
+		}
+		return conf;
+	}
+
+	private static Configuration read(File file) {
+		Configuration jobFile = new Configuration(false);
+		jobFile.addResource(new Path(file.getAbsolutePath()));
+		return jobFile;
+	}
+
+	/**
+	 * Orders the jobs so that each one comes after its dependencies, keeping the given order otherwise.
+	 */
+	private static List<Job> sort(List<Job> jobs) throws IOException {
+		List<Job> sorted = new ArrayList<Job>();
+		Set<String> placed = new LinkedHashSet<String>();
+		List<Job> remaining = new ArrayList<Job>(jobs);
+		while (!remaining.isEmpty()) {
+			Job next = null;
+			for (Job job : remaining) {
+				if (placed.containsAll(job.dependencies)) {
+					next = job;
+					break;
+				}
+			}
+			if (next == null) {
+				List<String> names = new ArrayList<String>();
+				for (Job job : remaining) {
+					names.add(job.name);
+				}
+				throw new IOException("Circular dependency between jobs "
+						+ StringUtils.collectionToDelimitedString(names, ", "));
+			}
+			remaining.remove(next);
+			placed.add(next.name);
+			sorted.add(next);
+		}
+		return sorted;
+	}
+
+	/**
+	 * A job of the batch and its outcome.
+	 */
+	public static class Job {
+
+		private final String name;
+		private final File file;
+		private final Set<String> dependencies = new LinkedHashSet<String>();
+		private volatile Outcome outcome = Outcome.PENDING;
+		private volatile String jobId;
+		private volatile String message;
+		private volatile long started;
+		private volatile long finished;
+
+		Job(File file, List<String> dependencies) throws IOException {
+			String fileName = file.getName();
+			this.name = (fileName.endsWith(".xml") ? fileName.substring(0, fileName.length() - 4) : fileName);
+			this.file = file;
+			this.dependencies.addAll(dependencies);
+			if (!file.isFile()) {
+				throw new IOException("Cannot find job file " + file);
+			}
+			String declared;
+			try {
+				declared = read(file).get(DEPENDS_KEY);
+			} catch (RuntimeException ex) {
+				throw new IOException("Cannot read job file " + file + ": " + ex.getMessage());
+			}
+			if (declared != null) {
+				for (String dependency : StringUtils.commaDelimitedListToStringArray(declared)) {
+					if (dependency.trim().length() > 0) {
+						this.dependencies.add(dependency.trim());
+					}
+				}
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public Set<String> getDependencies() {
+			return dependencies;
+		}
+
+		public Outcome getOutcome() {
+			return outcome;
+		}
+
+		/**
+		 * Returns the id of the submitted job, <code>null</code> if it was not submitted.
+		 */
+		public String getJobId() {
+			return jobId;
+		}
+
+		/**
+		 * Returns the reason why the job did not succeed, if known.
+		 */
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * Returns the time from submission to completion, in milliseconds.
+		 */
+		public long getElapsedMillis() {
+			return (started > 0 && finished > 0 ? finished - started : 0);
+		}
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapred.RunningJob;
+
+/**
+ * Selects jobs by user, name, state and age, and applies an action to all of them in parallel.
+ * <p/>
+ * The job list is fetched once from the job tracker and filtered on what it already contains (user,
+ * state and start time); the job itself, and its name, is only fetched for the remaining jobs, when a
+ * name pattern is set or an action is applied.
+ *
+ * @author Jarred Li
+ */
+public class JobSelection {
+
+	/**
+	 * Action applied to each selected job.
+	 */
+	public interface Action {
+
+		/**
+		 * Applies the action.
+		 *
+		 * @param job selected job
+		 * @throws IOException if the job tracker cannot be reached
+		 */
+		void apply(RunningJob job) throws IOException;
+	}
+
+	private final String user;
+
+	private final Pattern name;
+
+	private final Set<Integer> states = new HashSet<Integer>();
+
+	private final long olderThan;
+
+	/**
+	 * Creates a new selection. Every criterion is optional.
+	 *
+	 * @param user user who submitted the jobs
+	 * @param namePattern job name pattern, where <code>*</code> matches any characters and <code>?</code> one
+	 * @param states comma separated job states: PREP, RUNNING, SUCCEEDED, FAILED or KILLED
+	 * @param olderThan minimum time since the job started, as a number followed by s, m, h or d (minutes if no unit)
+	 * @throws IllegalArgumentException if a state or the age is not valid
+	 */
+	public JobSelection(String user, String namePattern, String states, String olderThan) {
+		this.user = user;
+		this.name = (namePattern != null ? glob(namePattern) : null);
+		if (states != null) {
+			for (String state : states.split(",")) {
+				if (state.trim().length() > 0) {
+					this.states.add(runState(state.trim()));
+				}
+			}
+		}
+		this.olderThan = (olderThan != null ? parseAge(olderThan) : 0);
+	}
+
+	/**
+	 * Returns whether no criterion is set, in which case all the jobs are selected.
+	 */
+	public boolean isEmpty() {
+		return user == null && name == null && states.isEmpty() && olderThan == 0;
+	}
+
+	/**
+	 * Selects the jobs and applies the action to them.
+	 *
+	 * @param client client of the job tracker
+	 * @param threads number of jobs processed at the same time
+	 * @param action action to apply, <code>null</code> to only select the jobs
+	 * @return the selected jobs, in the order of the job list
+	 * @throws IOException if the job list cannot be fetched
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the jobs
+	 */
+	public List<Selected> apply(final JobClient client, int threads, final Action action) throws IOException,
+			InterruptedException {
+		JobStatus[] jobs = client.getAllJobs();
+		long now = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<Selected>> futures = new ArrayList<Future<Selected>>();
+			for (final JobStatus status : (jobs != null ? jobs : new JobStatus[0])) {
+				if (!matches(status, now)) {
+					continue;
+				}
+				futures.add(executor.submit(new Callable<Selected>() {
+					public Selected call() {
+						return select(client, status, action);
+					}
+				}));
+			}
+			List<Selected> selected = new ArrayList<Selected>();
+			for (Future<Selected> future : futures) {
+				try {
+					Selected job = future.get();
+					if (job != null) {
+						selected.add(job);
+					}
+				} catch (ExecutionException ex) {
+					// select() reports the failures in the result
+				}
+			}
+			return selected;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	boolean matches(JobStatus status, long now) {
+		if (user != null && !user.equals(status.getUsername())) {
+			return false;
+		}
+		if (!states.isEmpty() && !states.contains(status.getRunState())) {
+			return false;
+		}
+		return olderThan == 0 || now - status.getStartTime() >= olderThan;
+	}
+
+	private Selected select(JobClient client, JobStatus status, Action action) {
+		Selected selected = new Selected(status);
+		if (name == null && action == null) {
+			// the job list has all that is needed
+			return selected;
+		}
+		try {
+			RunningJob job = client.getJob(status.getJobID());
+			if (job == null) {
+				// retired meanwhile
+				return null;
+			}
+			selected.name = job.getJobName();
+			if (name != null && (selected.name == null || !name.matcher(selected.name).matches())) {
+				return null;
+			}
+			selected.job = job;
+			if (action != null) {
+				action.apply(job);
+			}
+		} catch (IOException ex) {
+			selected.failure = ex.getMessage();
+		}
+		return selected;
+	}
+
+	private static Pattern glob(String pattern) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (char c : pattern.toCharArray()) {
+			if (c == '*' || c == '?') {
+				if (literal.length() > 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '*' ? ".*" : ".");
+			}
+			else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	private static int runState(String state) {
+		for (int runState : new int[] { JobStatus.PREP, JobStatus.RUNNING, JobStatus.SUCCEEDED, JobStatus.FAILED,
+				JobStatus.KILLED }) {
+			if (JobStatus.getJobRunState(runState).equalsIgnoreCase(state)) {
+				return runState;
+			}
+		}
+		throw new IllegalArgumentException("Unknown job state " + state
+				+ ", expected PREP, RUNNING, SUCCEEDED, FAILED or KILLED");
+	}
+
+	static long parseAge(String age) {
+		String value = age.trim().toLowerCase();
+		long unit = 60 * 1000L;
+		char last = (value.length() > 0 ? value.charAt(value.length() - 1) : ' ');
+		if (last == 's' || last == 'm' || last == 'h' || last == 'd') {
+			unit = (last == 's' ? 1000L : last == 'm' ? 60 * 1000L : last == 'h' ? 3600 * 1000L : 24 * 3600 * 1000L);
+			value = value.substring(0, value.length() - 1).trim();
+		}
+		try {
+			return Long.parseLong(value) * unit;
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Invalid age " + age + ", expected a number followed by s, m, h or d");
+		}
+	}
+
+	/**
+	 * A selected job and the outcome of the action.
+	 */
+	public static class Selected {
+
+		private final JobStatus status;
+		private RunningJob job;
+		private String name;
+		private String failure;
+
+		Selected(JobStatus status) {
+			this.status = status;
+		}
+
+		public JobStatus getStatus() {
+			return status;
+		}
+
+		/**
+		 * Returns the job, <code>null</code> if it was not fetched or could not be.
+		 */
+		public RunningJob getJob() {
+			return job;
+		}
+
+		/**
+		 * Returns the job name, <code>null</code> if the job was not fetched.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the reason why the action failed, <code>null</code> if it succeeded.
+		 */
+		public String getFailure() {
+			return failure;
+		}
+	}
+}
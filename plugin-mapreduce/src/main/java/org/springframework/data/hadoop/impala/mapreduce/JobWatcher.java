@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TaskCompletionEvent;
+
+/**
+ * Follows a running job until it completes, printing what changed since the previous poll: the job state
+ * and progress, the task completion events not seen yet and the value of the selected counters.
+ * <p/>
+ * Events are fetched from the last event seen, so each poll only transfers the new ones. The polling
+ * interval doubles, up to a maximum, while the job does not change, and drops back to the minimum as soon
+ * as it does.
+ *
+ * @author Jarred Li
+ */
+public class JobWatcher {
+
+	private final RunningJob job;
+
+	private final List<String[]> counters = new ArrayList<String[]>();
+
+	private final long minInterval;
+
+	private final long maxInterval;
+
+	private final PrintStream out;
+
+	private String lastStatus;
+
+	private int nextEvent;
+
+	private final Map<String, Long> lastCounters = new HashMap<String, Long>();
+
+	private long interval;
+
+	/**
+	 * Creates a new watcher.
+	 *
+	 * @param job the job to follow
+	 * @param counterNames counters to follow, as <code>group:counter</code>
+	 * @param minInterval polling interval while the job changes, in milliseconds
+	 * @param maxInterval maximum polling interval while it does not, in milliseconds
+	 * @param out stream the changes are printed to
+	 */
+	public JobWatcher(RunningJob job, List<String> counterNames, long minInterval, long maxInterval, PrintStream out) {
+		this.job = job;
+		for (String name : counterNames) {
+			int colon = name.lastIndexOf(':');
+			if (colon <= 0 || colon == name.length() - 1) {
+				throw new IllegalArgumentException("Counter " + name + " is not of the form group:counter");
+			}
+			counters.add(new String[] { name.substring(0, colon), name.substring(colon + 1) });
+		}
+		this.minInterval = Math.max(1, minInterval);
+		this.maxInterval = Math.max(this.minInterval, maxInterval);
+		this.interval = this.minInterval;
+		this.out = out;
+	}
+
+	/**
+	 * Polls the job until it completes.
+	 *
+	 * @throws IOException if the job tracker cannot be reached
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the next poll
+	 */
+	public void watch() throws IOException, InterruptedException {
+		while (true) {
+			boolean changed = poll();
+			if (job.isComplete()) {
+				// the last events and counters may have been published with the completion
+				poll();
+				return;
+			}
+			Thread.sleep(nextInterval(changed));
+		}
+	}
+
+	/**
+	 * Prints what changed since the previous poll.
+	 *
+	 * @return whether anything changed
+	 * @throws IOException if the job tracker cannot be reached
+	 */
+	boolean poll() throws IOException {
+		boolean changed = false;
+		String status = String.format("%s map %.1f%% reduce %.1f%%", JobStatus.getJobRunState(job.getJobState()),
+				job.mapProgress() * 100, job.reduceProgress() * 100);
+		if (!status.equals(lastStatus)) {
+			out.println(String.format("%tT %s %s", System.currentTimeMillis(), job.getID(), status));
+			lastStatus = status;
+			changed = true;
+		}
+		TaskCompletionEvent[] events;
+		// the job tracker returns events in batches
+		while ((events = job.getTaskCompletionEvents(nextEvent)).length > 0) {
+			for (TaskCompletionEvent event : events) {
+				out.println(String.format("  event %d %s %s %s %dms %s", event.getEventId(), event.getTaskAttemptId(),
+						(event.isMapTask() ? "map" : "reduce"), event.getTaskStatus(), event.getTaskRunTime(),
+						event.getTaskTrackerHttp()));
+			}
+			nextEvent += events.length;
+			changed = true;
+		}
+		if (!counters.isEmpty()) {
+			Counters values = job.getCounters();
+			for (String[] counter : counters) {
+				long value = (values != null ? CounterStats.value(values, counter[0], counter[1]) : 0);
+				String name = counter[0] + ":" + counter[1];
+				Long last = lastCounters.put(name, value);
+				if (last == null || last != value) {
+					out.println("  counter " + name + " " + value);
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns the time to wait before the next poll.
+	 *
+	 * @param changed whether the last poll found changes
+	 */
+	long nextInterval(boolean changed) {
+		interval = (changed ? minInterval : Math.min(maxInterval, interval * 2));
+		return interval;
+	}
+}
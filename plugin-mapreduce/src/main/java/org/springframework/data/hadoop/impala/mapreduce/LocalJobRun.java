@@ -0,0 +1,288 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Prepares the run of a job jar with the local job runner on a sample of its input, for quick
+ * development loops.
+ * <p/>
+ * The job arguments naming a path of the cluster file system are rewritten: a path or glob pattern which
+ * matches something is an input, replaced by a local copy of the first files and bytes it matches - text
+ * files are cut at a line boundary, other files are only copied whole; a path which matches nothing is an
+ * output, replaced by a local directory whose part files are printed once the job is done. The time spent
+ * in each phase is recorded.
+ *
+ * @author Jarred Li
+ */
+public class LocalJobRun {
+
+	private static final String[] BINARY_SUFFIXES = { ".gz", ".bz2", ".deflate", ".snappy", ".lzo" };
+
+	private final Configuration configuration;
+
+	private final File dir;
+
+	private final long sampleBytes;
+
+	private final int maxFiles;
+
+	private final List<File> outputs = new ArrayList<File>();
+
+	private final Map<String, Long> timings = new LinkedHashMap<String, Long>();
+
+	private int sampledFiles;
+
+	private long sampledBytes;
+
+	/**
+	 * Creates a new run.
+	 *
+	 * @param configuration configuration of the cluster the job arguments refer to
+	 * @param dir local directory of the sampled input and of the output
+	 * @param sampleBytes maximum number of bytes copied from each input path
+	 * @param maxFiles maximum number of files copied from each input path, 0 for no limit
+	 */
+	public LocalJobRun(Configuration configuration, File dir, long sampleBytes, int maxFiles) {
+		this.configuration = configuration;
+		this.dir = dir;
+		this.sampleBytes = sampleBytes;
+		this.maxFiles = maxFiles;
+	}
+
+	/**
+	 * Returns a copy of the cluster configuration running the jobs in-process on the local file system.
+	 */
+	public Configuration getLocalConfiguration() {
+		Configuration local = new Configuration(configuration);
+		local.set("mapred.job.tracker", "local");
+		local.set("fs.default.name", "file:///");
+		return local;
+	}
+
+	/**
+	 * Samples the input paths of the job arguments and rewrites them, along with the output paths.
+	 *
+	 * @param args job arguments
+	 * @return the arguments naming the local copies
+	 * @throws IOException if an input cannot be sampled
+	 */
+	public String[] prepare(String[] args) throws IOException {
+		long start = System.currentTimeMillis();
+		if (!dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("Mkdirs failed to create " + dir);
+		}
+		String[] local = args.clone();
+		for (int i = 0; i < args.length; i++) {
+			// only absolute or qualified paths, other arguments are left alone
+			if (!args[i].startsWith("/") && !args[i].contains("://")) {
+				continue;
+			}
+			Path path = new Path(args[i]);
+			FileSystem fs = path.getFileSystem(configuration);
+			if ("file".equals(fs.getUri().getScheme()) && path.toUri().getScheme() != null) {
+				continue;
+			}
+			FileStatus[] matches = fs.globStatus(path);
+			if (matches != null && matches.length > 0) {
+				File input = new File(dir, "input-" + i);
+				sample(fs, matches, input);
+				local[i] = input.getAbsolutePath();
+			}
+			else {
+				File output = new File(dir, "output-" + i);
+				outputs.add(output);
+				local[i] = output.getAbsolutePath();
+			}
+		}
+		time("sample", start, sampledFiles + " files, " + sampledBytes + " bytes");
+		return local;
+	}
+
+	/**
+	 * Records the time spent in a phase.
+	 *
+	 * @param phase name of the phase
+	 * @param start time the phase started
+	 * @param detail what the phase did
+	 */
+	public void time(String phase, long start, String detail) {
+		timings.put(phase + (detail != null ? " (" + detail + ")" : ""), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Returns the time spent in each phase, in milliseconds, in the order the phases ran.
+	 */
+	public Map<String, Long> getTimings() {
+		return timings;
+	}
+
+	/**
+	 * Prints the first records of each part file of the outputs.
+	 *
+	 * @param out stream the records are printed to
+	 * @param records maximum number of records per part file
+	 * @throws IOException if a part file cannot be read
+	 */
+	public void printOutputs(PrintStream out, int records) throws IOException {
+		long start = System.currentTimeMillis();
+		FileSystem fs = FileSystem.getLocal(configuration);
+		int files = 0;
+		for (File output : outputs) {
+			if (!output.isDirectory()) {
+				continue;
+			}
+			OutputPreview preview = new OutputPreview(fs, new Path(output.getAbsolutePath()), configuration);
+			preview.head(records, 0, out);
+			files += preview.getParts().size();
+		}
+		time("output", start, files + " part files");
+	}
+
+	private void sample(FileSystem fs, FileStatus[] matches, File input) throws IOException {
+		if (!input.mkdirs() && !input.isDirectory()) {
+			throw new IOException("Mkdirs failed to create " + input);
+		}
+		// the directories matched are read as FileInputFormat does, their files only
+		List<FileStatus> matched = new ArrayList<FileStatus>();
+		for (FileStatus match : matches) {
+			FileStatus[] children = (match.isDir() ? fs.listStatus(match.getPath()) : null);
+			matched.addAll(Arrays.asList(children != null ? children : new FileStatus[] { match }));
+		}
+		FileStatus[] files = matched.toArray(new FileStatus[matched.size()]);
+		Arrays.sort(files);
+		long budget = sampleBytes;
+		int copied = 0;
+		for (FileStatus file : files) {
+			String name = file.getPath().getName();
+			// skipped by FileInputFormat as well
+			if (file.isDir() || name.startsWith("_") || name.startsWith(".")) {
+				continue;
+			}
+			if (budget <= 0 || (maxFiles > 0 && copied >= maxFiles)) {
+				break;
+			}
+			File local = new File(input, name);
+			if (local.exists()) {
+				// same name in another matched directory
+				local = new File(input, copied + "-" + name);
+			}
+			boolean whole = file.getLen() <= budget;
+			long bytes;
+			if (whole) {
+				bytes = copy(fs, file.getPath(), local, file.getLen());
+			}
+			else if (!isBinary(fs, file.getPath())) {
+				bytes = truncate(local, copy(fs, file.getPath(), local, budget));
+			}
+			else if (copied == 0) {
+				// cannot be cut, better too much input than none
+				bytes = copy(fs, file.getPath(), local, file.getLen());
+			}
+			else {
+				break;
+			}
+			// the sample ends with the first file which does not fit
+			budget = (whole ? budget - bytes : 0);
+			copied++;
+			sampledFiles++;
+			sampledBytes += bytes;
+		}
+	}
+
+	private static long copy(FileSystem fs, Path path, File file, long limit) throws IOException {
+		InputStream in = fs.open(path);
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				byte[] buffer = new byte[64 * 1024];
+				long total = 0;
+				int read;
+				while (total < limit && (read = in.read(buffer, 0, (int) Math.min(buffer.length, limit - total))) != -1) {
+					out.write(buffer, 0, read);
+					total += read;
+				}
+				return total;
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Cuts a partial copy of a text file after its last complete line.
+	 */
+	private static long truncate(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long end = length;
+			while (end > 0) {
+				raf.seek(end - 1);
+				if (raf.read() == '\n') {
+					break;
+				}
+				end--;
+			}
+			raf.setLength(end);
+			return end;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static boolean isBinary(FileSystem fs, Path path) throws IOException {
+		for (String suffix : BINARY_SUFFIXES) {
+			if (path.getName().endsWith(suffix)) {
+				return true;
+			}
+		}
+		InputStream in = fs.open(path);
+		try {
+			return isSequenceFile(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static boolean isSequenceFile(InputStream in) throws IOException {
+		byte[] magic = new byte[3];
+		int read = 0;
+		int n;
+		while (read < magic.length && (n = in.read(magic, read, magic.length - read)) != -1) {
+			read += n;
+		}
+		return read == magic.length && magic[0] == 'S' && magic[1] == 'E' && magic[2] == 'Q';
+	}
+}
@@ -16,30 +16,38 @@
 package org.springframework.data.hadoop.impala.mapreduce;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TaskCompletionEvent;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.hadoop.impala.common.BackgroundCommands;
 import org.springframework.data.hadoop.impala.common.ConfigurationAware;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks.Task;
+import org.springframework.data.hadoop.impala.common.util.OutputCapture;
+import org.springframework.data.hadoop.impala.common.util.RecordWriter;
+import org.springframework.data.hadoop.impala.common.util.RecordWriter.Format;
 import org.springframework.data.hadoop.impala.common.util.SecurityUtil;
-import org.springframework.data.hadoop.impala.common.util.SecurityUtil.ExitTrappedException;
 import org.springframework.shell.core.ExecutionProcessor;
 import org.springframework.shell.core.annotation.CliCommand;
 import org.springframework.shell.core.annotation.CliOption;
@@ -58,11 +66,22 @@ public class MapReduceCommands extends ConfigurationAware implements ExecutionPr
 
 	private JobClient jobClient;
 
+	private JarCache jarCache;
+
+	private JarRunner jarRunner;
+
+	private JarStager jarStager;
+
+	private BackgroundTasks backgroundTasks;
+
 	private static final String PREFIX = "mr job ";
 
 	@Autowired
 	private SecurityUtil securityUtil;
 
+	@Autowired(required = false)
+	private BackgroundCommands backgroundCommands;
+
 	@Override
 	public ParseResult beforeInvocation(ParseResult invocationContext) {
 		invocationContext = super.beforeInvocation(invocationContext);
@@ -92,6 +111,13 @@ public class MapReduceCommands extends ConfigurationAware implements ExecutionPr
 		}
 	}
 
+	@PreDestroy
+	public synchronized void destroy() {
+		if (backgroundTasks != null) {
+			backgroundTasks.shutdown();
+		}
+	}
+
 	@Override
 	protected String failedComponentName() {
 		return "Map/Reduce";
@@ -103,31 +129,119 @@ public class MapReduceCommands extends ConfigurationAware implements ExecutionPr
 			LOG.info("Hadoop configuration changed, re-initializing MR...");
 		}
 		init();
+		synchronized (this) {
+			jarStager = null;
+		}
 		return true;
 	}
 	
 
 	@CliCommand(value = PREFIX + "submit", help = "Submit a Map Reduce job defined in the job file")
 	public void submit(@CliOption(key = { "jobfile" }, mandatory = true, help = "the configuration file for MR job") final String jobFile) {
+		try {
+			JarStager stager = jarStager();
+			if (stager != null) {
+				RunningJob job = jobClient.submitJob(stager.stageJob(new JobConf(new Path(jobFile))));
+				System.out.println("Created job " + job.getID());
+				return;
+			}
+		} catch (Throwable t) {
+			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-submit");
 		argv.add(jobFile);
 		run(argv.toArray(new String[0]));
 	}
 
+	@CliCommand(value = PREFIX + "batch-submit", help = "Submit the Map Reduce jobs defined in a directory of job files or in a manifest, honoring their dependencies")
+	public void batchSubmit(
+			@CliOption(key = { "from" }, mandatory = true, help = "directory of job files, or manifest listing one job file per line followed by the names of the jobs it depends on") final String from,
+			@CliOption(key = { "parallel" }, mandatory = false, unspecifiedDefaultValue = "10", help = "maximum number of jobs running at the same time") final int parallel) {
+		JobBatch batch;
+		try {
+			batch = JobBatch.load(new File(from));
+		} catch (IOException ex) {
+			LOG.severe("run MR job failed. Failed Message:" + ex.getMessage());
+			return;
+		}
+		try {
+			batch.run(getHadoopConfiguration(), parallel, System.out);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		RecordWriter writer = new RecordWriter(Format.of(getHadoopConfiguration()), System.out, "job", "jobId",
+				"state", "elapsedMillis", "message");
+		for (JobBatch.Job job : batch.getJobs()) {
+			writer.write(job.getName(), job.getJobId(), job.getOutcome().name(), job.getElapsedMillis(),
+					job.getMessage());
+		}
+	}
+
 	@CliCommand(value = PREFIX + "status", help = "Query Map Reduce job status.")
 	public void status(@CliOption(key = { "jobid" }, mandatory = true, help = "the job Id") final String jobid) {
+		RecordWriter writer = recordWriter("jobId", "name", "state", "mapProgress", "reduceProgress", "setupProgress",
+				"cleanupProgress", "trackingUrl", "jobFile");
+		if (writer != null) {
+			try {
+				RunningJob job = getJob(jobid);
+				writer.write(job.getID(), job.getJobName(), JobStatus.getJobRunState(job.getJobState()),
+						job.mapProgress(), job.reduceProgress(), job.setupProgress(), job.cleanupProgress(),
+						job.getTrackingURL(), job.getJobFile());
+			} catch (Throwable t) {
+				LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+			}
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-status");
 		argv.add(jobid);
 		run(argv.toArray(new String[0]));
 	}
 
+	@CliCommand(value = PREFIX + "watch", help = "Follow the progress, task completion events and counters of a job until it completes")
+	public void watch(
+			@CliOption(key = { "jobid" }, mandatory = true, help = "the job Id") final String jobid,
+			@CliOption(key = { "counters" }, mandatory = false, help = "comma separated counters to follow, as group:counter") final String counters,
+			@CliOption(key = { "interval" }, mandatory = false, unspecifiedDefaultValue = "1", help = "polling interval in seconds while the job changes") final int interval,
+			@CliOption(key = { "maxInterval" }, mandatory = false, unspecifiedDefaultValue = "30", help = "maximum polling interval in seconds while it does not") final int maxInterval) {
+		List<String> counterNames = new ArrayList<String>();
+		if (counters != null) {
+			for (String name : counters.split(",")) {
+				if (name.trim().length() > 0) {
+					counterNames.add(name.trim());
+				}
+			}
+		}
+		try {
+			new JobWatcher(getJob(jobid), counterNames, interval * 1000L, maxInterval * 1000L, System.out).watch();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable t) {
+			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+		}
+	}
+
 	@CliCommand(value = PREFIX + "counter", help = "Print the counter value of the MR job")
 	public void counter(
 			@CliOption(key = { "jobid" }, mandatory = true, help = "the job Id") final String jobid, 
 			@CliOption(key = { "groupname" }, mandatory = true, help = "the job Id") final String groupName,
 			@CliOption(key = { "countername" }, mandatory = true, help = "the job Id") final String counterName) {
+		RecordWriter writer = recordWriter("jobId", "group", "counter", "value");
+		if (writer != null) {
+			try {
+				Counters counters = getJob(jobid).getCounters();
+				if (counters == null) {
+					LOG.severe("Counters not available for job " + jobid);
+					return;
+				}
+				writer.write(jobid, groupName, counterName, counters.getGroup(groupName).getCounter(counterName));
+			} catch (Throwable t) {
+				LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+			}
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-counter");
 		argv.add(jobid);
@@ -136,6 +250,92 @@ public class MapReduceCommands extends ConfigurationAware implements ExecutionPr
 		run(argv.toArray(new String[0]));
 	}
 
+	@CliCommand(value = PREFIX + "aggregate counters", help = "Print the sum, minimum, maximum and percentiles of every counter across several MR jobs")
+	public void aggregateCounters(
+			@CliOption(key = { "jobids" }, mandatory = true, help = "comma separated job Ids") final String jobids,
+			@CliOption(key = { "group" }, mandatory = false, help = "counter group name, all the groups if not specified") final String group,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "10", help = "number of jobs fetched at the same time") final int threads) {
+		try {
+			Map<String, Counters> counters = CounterStats.fetch(jobClient, Arrays.asList(jobids.trim().split("\\s*,\\s*")),
+					threads);
+			CounterStats stats = new CounterStats(counters.values(), group);
+			RecordWriter writer = new RecordWriter(Format.of(getHadoopConfiguration()), System.out, "counter", "jobs",
+					"sum", "min", "p50", "p95", "max");
+			for (String name : stats.getNames()) {
+				writer.write(name, stats.count(name), stats.sum(name), stats.min(name), stats.percentile(name, 50),
+						stats.percentile(name, 95), stats.max(name));
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable t) {
+			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+		}
+	}
+
+	@CliCommand(value = PREFIX + "diff counters", help = "Compare the counters of a MR job with those of a reference run")
+	public void diffCounters(
+			@CliOption(key = { "base" }, mandatory = true, help = "the reference job Id") final String base,
+			@CliOption(key = { "jobid" }, mandatory = true, help = "the compared job Id") final String jobid,
+			@CliOption(key = { "group" }, mandatory = false, help = "counter group name, all the groups if not specified") final String group,
+			@CliOption(key = { "threshold" }, mandatory = false, unspecifiedDefaultValue = "0", help = "minimum change in percent for a counter to be printed") final double threshold) {
+		try {
+			Map<String, Counters> counters = CounterStats.fetch(jobClient, Arrays.asList(base, jobid), 2);
+			RecordWriter writer = new RecordWriter(Format.of(getHadoopConfiguration()), System.out, "counter", "base",
+					"value", "change", "changePercent");
+			for (Map.Entry<String, long[]> counter : CounterStats.diff(counters.get(base), counters.get(jobid), group)
+					.entrySet()) {
+				long before = counter.getValue()[0], after = counter.getValue()[1];
+				if (before == after) {
+					continue;
+				}
+				Double percent = (before != 0 ? Math.round((after - before) * 1000.0 / before) / 10.0 : null);
+				if (percent != null && Math.abs(percent) < threshold) {
+					continue;
+				}
+				writer.write(counter.getKey(), before, after, after - before, percent);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable t) {
+			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+		}
+	}
+
+	@CliCommand(value = PREFIX + "analyze", help = "Print the task duration and input size distributions of a MR job, and its stragglers and skewed tasks")
+	public void analyze(
+			@CliOption(key = { "jobid" }, mandatory = true, help = "the job Id") final String jobid,
+			@CliOption(key = { "factor" }, mandatory = false, unspecifiedDefaultValue = "2", help = "ratio to the median task above which a task is flagged") final double factor,
+			@CliOption(key = { "minDuration" }, mandatory = false, unspecifiedDefaultValue = "60", help = "minimum duration in seconds of a straggler") final int minDuration) {
+		try {
+			TaskAnalysis analysis = TaskAnalysis.fetch(jobClient, JobID.forName(jobid));
+			Format format = Format.of(getHadoopConfiguration());
+			RecordWriter writer = new RecordWriter(format, System.out, "type", "tasks", "durationP50", "durationP95",
+					"durationMax", "bytesP50", "bytesP95", "bytesMax");
+			for (TaskAnalysis.Distribution distribution : analysis.getDistributions()) {
+				writer.write(distribution.getType(), distribution.getTasks(), distribution.duration(50),
+						distribution.duration(95), distribution.duration(100), distribution.bytes(50),
+						distribution.bytes(95), distribution.bytes(100));
+			}
+			List<TaskAnalysis.Flagged> flagged = analysis.flag(factor, minDuration * 1000L);
+			if (flagged.isEmpty()) {
+				return;
+			}
+			if (format == Format.TEXT) {
+				System.out.println();
+			}
+			writer = new RecordWriter(format, System.out, "taskId", "type", "reason", "ratio", "durationMillis",
+					"inputBytes", "running");
+			for (TaskAnalysis.Flagged task : flagged) {
+				writer.write(task.getTaskId(), task.getType(), task.getReason(), Math.round(task.getRatio() * 10) / 10.0,
+						task.getDurationMillis(), task.getInputBytes(), task.isRunning());
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable t) {
+			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+		}
+	}
+
 	@CliCommand(value = PREFIX + "kill", help = "Kill the Map Reduce job")
 	public void kill(@CliOption(key = { "jobid" }, mandatory = true, help = "the job Id") final String jobid) {
 		List<String> argv = new ArrayList<String>();
@@ -149,6 +349,30 @@ public class MapReduceCommands extends ConfigurationAware implements ExecutionPr
 			@CliOption(key = { "jobid" }, mandatory = true, help = "the job Id") final String jobid, 
 			@CliOption(key = { "from" }, mandatory = true, help = "from event number") final String from, 
 			@CliOption(key = { "number" }, mandatory = true, help = "total number of events") final String number) {
+		RecordWriter writer = recordWriter("eventId", "taskAttemptId", "type", "status", "runTime", "trackerHttp");
+		if (writer != null) {
+			try {
+				RunningJob job = getJob(jobid);
+				int next = Integer.parseInt(from);
+				int remaining = Integer.parseInt(number);
+				// the job tracker returns events in batches - stream each batch as it arrives
+				while (remaining > 0) {
+					TaskCompletionEvent[] events = job.getTaskCompletionEvents(next);
+					if (events.length == 0) {
+						break;
+					}
+					for (int i = 0; i < events.length && remaining > 0; i++, remaining--) {
+						TaskCompletionEvent event = events[i];
+						writer.write(event.getEventId(), event.getTaskAttemptId(), (event.isMapTask() ? "map" : "reduce"),
+								event.getTaskStatus(), event.getTaskRunTime(), event.getTaskTrackerHttp());
+					}
+					next += events.length;
+				}
+			} catch (Throwable t) {
+				LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+			}
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-events");
 		argv.add(jobid);
@@ -157,6 +381,100 @@ public class MapReduceCommands extends ConfigurationAware implements ExecutionPr
 		run(argv.toArray(new String[0]));
 	}
 
+	@CliCommand(value = PREFIX + "logs", help = "Download the logs of the failed or selected task attempts of a MR job, then tail or search them")
+	public void logs(
+			@CliOption(key = { "jobid" }, mandatory = true, help = "the job Id") final String jobid,
+			@CliOption(key = { "attempts" }, mandatory = false, help = "comma separated task attempt Ids, the failed attempts if not specified") final String attempts,
+			@CliOption(key = { "log" }, mandatory = false, unspecifiedDefaultValue = "stdout,stderr,syslog", help = "comma separated logs to download: stdout, stderr or syslog") final String log,
+			@CliOption(key = { "dir" }, mandatory = false, help = "local directory the logs are downloaded to") final String dir,
+			@CliOption(key = { "tail" }, mandatory = false, unspecifiedDefaultValue = "0", help = "number of last lines of each log to print") final int tail,
+			@CliOption(key = { "grep" }, mandatory = false, help = "regular expression of the log lines to print") final String grep,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "8", help = "number of logs downloaded at the same time") final int threads) {
+		try {
+			Pattern pattern = (grep != null ? Pattern.compile(grep) : null);
+			Set<String> selected = new HashSet<String>();
+			if (attempts != null) {
+				selected.addAll(Arrays.asList(attempts.trim().split("\\s*,\\s*")));
+			}
+			RunningJob job = getJob(jobid);
+			List<TaskCompletionEvent> events = new ArrayList<TaskCompletionEvent>();
+			TaskCompletionEvent[] batch;
+			int from = 0;
+			// the job tracker returns events in batches
+			while ((batch = job.getTaskCompletionEvents(from)).length > 0) {
+				from += batch.length;
+				for (TaskCompletionEvent event : batch) {
+					TaskCompletionEvent.Status status = event.getTaskStatus();
+					if (attempts != null ? selected.contains(event.getTaskAttemptId().toString())
+							: status == TaskCompletionEvent.Status.FAILED || status == TaskCompletionEvent.Status.TIPFAILED) {
+						events.add(event);
+					}
+				}
+			}
+			if (events.isEmpty()) {
+				LOG.info("No " + (attempts != null ? "matching" : "failed") + " task attempts for job " + jobid);
+				return;
+			}
+			File target = (dir != null ? new File(dir) : new File(System.getProperty("java.io.tmpdir"),
+					"impala-task-logs" + File.separator + jobid));
+			List<TaskLogFetcher.Log> logs = new TaskLogFetcher(target, threads, 30000).fetch(events, log.trim().split(
+					"\\s*,\\s*"));
+			RecordWriter writer = (tail == 0 && pattern == null ? new RecordWriter(Format.of(getHadoopConfiguration()),
+					System.out, "attemptId", "log", "bytes", "file", "failure") : null);
+			for (TaskLogFetcher.Log downloaded : logs) {
+				if (writer != null) {
+					writer.write(downloaded.getAttemptId(), downloaded.getName(), downloaded.getBytes(),
+							downloaded.getFile(), downloaded.getFailure());
+				}
+				else if (downloaded.getFailure() != null) {
+					LOG.severe("Cannot download " + downloaded.getName() + " of " + downloaded.getAttemptId() + ": "
+							+ downloaded.getFailure());
+				}
+				else if (pattern != null) {
+					for (String line : TaskLogFetcher.grep(downloaded, pattern)) {
+						System.out.println(downloaded.getAttemptId() + "/" + downloaded.getName() + ": " + line);
+					}
+				}
+				else {
+					System.out.println("==> " + downloaded.getAttemptId() + "/" + downloaded.getName() + " <==");
+					for (String line : TaskLogFetcher.tail(downloaded, tail)) {
+						System.out.println(line);
+					}
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable t) {
+			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+		}
+	}
+
+	@CliCommand(value = PREFIX + "output", help = "Print the first records of each output part file of a MR job, or a sample of all its records")
+	public void output(
+			@CliOption(key = { "jobid" }, mandatory = true, help = "the job Id") final String jobid,
+			@CliOption(key = { "dir" }, mandatory = false, help = "output directory of the job, required once it is complete as its configuration is then removed") final String dir,
+			@CliOption(key = { "head" }, mandatory = false, unspecifiedDefaultValue = "10", help = "number of records printed from each part file") final int head,
+			@CliOption(key = { "limit" }, mandatory = false, unspecifiedDefaultValue = "0", help = "maximum number of records printed in all, 0 for no limit") final int limit,
+			@CliOption(key = { "sample" }, mandatory = false, unspecifiedDefaultValue = "0", help = "number of records sampled across all the part files instead, which reads them all") final int sample) {
+		try {
+			// the job configuration is removed with the staging directory once the job is complete
+			Path outputDir = (dir != null ? new Path(dir) : OutputPreview.outputDir(getJob(jobid),
+					getHadoopConfiguration()));
+			OutputPreview preview = new OutputPreview(outputDir.getFileSystem(getHadoopConfiguration()), outputDir,
+					getHadoopConfiguration());
+			if (sample <= 0) {
+				preview.head(head, limit, System.out);
+				return;
+			}
+			RecordWriter writer = new RecordWriter(Format.of(getHadoopConfiguration()), System.out, "file", "record");
+			for (String[] record : preview.sample(sample, new Random())) {
+				writer.write(record[0], record[1]);
+			}
+		} catch (Throwable t) {
+			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+		}
+	}
+
 	@CliCommand(value = PREFIX + "history", help = "Print job details, failed and killed job details")
 	public void history(@CliOption(key = { "all" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Whether print all information") final boolean all, 
 			@CliOption(key = { "" }, mandatory = true, help = "job output directory") final String outputDir) {
@@ -171,6 +489,19 @@ public class MapReduceCommands extends ConfigurationAware implements ExecutionPr
 
 	@CliCommand(value = PREFIX + "list", help = "List the Map Reduce jobs")
 	public void list(@CliOption(key = { "all" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Whether list all jobs") final boolean all) {
+		RecordWriter writer = recordWriter("jobId", "state", "startTime", "user", "priority", "schedulingInfo");
+		if (writer != null) {
+			try {
+				JobStatus[] jobs = (all ? jobClient.getAllJobs() : jobClient.jobsToComplete());
+				for (JobStatus job : (jobs != null ? jobs : new JobStatus[0])) {
+					writer.write(job.getJobID(), JobStatus.getJobRunState(job.getRunState()), job.getStartTime(),
+							job.getUsername(), job.getJobPriority(), job.getSchedulingInfo());
+				}
+			} catch (Throwable t) {
+				LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+			}
+			return;
+		}
 		List<String> argv = new ArrayList<String>();
 		argv.add("-list");
 		if (all) {
@@ -221,156 +552,261 @@ public class MapReduceCommands extends ConfigurationAware implements ExecutionPr
 		}
 	}
 
-	@CliCommand(value = "mr jar", help = "Run Map Reduce job in the jar")
-	public void jar(
-			@CliOption(key = { "jarfile" }, mandatory = true, help = "jar file name") final String jarFileName, 
-			@CliOption(key = "mainclass", mandatory = true, help = "main class name") final String mainClassName, 
-			@CliOption(key = "args", mandatory = false, help = "input path") final String args) {
-		securityUtil.forbidSystemExitCall();
+	@CliCommand(value = PREFIX + "bulk kill", help = "Kill all the Map Reduce jobs matching the filters")
+	public void bulkKill(
+			@CliOption(key = { "user" }, mandatory = false, help = "user who submitted the jobs") final String user,
+			@CliOption(key = { "name" }, mandatory = false, help = "job name pattern, * matching any characters") final String name,
+			@CliOption(key = { "state" }, mandatory = false, help = "comma separated job states, PREP and RUNNING if not specified") final String state,
+			@CliOption(key = { "olderThan" }, mandatory = false, help = "minimum time since the job started, such as 30m, 2h or 1d") final String olderThan,
+			@CliOption(key = { "dryRun" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether only list the jobs which would be killed") final boolean dryRun,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "10", help = "number of jobs processed at the same time") final int threads) {
+		if (user == null && name == null && state == null && olderThan == null) {
+			LOG.severe("Specify at least one of --user, --name, --state or --olderThan to select the jobs to kill");
+			return;
+		}
+		JobSelection selection = selection(user, name, (state != null ? state : "PREP,RUNNING"), olderThan);
+		if (selection == null) {
+			return;
+		}
+		bulk(selection, threads, (dryRun ? null : new JobSelection.Action() {
+			public void apply(RunningJob job) throws IOException {
+				job.killJob();
+			}
+		}), (dryRun ? "to kill" : "killed"));
+	}
+
+	@CliCommand(value = PREFIX + "bulk set priority", help = "Change the priority of all the Map Reduce jobs matching the filters")
+	public void bulkSetPriority(
+			@CliOption(key = { "priority" }, mandatory = true, help = "the job priority") final JobPriority priority,
+			@CliOption(key = { "user" }, mandatory = false, help = "user who submitted the jobs") final String user,
+			@CliOption(key = { "name" }, mandatory = false, help = "job name pattern, * matching any characters") final String name,
+			@CliOption(key = { "state" }, mandatory = false, help = "comma separated job states, PREP and RUNNING if not specified") final String state,
+			@CliOption(key = { "olderThan" }, mandatory = false, help = "minimum time since the job started, such as 30m, 2h or 1d") final String olderThan,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "10", help = "number of jobs processed at the same time") final int threads) {
+		JobSelection selection = selection(user, name, (state != null ? state : "PREP,RUNNING"), olderThan);
+		if (selection == null) {
+			return;
+		}
+		bulk(selection, threads, new JobSelection.Action() {
+			public void apply(RunningJob job) throws IOException {
+				job.setJobPriority(priority.getValue());
+			}
+		}, priority.getValue());
+	}
+
+	@CliCommand(value = PREFIX + "bulk status", help = "Query the status of all the Map Reduce jobs matching the filters - their name is only known when filtered by name")
+	public void bulkStatus(
+			@CliOption(key = { "user" }, mandatory = false, help = "user who submitted the jobs") final String user,
+			@CliOption(key = { "name" }, mandatory = false, help = "job name pattern, * matching any characters") final String name,
+			@CliOption(key = { "state" }, mandatory = false, help = "comma separated job states, all if not specified") final String state,
+			@CliOption(key = { "olderThan" }, mandatory = false, help = "minimum time since the job started, such as 30m, 2h or 1d") final String olderThan,
+			@CliOption(key = { "threads" }, mandatory = false, unspecifiedDefaultValue = "10", help = "number of jobs processed at the same time") final int threads) {
+		JobSelection selection = selection(user, name, state, olderThan);
+		if (selection == null) {
+			return;
+		}
+		RecordWriter writer = new RecordWriter(Format.of(getHadoopConfiguration()), System.out, "jobId", "name", "user",
+				"state", "startTime", "mapProgress", "reduceProgress", "priority");
 		try {
-			runJar(jarFileName, mainClassName, args);
-		} catch (ExitTrappedException e) {
-			//LOG.info("The MR job call System.exit. This is prevented.");
+			for (JobSelection.Selected selected : selection.apply(jobClient, threads, null)) {
+				JobStatus job = selected.getStatus();
+				writer.write(job.getJobID(), selected.getName(), job.getUsername(),
+						JobStatus.getJobRunState(job.getRunState()), job.getStartTime(), job.mapProgress(),
+						job.reduceProgress(), job.getJobPriority());
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
 		} catch (Throwable t) {
 			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
-		} finally {
-			securityUtil.enableSystemExitCall();
 		}
 	}
 
-
-	/**
-	 * @param jarFileName
-	 * @param mainClassName
-	 * @param args
-	 * @throws Throwable 
-	 */
-	public void runJar(final String jarFileName, final String mainClassName, final String args) throws Throwable {
+	@CliCommand(value = "mr jar", help = "Run Map Reduce job in the jar")
+	public String jar(
+			@CliOption(key = { "jarfile" }, mandatory = true, help = "jar file name") final String jarFileName, 
+			@CliOption(key = "mainclass", mandatory = true, help = "main class name") final String mainClassName, 
+			@CliOption(key = "args", mandatory = false, help = "input path") final String args,
+			@CliOption(key = "async", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether run the job in the background, managed with jobs, fg, cancel and wait") final boolean async,
+			@CliOption(key = "local", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether run the job in-process on a local sample of its input, printing its output") final boolean local,
+			@CliOption(key = "sample", mandatory = false, unspecifiedDefaultValue = "67108864", help = "maximum number of bytes sampled from each input path in local mode") final long sample,
+			@CliOption(key = "splits", mandatory = false, unspecifiedDefaultValue = "0", help = "maximum number of files sampled from each input path in local mode, 0 for no limit") final int splits,
+			@CliOption(key = "head", mandatory = false, unspecifiedDefaultValue = "10", help = "number of lines printed from each output part file in local mode") final int head,
+			@CliOption(key = "keep", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "whether keep the local input and output of local mode once printed") final boolean keep) {
 		File file = new File(jarFileName);
-		File tmpDir = new File(new Configuration().get("hadoop.tmp.dir"));
-		String os = System.getProperty("os.name").toLowerCase();
-		if (os.contains("win")) {
-			tmpDir = new File(System.getProperty("java.io.tmpdir"), "impala");
+		String[] argv = (args != null ? args.split(" ") : new String[0]);
+		if (local) {
+			runLocal(file, mainClassName, argv, sample, splits, head, keep);
+			return null;
 		}
-		tmpDir.mkdirs();
-		if (!tmpDir.isDirectory()) {
-			LOG.severe("Mkdirs failed to create " + tmpDir);
+		if (async) {
+			String description = "mr jar " + file.getName() + " " + mainClassName + (args != null ? " " + args : "");
+			try {
+				Task task = jarRunner().start(backgroundTasks(), description, file, mainClassName, argv,
+						getHadoopConfiguration(), jarStager());
+				return "[" + task.getId() + "] started";
+			} catch (IOException ex) {
+				LOG.severe("run MR job failed. Failed Message:" + ex.getMessage());
+				return null;
+			}
 		}
-
 		try {
-			final File workDir = File.createTempFile("hadoop-unjar", "", tmpDir);
-			workDir.delete();
-			workDir.mkdirs();
-			if (!workDir.isDirectory()) {
-				LOG.severe("Mkdirs failed to create " + workDir);
-				return;
+			int status = jarRunner().run(file, mainClassName, argv, getHadoopConfiguration(), jarStager());
+			if (status != 0) {
+				LOG.severe("run MR job failed. Exit status:" + status);
 			}
+		} catch (Throwable t) {
+			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+		}
+		return null;
+	}
 
-			Runtime.getRuntime().addShutdownHook(new Thread() {
-				public void run() {
-					try {
-						FileUtil.fullyDelete(workDir);
-					} catch (IOException e) {
-					}
-				}
-			});
-
-			unJar(file, workDir);
-
-			ArrayList<URL> classPath = new ArrayList<URL>();
-
-			//This is to add hadoop configuration dir to classpath so that 
-			//user's configuration can be accessed when running the jar
-			File hadoopConfigurationDir = new File(workDir + Path.SEPARATOR + "impala-hadoop-configuration");
-			writeHadoopConfiguration(hadoopConfigurationDir, this.getHadoopConfiguration());
-			classPath.add(hadoopConfigurationDir.toURL());
-			//classPath.add(new File(System.getenv("HADOOP_CONF_DIR")).toURL());
-
-			classPath.add(new File(workDir + Path.SEPARATOR).toURL());
-			classPath.add(file.toURL());
-			classPath.add(new File(workDir, "classes" + Path.SEPARATOR).toURL());
-			File[] libs = new File(workDir, "lib").listFiles();
-			if (libs != null) {
-				for (int i = 0; i < libs.length; i++) {
-					classPath.add(libs[i].toURL());
-				}
+	private void runLocal(File file, String mainClassName, String[] argv, long sample, int splits, int head,
+			boolean keep) {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "impala-local-run-" + System.currentTimeMillis());
+		LocalJobRun run = new LocalJobRun(getHadoopConfiguration(), dir, sample, splits);
+		try {
+			String[] localArgs = run.prepare(argv);
+			long start = System.currentTimeMillis();
+			int status = jarRunner().run(file, mainClassName, localArgs, run.getLocalConfiguration(), null);
+			run.time("run", start, "exit status " + status);
+			if (status != 0) {
+				LOG.severe("run MR job failed. Exit status:" + status);
 			}
-			ClassLoader loader = new URLClassLoader(classPath.toArray(new URL[0]), this.getClass().getClassLoader());
-			Thread.currentThread().setContextClassLoader(loader);
-			Class<?> mainClass = Class.forName(mainClassName, true, loader);
-			Method main = mainClass.getMethod("main", new Class[] { Array.newInstance(String.class, 0).getClass() });
-			String[] newArgs = args.split(" ");
-			main.invoke(null, new Object[] { newArgs });
-		} catch (Exception e) {
-			if (e instanceof InvocationTargetException) {
-				if (e.getCause() instanceof ExitTrappedException) {
-					throw (ExitTrappedException) e.getCause();
-				}
+			run.printOutputs(System.out, head);
+		} catch (Throwable t) {
+			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+		}
+		RecordWriter writer = new RecordWriter(Format.of(getHadoopConfiguration()), System.out, "phase", "millis");
+		for (Map.Entry<String, Long> timing : run.getTimings().entrySet()) {
+			writer.write(timing.getKey(), timing.getValue());
+		}
+		if (keep) {
+			LOG.info("Local input and output kept in " + dir);
+		}
+		else {
+			try {
+				FileUtil.fullyDelete(dir);
+			} catch (IOException ex) {
+				LOG.warning("Cannot delete " + dir + ": " + ex.getMessage());
 			}
-			else {
-				throw e;
+		}
+	}
+
+	@CliCommand(value = "mr jar-cache stats", help = "Show the content of the cache of unpacked jars and the jars staged on the cluster")
+	public String jarCacheStats() {
+		JarStager stager;
+		synchronized (this) {
+			stager = jarStager;
+		}
+		return jarCache() + (stager != null ? "\n" + stager : "");
+	}
+
+	@CliCommand(value = "mr jar-cache clear", help = "Remove the unpacked jars which are not in use")
+	public String jarCacheClear() {
+		return "Removed " + jarCache().clear() + " jars";
+	}
+
+	/**
+	 * Returns the cache of unpacked jars, created on first use under the Hadoop temporary directory.
+	 */
+	private synchronized JarCache jarCache() {
+		if (jarCache == null) {
+			File tmpDir = new File(new Configuration().get("hadoop.tmp.dir"));
+			String os = System.getProperty("os.name").toLowerCase();
+			if (os.contains("win")) {
+				tmpDir = new File(System.getProperty("java.io.tmpdir"), "impala");
 			}
+			Configuration configuration = getHadoopConfiguration();
+			jarCache = new JarCache(new File(tmpDir, "impala-jar-cache"), configuration.getLong(JarCache.SIZE_KEY,
+					2048) * 1024 * 1024, configuration.getInt(JarCache.ENTRIES_KEY, 16));
 		}
+		return jarCache;
+	}
+
+	private synchronized JarRunner jarRunner() {
+		if (jarRunner == null) {
+			jarRunner = new JarRunner(jarCache(), securityUtil);
+		}
+		return jarRunner;
 	}
 
 	/**
-	 * wirte the Hadoop configuration to one directory, 
-	 * file name is "core-site.xml", "hdfs-site.xml" and "mapred-site.xml".
-	 * 
-	 * @param configDir the directory that the file be written
-	 * @param config Hadoop configuration
-	 * 
+	 * Returns the stager of the job jars on the cluster file system, or <code>null</code> if staging is
+	 * disabled or the jobs run locally.
 	 */
-	public void writeHadoopConfiguration(File configDir, Configuration config) {
-		configDir.mkdirs();
-		try {
-			FileOutputStream fos = new FileOutputStream(new File(configDir + Path.SEPARATOR + "core-site.xml"));
-			config.writeXml(fos);
-			fos = new FileOutputStream(new File(configDir + Path.SEPARATOR + "hdfs-site.xml"));
-			config.writeXml(fos);
-			fos = new FileOutputStream(new File(configDir + Path.SEPARATOR + "mapred-site.xml"));
-			config.writeXml(fos);
-		} catch (Exception e) {
-			LOG.severe("Save user's configuration failed. Message:" + e.getMessage());
+	private synchronized JarStager jarStager() throws IOException {
+		Configuration configuration = getHadoopConfiguration();
+		if (!configuration.getBoolean(JarStager.ENABLED_KEY, true)
+				|| "local".equals(configuration.get("mapred.job.tracker"))) {
+			return null;
 		}
+		if (jarStager == null) {
+			FileSystem fs = FileSystem.get(configuration);
+			String dir = configuration.get(JarStager.DIR_KEY);
+			jarStager = new JarStager(fs, (dir != null ? new Path(dir) : new Path(fs.getHomeDirectory(),
+					".impala/jars")), jarCache());
+		}
+		return jarStager;
+	}
 
+	/**
+	 * Returns the pool of the background commands, or a pool of its own when they are not available.
+	 */
+	private synchronized BackgroundTasks backgroundTasks() {
+		if (backgroundCommands != null) {
+			return backgroundCommands.getTasks();
+		}
+		if (backgroundTasks == null) {
+			OutputCapture.install();
+			backgroundTasks = new BackgroundTasks(getHadoopConfiguration().getInt(BackgroundCommands.THREADS_KEY, 4),
+					OutputCapture.console());
+		}
+		return backgroundTasks;
 	}
 
-	private void unJar(File jarFile, File toDir) throws Throwable {
-		JarFile jar = new JarFile(jarFile);
+	private JobSelection selection(String user, String name, String state, String olderThan) {
 		try {
-			Enumeration entries = jar.entries();
-			while (entries.hasMoreElements()) {
-				JarEntry entry = (JarEntry) entries.nextElement();
-				if (!entry.isDirectory()) {
-					InputStream in = jar.getInputStream(entry);
-					try {
-						File file = new File(toDir, entry.getName());
-						if (!file.getParentFile().mkdirs()) {
-							if (!file.getParentFile().isDirectory()) {
-								throw new IOException("Mkdirs failed to create " + file.getParentFile().toString());
-							}
-						}
-						OutputStream out = new FileOutputStream(file);
-						try {
-							byte[] buffer = new byte[8192];
-							int i;
-							while ((i = in.read(buffer)) != -1) {
-								out.write(buffer, 0, i);
-							}
-						} finally {
-							out.close();
-						}
-					} finally {
-						in.close();
-					}
-				}
+			return new JobSelection(user, name, state, olderThan);
+		} catch (IllegalArgumentException ex) {
+			LOG.severe(ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Applies an action to the selected jobs and writes one record per job.
+	 */
+	private void bulk(JobSelection selection, int threads, JobSelection.Action action, String result) {
+		RecordWriter writer = new RecordWriter(Format.of(getHadoopConfiguration()), System.out, "jobId", "name", "user",
+				"state", "result");
+		try {
+			for (JobSelection.Selected selected : selection.apply(jobClient, threads, action)) {
+				JobStatus job = selected.getStatus();
+				writer.write(job.getJobID(), selected.getName(), job.getUsername(),
+						JobStatus.getJobRunState(job.getRunState()),
+						(selected.getFailure() != null ? "failed: " + selected.getFailure() : result));
 			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
 		} catch (Throwable t) {
-			throw t;
-		} finally {
-			jar.close();
+			LOG.severe("run MR job failed. Failed Message:" + t.getMessage());
+		}
+	}
+
+	/**
+	 * Returns a writer for the records of the current command, or <code>null</code> if the output format is text.
+	 */
+	private RecordWriter recordWriter(String... fields) {
+		Format format = Format.of(getHadoopConfiguration());
+		return (format == Format.TEXT ? null : new RecordWriter(format, System.out, fields));
+	}
+
+	private RunningJob getJob(String jobid) throws IOException {
+		RunningJob job = jobClient.getJob(JobID.forName(jobid));
+		if (job == null) {
+			throw new IOException("Could not find job " + jobid);
 		}
+		return job;
 	}
 
 	private void run(String[] argv) {
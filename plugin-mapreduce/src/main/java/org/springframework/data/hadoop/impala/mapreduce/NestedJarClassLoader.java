@@ -0,0 +1,295 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Class loader reading a job jar in place, following the <code>hadoop jar</code> layout: the jar root,
+ * then its <code>classes/</code> directory, then the jars of its <code>lib/</code> directory. Classes and
+ * resources are read straight from the job jar; only the nested <code>lib/*.jar</code> files, which
+ * cannot be read without being inflated, are copied out - one at a time, the first time a lookup misses
+ * everything already on the class path. The copies are kept on a class path of their own, searched last,
+ * so that a class of a nested jar never shadows one of <code>classes/</code>.
+ * <p/>
+ * Resources of the jar root and <code>classes/</code> are exposed as <code>jar:</code> URLs of the job
+ * jar, so Hadoop still finds it as the job jar through <code>JobConf#setJarByClass</code>.
+ *
+ * @author Jarred Li
+ */
+public class NestedJarClassLoader extends URLClassLoader implements Closeable {
+
+	private static final String CLASSES = "classes/";
+
+	private static final String LIB = "lib/";
+
+	private final JarFile jar;
+
+	private final URL jarUrl;
+
+	private final CodeSource codeSource;
+
+	private final File libDir;
+
+	// nested jars copied out so far, only searched - the classes are defined by this loader
+	private final LibPath libs = new LibPath();
+
+	// nested jars not copied out yet, in jar order
+	private final LinkedList<JarEntry> pendingLibs = new LinkedList<JarEntry>();
+
+	/**
+	 * Creates a new class loader.
+	 *
+	 * @param jarFile job jar
+	 * @param libDir directory the nested jars are copied to, possibly holding copies made by a previous loader
+	 * @param resourceDirs directories searched before the job jar
+	 * @param parent parent class loader
+	 * @throws IOException if the job jar cannot be opened
+	 */
+	public NestedJarClassLoader(File jarFile, File libDir, File[] resourceDirs, ClassLoader parent) throws IOException {
+		super(classPath(resourceDirs, jarFile), parent);
+		this.jar = new JarFile(jarFile);
+		this.jarUrl = jarFile.toURI().toURL();
+		this.codeSource = new CodeSource(jarUrl, (Certificate[]) null);
+		this.libDir = libDir;
+		List<JarEntry> libs = new ArrayList<JarEntry>();
+		// reads the central directory only
+		for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+			JarEntry entry = entries.nextElement();
+			String name = entry.getName();
+			if (name.startsWith(LIB) && name.endsWith(".jar") && name.indexOf('/', LIB.length()) < 0) {
+				libs.add(entry);
+			}
+		}
+		pendingLibs.addAll(libs);
+	}
+
+	private static URL[] classPath(File[] resourceDirs, File jarFile) throws MalformedURLException {
+		List<URL> urls = new ArrayList<URL>();
+		for (File dir : resourceDirs) {
+			urls.add(dir.toURI().toURL());
+		}
+		urls.add(jarFile.toURI().toURL());
+		return urls.toArray(new URL[urls.size()]);
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		try {
+			return super.findClass(name);
+		} catch (ClassNotFoundException ex) {
+			// not in the jar root
+		}
+		String path = name.replace('.', '/') + ".class";
+		JarEntry entry = jar.getJarEntry(CLASSES + path);
+		if (entry != null) {
+			try {
+				return define(name, read(jar.getInputStream(entry), (int) entry.getSize()), codeSource);
+			} catch (IOException ex) {
+				throw new ClassNotFoundException(name, ex);
+			}
+		}
+		do {
+			URL url = libs.findResource(path);
+			if (url != null) {
+				return define(name, url);
+			}
+		} while (nextLib());
+		throw new ClassNotFoundException(name);
+	}
+
+	@Override
+	public URL findResource(String name) {
+		URL url = super.findResource(name);
+		if (url != null) {
+			return url;
+		}
+		if (jar.getJarEntry(CLASSES + name) != null) {
+			return classesUrl(name);
+		}
+		do {
+			url = libs.findResource(name);
+			if (url != null) {
+				return url;
+			}
+		} while (nextLib());
+		return null;
+	}
+
+	@Override
+	public Enumeration<URL> findResources(String name) throws IOException {
+		while (nextLib()) {
+			// every nested jar is needed to enumerate all the resources
+		}
+		List<URL> urls = new ArrayList<URL>(Collections.list(super.findResources(name)));
+		if (jar.getJarEntry(CLASSES + name) != null) {
+			urls.add(classesUrl(name));
+		}
+		urls.addAll(Collections.list(libs.findResources(name)));
+		return Collections.enumeration(urls);
+	}
+
+	/**
+	 * Closes the job jar. The nested jars copied out are kept for the next loader.
+	 */
+	public void close() throws IOException {
+		jar.close();
+	}
+
+	private URL classesUrl(String name) {
+		try {
+			return new URL("jar:" + jarUrl + "!/" + CLASSES + name);
+		} catch (MalformedURLException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Defines a class of a nested jar, found at the given <code>jar:</code> URL.
+	 */
+	private Class<?> define(String name, URL url) throws ClassNotFoundException {
+		try {
+			String file = url.getFile();
+			URL libUrl = new URL(file.substring(0, file.indexOf("!/")));
+			return define(name, read(url.openStream(), -1), new CodeSource(libUrl, (Certificate[]) null));
+		} catch (IOException ex) {
+			throw new ClassNotFoundException(name, ex);
+		}
+	}
+
+	private Class<?> define(String name, byte[] bytes, CodeSource source) {
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			String packageName = name.substring(0, dot);
+			if (getPackage(packageName) == null) {
+				try {
+					definePackage(packageName, null, null, null, null, null, null, null);
+				} catch (IllegalArgumentException ex) {
+					// defined concurrently
+				}
+			}
+		}
+		return defineClass(name, bytes, 0, bytes.length, source);
+	}
+
+	/**
+	 * Reads a whole stream, and closes it.
+	 *
+	 * @param in stream to read
+	 * @param size size of the content, -1 if unknown
+	 */
+	private static byte[] read(InputStream in, int size) throws IOException {
+		try {
+			byte[] bytes = new byte[size >= 0 ? size : 8192];
+			int total = 0;
+			int read;
+			while ((read = in.read(bytes, total, bytes.length - total)) > 0) {
+				total += read;
+				if (total == bytes.length && size < 0) {
+					byte[] grown = new byte[bytes.length * 2];
+					System.arraycopy(bytes, 0, grown, 0, total);
+					bytes = grown;
+				}
+			}
+			if (total == bytes.length) {
+				return bytes;
+			}
+			byte[] exact = new byte[total];
+			System.arraycopy(bytes, 0, exact, 0, total);
+			return exact;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Puts the next nested jar on the class path, copying it out unless a previous loader already did.
+	 *
+	 * @return false if there was no nested jar left
+	 */
+	private synchronized boolean nextLib() {
+		while (!pendingLibs.isEmpty()) {
+			JarEntry entry = pendingLibs.removeFirst();
+			File target = new File(libDir, entry.getName().substring(LIB.length()));
+			try {
+				if (target.length() != entry.getSize()) {
+					copyOut(entry, target);
+				}
+				libs.add(target.toURI().toURL());
+				return true;
+			} catch (IOException ex) {
+				// skip the nested jar, as an unreadable class path entry would be
+			}
+		}
+		return false;
+	}
+
+	private void copyOut(JarEntry entry, File target) throws IOException {
+		libDir.mkdirs();
+		File tmp = new File(libDir, target.getName() + ".tmp" + System.nanoTime());
+		InputStream in = jar.getInputStream(entry);
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				byte[] buffer = new byte[64 * 1024];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		target.delete();
+		if (!tmp.renameTo(target)) {
+			tmp.delete();
+			throw new IOException("Cannot rename " + tmp + " to " + target);
+		}
+	}
+
+	/**
+	 * Class path of the nested jars, searching nothing else.
+	 */
+	private static class LibPath extends URLClassLoader {
+
+		LibPath() {
+			super(new URL[0], null);
+		}
+
+		void add(URL url) {
+			addURL(url);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Preview of the output of a job: the records of its <code>part-*</code> files, text - possibly
+ * compressed - or SequenceFile, printed as <code>key&lt;TAB&gt;value</code>.
+ * <p/>
+ * The part files are opened one at a time, only when the previous one is done with: printing the first
+ * records stops reading, and opening files, as soon as the limit is reached. A sample across all the
+ * files has to read them all, but only keeps the sampled records in memory.
+ *
+ * @author Jarred Li
+ */
+public class OutputPreview {
+
+	private final FileSystem fs;
+
+	private final Configuration configuration;
+
+	private final List<Path> parts = new ArrayList<Path>();
+
+	/**
+	 * Creates the preview of an output directory.
+	 *
+	 * @param fs file system of the output
+	 * @param dir output directory
+	 * @param configuration configuration providing the compression codecs and the SequenceFile classes
+	 * @throws IOException if the directory cannot be listed
+	 */
+	public OutputPreview(FileSystem fs, Path dir, Configuration configuration) throws IOException {
+		this.fs = fs;
+		this.configuration = configuration;
+		FileStatus[] files = fs.listStatus(dir);
+		if (files == null) {
+			throw new IOException("Cannot find output directory " + dir);
+		}
+		Arrays.sort(files);
+		for (FileStatus file : files) {
+			if (!file.isDir() && file.getPath().getName().startsWith("part-")) {
+				parts.add(file.getPath());
+			}
+		}
+	}
+
+	/**
+	 * Returns the output directory of a job, read from its configuration file. That file lives in the
+	 * staging directory of the job, which Hadoop removes once the job is complete: the output directory of
+	 * a finished job has to be given instead.
+	 *
+	 * @param job the job
+	 * @param configuration configuration of the cluster
+	 * @return the output directory
+	 * @throws IOException if the job has no output directory or its configuration cannot be read
+	 */
+	public static Path outputDir(RunningJob job, Configuration configuration) throws IOException {
+		Path jobFile = new Path(job.getJobFile());
+		Configuration jobConfiguration = new Configuration(false);
+		InputStream in;
+		try {
+			in = jobFile.getFileSystem(configuration).open(jobFile);
+		} catch (FileNotFoundException ex) {
+			throw new IOException("The configuration of job " + job.getID()
+					+ " is no longer available once it is complete, please give its output directory with --dir");
+		}
+		try {
+			jobConfiguration.addResource(in);
+			// the resource is only parsed when a property is read
+			String outputDir = jobConfiguration.get("mapred.output.dir");
+			if (outputDir == null) {
+				throw new IOException("Job " + job.getID() + " has no output directory");
+			}
+			return new Path(outputDir);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the part files, sorted.
+	 */
+	public List<Path> getParts() {
+		return parts;
+	}
+
+	/**
+	 * Prints the first records of each part file, each file after a <code>==&gt; file &lt;==</code> header.
+	 *
+	 * @param perFile maximum number of records per part file
+	 * @param limit maximum number of records in all, 0 for no limit
+	 * @param out stream the records are printed to
+	 * @return the number of records printed
+	 * @throws IOException if a part file cannot be read
+	 */
+	public int head(int perFile, int limit, PrintStream out) throws IOException {
+		int printed = 0;
+		for (Path part : parts) {
+			if (limit > 0 && printed >= limit) {
+				break;
+			}
+			out.println("==> " + part + " <==");
+			Records records = open(part);
+			try {
+				String record;
+				int i = 0;
+				while (i < perFile && (limit <= 0 || printed < limit) && (record = records.next()) != null) {
+					out.println(record);
+					i++;
+					printed++;
+				}
+			} finally {
+				records.close();
+			}
+		}
+		return printed;
+	}
+
+	/**
+	 * Returns a uniform sample of the records of all the part files (reservoir sampling).
+	 *
+	 * @param size number of records sampled
+	 * @param random source of randomness
+	 * @return the sampled records, each as its part file name and the record
+	 * @throws IOException if a part file cannot be read
+	 */
+	public List<String[]> sample(int size, Random random) throws IOException {
+		List<String[]> reservoir = new ArrayList<String[]>(size);
+		long seen = 0;
+		for (Path part : parts) {
+			Records records = open(part);
+			try {
+				String record;
+				while ((record = records.next()) != null) {
+					seen++;
+					if (reservoir.size() < size) {
+						reservoir.add(new String[] { part.getName(), record });
+					}
+					else {
+						long slot = (long) (random.nextDouble() * seen);
+						if (slot < size) {
+							reservoir.set((int) slot, new String[] { part.getName(), record });
+						}
+					}
+				}
+			} finally {
+				records.close();
+			}
+		}
+		return reservoir;
+	}
+
+	private Records open(Path part) throws IOException {
+		FSDataInputStream in = fs.open(part);
+		byte[] magic = new byte[3];
+		boolean sequenceFile;
+		try {
+			in.readFully(magic);
+			sequenceFile = (magic[0] == 'S' && magic[1] == 'E' && magic[2] == 'Q');
+			in.seek(0);
+		} catch (IOException ex) {
+			// shorter than the magic, so text
+			sequenceFile = false;
+			in.seek(0);
+		}
+		if (sequenceFile) {
+			in.close();
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, configuration);
+			try {
+				return new SequenceFileRecords(reader, configuration);
+			} catch (RuntimeException ex) {
+				// key or value class not on the class path
+				reader.close();
+				throw new IOException("Cannot read " + part + ": " + ex.getMessage());
+			}
+		}
+		CompressionCodec codec = new CompressionCodecFactory(configuration).getCodec(part);
+		try {
+			InputStream text = (codec != null ? codec.createInputStream(in) : in);
+			return new TextRecords(new BufferedReader(new InputStreamReader(text, "UTF-8")));
+		} catch (IOException ex) {
+			in.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Records of a part file, read on demand.
+	 */
+	private interface Records {
+
+		/**
+		 * Returns the next record, <code>null</code> at the end of the file.
+		 */
+		String next() throws IOException;
+
+		void close() throws IOException;
+	}
+
+	private static class TextRecords implements Records {
+
+		private final BufferedReader reader;
+
+		TextRecords(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		public String next() throws IOException {
+			return reader.readLine();
+		}
+
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	private static class SequenceFileRecords implements Records {
+
+		private final SequenceFile.Reader reader;
+
+		private final Writable key;
+
+		private final Writable value;
+
+		SequenceFileRecords(SequenceFile.Reader reader, Configuration configuration) {
+			this.reader = reader;
+			this.key = (Writable) ReflectionUtils.newInstance(reader.getKeyClass(), configuration);
+			this.value = (Writable) ReflectionUtils.newInstance(reader.getValueClass(), configuration);
+		}
+
+		public String next() throws IOException {
+			return (reader.next(key, value) ? key + "\t" + value : null);
+		}
+
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
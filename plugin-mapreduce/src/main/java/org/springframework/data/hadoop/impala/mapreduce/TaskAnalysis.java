@@ -0,0 +1,292 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.TaskReport;
+
+/**
+ * Distribution of the duration and input size of the tasks of a job, and the tasks standing out of it:
+ * stragglers, which run much longer than the median task, and skewed tasks, which read much more than
+ * the median task - for reduce tasks, the sign of skewed keys.
+ * <p/>
+ * The task reports, which carry the counters of each task, are fetched once for the map tasks and once
+ * for the reduce tasks, both at the same time. Tasks still running are measured up to now, so running
+ * stragglers are found as well; tasks not started yet are ignored.
+ *
+ * @author Jarred Li
+ */
+public class TaskAnalysis {
+
+	private static final String TASK_COUNTERS = "org.apache.hadoop.mapred.Task$Counter";
+
+	// map input size, by order of preference: old API, new API, then whatever was read from HDFS
+	private static final String[][] MAP_INPUT_BYTES = { { TASK_COUNTERS, "MAP_INPUT_BYTES" },
+			{ "org.apache.hadoop.mapreduce.lib.input.FileInputFormat$Counter", "BYTES_READ" },
+			{ "FileSystemCounters", "HDFS_BYTES_READ" } };
+
+	private static final String[][] REDUCE_INPUT_BYTES = { { TASK_COUNTERS, "REDUCE_SHUFFLE_BYTES" } };
+
+	// map tasks, then reduce tasks
+	private final List<List<Task>> kinds = new ArrayList<List<Task>>();
+
+	/**
+	 * Creates the analysis of the given task reports.
+	 *
+	 * @param mapReports reports of the map tasks
+	 * @param reduceReports reports of the reduce tasks
+	 * @param now current time, for the tasks still running
+	 */
+	public TaskAnalysis(TaskReport[] mapReports, TaskReport[] reduceReports, long now) {
+		kinds.add(tasks("map", mapReports, MAP_INPUT_BYTES, now));
+		kinds.add(tasks("reduce", reduceReports, REDUCE_INPUT_BYTES, now));
+	}
+
+	/**
+	 * Fetches the task reports of a job and analyzes them.
+	 *
+	 * @param client client of the job tracker
+	 * @param jobId job id
+	 * @return the analysis
+	 * @throws IOException if the reports cannot be fetched
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the reports
+	 */
+	public static TaskAnalysis fetch(final JobClient client, final JobID jobId) throws IOException,
+			InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<TaskReport[]> maps = executor.submit(new Callable<TaskReport[]>() {
+				public TaskReport[] call() throws IOException {
+					return client.getMapTaskReports(jobId);
+				}
+			});
+			Future<TaskReport[]> reduces = executor.submit(new Callable<TaskReport[]>() {
+				public TaskReport[] call() throws IOException {
+					return client.getReduceTaskReports(jobId);
+				}
+			});
+			return new TaskAnalysis(get(maps), get(reduces), System.currentTimeMillis());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static TaskReport[] get(Future<TaskReport[]> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			throw (cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage()));
+		}
+	}
+
+	/**
+	 * Returns the distribution of the map tasks and of the reduce tasks, skipping a kind of task without
+	 * any task started.
+	 */
+	public List<Distribution> getDistributions() {
+		List<Distribution> distributions = new ArrayList<Distribution>();
+		for (List<Task> tasks : kinds) {
+			if (!tasks.isEmpty()) {
+				distributions.add(new Distribution(tasks));
+			}
+		}
+		return distributions;
+	}
+
+	/**
+	 * Returns the tasks running or having run longer, or having read more, than the given factor times
+	 * the median task of their kind.
+	 *
+	 * @param factor ratio to the median above which a task is flagged
+	 * @param minMillis minimum duration of a straggler, so short tasks are not flagged
+	 * @return the flagged tasks, map tasks first
+	 */
+	public List<Flagged> flag(double factor, long minMillis) {
+		List<Flagged> flagged = new ArrayList<Flagged>();
+		for (List<Task> tasks : kinds) {
+			if (tasks.isEmpty()) {
+				continue;
+			}
+			Distribution distribution = new Distribution(tasks);
+			for (Task task : tasks) {
+				double durationRatio = ratio(task.duration, distribution.durations);
+				if (task.duration >= minMillis && durationRatio > factor) {
+					flagged.add(new Flagged(task, "straggler", durationRatio));
+				}
+				double bytesRatio = ratio(task.bytes, distribution.bytes);
+				if (bytesRatio > factor) {
+					flagged.add(new Flagged(task, "skew", bytesRatio));
+				}
+			}
+		}
+		return flagged;
+	}
+
+	private static double ratio(long value, long[] sorted) {
+		long median = CounterStats.percentile(sorted, 50);
+		return (median > 0 ? (double) value / median : 0);
+	}
+
+	private static List<Task> tasks(String type, TaskReport[] reports, String[][] inputBytes, long now) {
+		List<Task> tasks = new ArrayList<Task>();
+		for (TaskReport report : (reports != null ? reports : new TaskReport[0])) {
+			if (report.getStartTime() <= 0) {
+				continue;
+			}
+			long end = (report.getFinishTime() > 0 ? report.getFinishTime() : now);
+			tasks.add(new Task(report.getTaskID().toString(), type, Math.max(0, end - report.getStartTime()),
+					counter(report.getCounters(), inputBytes), report.getFinishTime() <= 0));
+		}
+		return tasks;
+	}
+
+	private static long counter(Counters counters, String[][] names) {
+		if (counters == null) {
+			return 0;
+		}
+		for (String[] name : names) {
+			long value = CounterStats.value(counters, name[0], name[1]);
+			if (value > 0) {
+				return value;
+			}
+		}
+		return 0;
+	}
+
+	private static class Task {
+
+		final String id;
+		final String type;
+		final long duration;
+		final long bytes;
+		final boolean running;
+
+		Task(String id, String type, long duration, long bytes, boolean running) {
+			this.id = id;
+			this.type = type;
+			this.duration = duration;
+			this.bytes = bytes;
+			this.running = running;
+		}
+	}
+
+	/**
+	 * Duration and input size distribution of one kind of task.
+	 */
+	public static class Distribution {
+
+		private final String type;
+		private final long[] durations;
+		private final long[] bytes;
+
+		Distribution(List<Task> tasks) {
+			this.type = tasks.get(0).type;
+			this.durations = new long[tasks.size()];
+			this.bytes = new long[tasks.size()];
+			for (int i = 0; i < durations.length; i++) {
+				durations[i] = tasks.get(i).duration;
+				bytes[i] = tasks.get(i).bytes;
+			}
+			Arrays.sort(durations);
+			Arrays.sort(bytes);
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public int getTasks() {
+			return durations.length;
+		}
+
+		/**
+		 * Returns a percentile of the task durations, in milliseconds.
+		 */
+		public long duration(double percent) {
+			return CounterStats.percentile(durations, percent);
+		}
+
+		/**
+		 * Returns a percentile of the task input sizes, in bytes.
+		 */
+		public long bytes(double percent) {
+			return CounterStats.percentile(bytes, percent);
+		}
+	}
+
+	/**
+	 * A task standing out of the distribution of its kind.
+	 */
+	public static class Flagged {
+
+		private final Task task;
+		private final String reason;
+		private final double ratio;
+
+		Flagged(Task task, String reason, double ratio) {
+			this.task = task;
+			this.reason = reason;
+			this.ratio = ratio;
+		}
+
+		public String getTaskId() {
+			return task.id;
+		}
+
+		public String getType() {
+			return task.type;
+		}
+
+		/**
+		 * Returns <code>straggler</code> or <code>skew</code>.
+		 */
+		public String getReason() {
+			return reason;
+		}
+
+		public long getDurationMillis() {
+			return task.duration;
+		}
+
+		public long getInputBytes() {
+			return task.bytes;
+		}
+
+		public boolean isRunning() {
+			return task.running;
+		}
+
+		/**
+		 * Returns the ratio of the flagged value to the median.
+		 */
+		public double getRatio() {
+			return ratio;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.mapred.TaskCompletionEvent;
+
+/**
+ * Downloads the logs of task attempts from the task trackers which ran them, through the
+ * <code>tasklog</code> servlet whose address comes with the task completion events. The downloads run
+ * on a bounded pool of threads, each log being streamed to a local file named
+ * <code>&lt;attempt id&gt;.&lt;log&gt;</code> which can then be tailed or searched.
+ *
+ * @author Jarred Li
+ */
+public class TaskLogFetcher {
+
+	public static final String[] LOGS = { "stdout", "stderr", "syslog" };
+
+	private final File dir;
+
+	private final int threads;
+
+	private final int timeout;
+
+	/**
+	 * Creates a new fetcher.
+	 *
+	 * @param dir directory the logs are downloaded to
+	 * @param threads number of logs downloaded at the same time
+	 * @param timeout connect and read timeout, in milliseconds
+	 */
+	public TaskLogFetcher(File dir, int threads, int timeout) {
+		this.dir = dir;
+		this.threads = Math.max(1, threads);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Downloads the given logs of the given attempts. A log which cannot be downloaded is reported in
+	 * the result instead of failing the others.
+	 *
+	 * @param events completion events of the attempts
+	 * @param logs logs to download, among {@link #LOGS}
+	 * @return the downloaded logs, in the order of the events then of the logs
+	 * @throws IOException if the download directory cannot be created
+	 * @throws InterruptedException if the current thread is interrupted while waiting for the downloads
+	 */
+	public List<Log> fetch(List<TaskCompletionEvent> events, String[] logs) throws IOException, InterruptedException {
+		if (!dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("Mkdirs failed to create " + dir);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Log>> futures = new ArrayList<Future<Log>>();
+			for (TaskCompletionEvent event : events) {
+				for (String name : logs) {
+					final Log log = new Log(event.getTaskAttemptId().toString(), name, new File(dir,
+							event.getTaskAttemptId() + "." + name));
+					final URL url = url(event.getTaskTrackerHttp(), log.attemptId, name);
+					futures.add(executor.submit(new Callable<Log>() {
+						public Log call() {
+							try {
+								log.bytes = download(url, log.file);
+							} catch (IOException ex) {
+								log.failure = ex.getMessage();
+							}
+							return log;
+						}
+					}));
+				}
+			}
+			List<Log> result = new ArrayList<Log>();
+			for (Future<Log> future : futures) {
+				try {
+					result.add(future.get());
+				} catch (ExecutionException ex) {
+					// download() reports the failures in the log
+				}
+			}
+			return result;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	static URL url(String trackerHttp, String attemptId, String log) throws IOException {
+		String base = (trackerHttp.startsWith("http") ? trackerHttp : "http://" + trackerHttp);
+		return new URL(base + "/tasklog?plaintext=true&attemptid=" + attemptId + "&filter=" + log);
+	}
+
+	private long download(URL url, File file) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(timeout);
+		connection.setReadTimeout(timeout);
+		try {
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException("Server returned " + connection.getResponseCode() + " for " + url);
+			}
+			InputStream in = connection.getInputStream();
+			try {
+				OutputStream out = new FileOutputStream(file);
+				try {
+					byte[] buffer = new byte[64 * 1024];
+					long total = 0;
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						out.write(buffer, 0, read);
+						total += read;
+					}
+					return total;
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Returns the last lines of a downloaded log.
+	 *
+	 * @param log downloaded log
+	 * @param lines maximum number of lines
+	 * @throws IOException if the file cannot be read
+	 */
+	public static List<String> tail(Log log, int lines) throws IOException {
+		LinkedList<String> tail = new LinkedList<String>();
+		BufferedReader reader = reader(log);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				tail.add(line);
+				if (tail.size() > lines) {
+					tail.removeFirst();
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return tail;
+	}
+
+	/**
+	 * Returns the lines of a downloaded log containing the given pattern.
+	 *
+	 * @param log downloaded log
+	 * @param pattern pattern to search
+	 * @throws IOException if the file cannot be read
+	 */
+	public static List<String> grep(Log log, Pattern pattern) throws IOException {
+		List<String> matches = new ArrayList<String>();
+		BufferedReader reader = reader(log);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (pattern.matcher(line).find()) {
+					matches.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return matches;
+	}
+
+	private static BufferedReader reader(Log log) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(log.file), "UTF-8"));
+	}
+
+	/**
+	 * A log of a task attempt and the outcome of its download.
+	 */
+	public static class Log {
+
+		private final String attemptId;
+		private final String name;
+		private final File file;
+		private volatile long bytes;
+		private volatile String failure;
+
+		Log(String attemptId, String name, File file) {
+			this.attemptId = attemptId;
+			this.name = name;
+			this.file = file;
+		}
+
+		public String getAttemptId() {
+			return attemptId;
+		}
+
+		/**
+		 * Returns the name of the log, one of {@link TaskLogFetcher#LOGS}.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Returns the reason why the log could not be downloaded, <code>null</code> if it was.
+		 */
+		public String getFailure() {
+			return failure;
+		}
+	}
+}
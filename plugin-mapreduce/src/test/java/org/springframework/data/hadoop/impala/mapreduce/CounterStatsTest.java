@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+import org.apache.hadoop.mapred.Counters;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class CounterStatsTest {
+
+	@Test
+	public void testAggregation() {
+		List<Counters> runs = new ArrayList<Counters>();
+		for (int i = 1; i <= 20; i++) {
+			Counters counters = new Counters();
+			counters.incrCounter("task", "SPILLED_RECORDS", i * 10);
+			if (i % 2 == 0) {
+				counters.incrCounter("fs", "HDFS_BYTES_READ", i);
+			}
+			runs.add(counters);
+		}
+		CounterStats stats = new CounterStats(runs, null);
+		Assert.assertEquals("[fs:HDFS_BYTES_READ, task:SPILLED_RECORDS]", stats.getNames().toString());
+		Assert.assertEquals(20, stats.count("task:SPILLED_RECORDS"));
+		Assert.assertEquals(2100, stats.sum("task:SPILLED_RECORDS"));
+		Assert.assertEquals(10, stats.min("task:SPILLED_RECORDS"));
+		Assert.assertEquals(200, stats.max("task:SPILLED_RECORDS"));
+		Assert.assertEquals(100, stats.percentile("task:SPILLED_RECORDS", 50));
+		Assert.assertEquals(190, stats.percentile("task:SPILLED_RECORDS", 95));
+		// missing from half of the jobs
+		Assert.assertEquals(10, stats.count("fs:HDFS_BYTES_READ"));
+		Assert.assertEquals(2, stats.min("fs:HDFS_BYTES_READ"));
+
+		Assert.assertEquals("[fs:HDFS_BYTES_READ]", new CounterStats(runs, "fs").getNames().toString());
+	}
+
+	@Test
+	public void testDiff() {
+		Counters base = new Counters();
+		base.incrCounter("task", "GC_TIME_MILLIS", 100);
+		base.incrCounter("task", "SPILLED_RECORDS", 5);
+		Counters other = new Counters();
+		other.incrCounter("task", "GC_TIME_MILLIS", 150);
+		other.incrCounter("fs", "HDFS_BYTES_READ", 7);
+
+		SortedMap<String, long[]> diff = CounterStats.diff(base, other, null);
+		Assert.assertEquals(3, diff.size());
+		Assert.assertArrayEquals(new long[] { 100, 150 }, diff.get("task:GC_TIME_MILLIS"));
+		Assert.assertArrayEquals(new long[] { 5, 0 }, diff.get("task:SPILLED_RECORDS"));
+		Assert.assertArrayEquals(new long[] { 0, 7 }, diff.get("fs:HDFS_BYTES_READ"));
+		Assert.assertEquals(2, CounterStats.diff(base, other, "task").size());
+	}
+}
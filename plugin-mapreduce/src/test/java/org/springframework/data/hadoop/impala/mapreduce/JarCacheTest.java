@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class JarCacheTest {
+
+	private File workDir = new File("/tmp/impala-jar-cache-test");
+
+	private File cacheDir = new File(workDir, "cache");
+
+	private File exampleJar = new File("src/test/resources/hadoop-examples-1.0.3.jar");
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+		workDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+	}
+
+	@Test
+	public void testSameJarIsExtractedOnce() throws Exception {
+		JarCache cache = new JarCache(cacheDir, Long.MAX_VALUE, 4);
+		JarCache.Entry first = cache.acquire(exampleJar);
+		JarCache.Loader loader = first.borrow(getClass().getClassLoader());
+		Assert.assertNotNull(loader.getClassLoader().loadClass("org.apache.hadoop.examples.WordCount"));
+		first.giveBack(loader);
+		cache.release(first);
+
+		JarCache.Entry second = cache.acquire(exampleJar);
+		Assert.assertSame(first, second);
+		JarCache.Loader reused = second.borrow(getClass().getClassLoader());
+		Assert.assertSame(loader, reused);
+		// a concurrent run gets a class loader and a resource directory of its own
+		JarCache.Loader concurrent = second.borrow(getClass().getClassLoader());
+		Assert.assertNotSame(reused.getClassLoader(), concurrent.getClassLoader());
+		Assert.assertFalse(reused.getResourceDirectory().equals(concurrent.getResourceDirectory()));
+		second.giveBack(concurrent);
+		second.giveBack(reused);
+		cache.release(second);
+		Assert.assertTrue(cache.toString().contains("1 hits, 1 misses"));
+
+		// picked up again by a new session
+		cache = new JarCache(cacheDir, Long.MAX_VALUE, 4);
+		Assert.assertEquals(first.getDigest(), cache.acquire(exampleJar).getDigest());
+		Assert.assertTrue(cache.toString().contains("1 hits, 0 misses"));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedJarIsEvicted() throws Exception {
+		JarCache cache = new JarCache(cacheDir, Long.MAX_VALUE, 1);
+		JarCache.Entry first = cache.acquire(createJar("a.jar", "a.txt"));
+		JarCache.Entry second = cache.acquire(createJar("b.jar", "b.txt"));
+		// both in use
+		Assert.assertTrue(first.getDirectory().isDirectory());
+
+		cache.release(first);
+		Assert.assertFalse(first.getDirectory().exists());
+		Assert.assertNotNull(second.borrow(null).getClassLoader().getResource("b.txt"));
+		cache.release(second);
+		Assert.assertEquals(1, cache.clear());
+		Assert.assertFalse(second.getDirectory().exists());
+	}
+
+	private File createJar(String name, String entry) throws Exception {
+		File jar = new File(workDir, name);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			out.putNextEntry(new JarEntry(entry));
+			out.write(entry.getBytes());
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+		return jar;
+	}
+}
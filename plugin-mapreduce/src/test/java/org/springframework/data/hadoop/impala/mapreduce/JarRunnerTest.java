@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks.State;
+import org.springframework.data.hadoop.impala.common.util.BackgroundTasks.Task;
+import org.springframework.data.hadoop.impala.common.util.OutputCapture;
+import org.springframework.data.hadoop.impala.common.util.SecurityUtil;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class JarRunnerTest {
+
+	private File cacheDir = new File("/tmp/impala-jar-runner-test");
+
+	private File exampleJar = new File("src/test/resources/hadoop-examples-1.0.3.jar");
+
+	private BackgroundTasks tasks;
+
+	private JarRunner runner;
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(cacheDir);
+		OutputCapture.install();
+		tasks = new BackgroundTasks(2, null);
+		runner = new JarRunner(new JarCache(cacheDir, Long.MAX_VALUE, 4), new SecurityUtil());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		tasks.shutdown();
+		FileSystemUtils.deleteRecursively(cacheDir);
+	}
+
+	@Test
+	public void testConcurrentRunsAreIsolated() throws Exception {
+		// the example driver prints its usage then calls System.exit(-1) when given no program
+		Task first = runner.start(tasks, "first", exampleJar, "org.apache.hadoop.examples.ExampleDriver",
+				new String[0], new Configuration(false), null);
+		Task second = runner.start(tasks, "second", exampleJar, "org.apache.hadoop.examples.ExampleDriver",
+				new String[0], new Configuration(false), null);
+		Assert.assertTrue(first.await(0));
+		Assert.assertTrue(second.await(0));
+		for (Task task : new Task[] { first, second }) {
+			Assert.assertEquals(State.DONE, task.getState());
+			Assert.assertEquals(-1, task.getResult());
+			Assert.assertTrue(task.getOutput().contains("An example program must be given"));
+		}
+		// the exit trap is removed once no run needs it
+		Assert.assertNull(System.getSecurityManager());
+	}
+
+	@Test
+	public void testRunOnCallingThread() throws Exception {
+		ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+		Assert.assertEquals(-1, runner.run(exampleJar, "org.apache.hadoop.examples.ExampleDriver", new String[0],
+				new Configuration(false), null));
+		Assert.assertSame(contextLoader, Thread.currentThread().getContextClassLoader());
+		try {
+			runner.run(exampleJar, "org.apache.hadoop.examples.NoSuchDriver", new String[0], new Configuration(false),
+					null);
+			Assert.fail("unknown main class");
+		} catch (ClassNotFoundException ex) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class JarStagerTest {
+
+	private File workDir = new File("/tmp/impala-jar-staging-test");
+
+	private JarStager stager;
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+		workDir.mkdirs();
+		// the local file system stands in for the cluster
+		FileSystem fs = FileSystem.getLocal(new Configuration());
+		stager = new JarStager(fs, new Path(new File(workDir, "staged").getAbsolutePath()), new JarCache(new File(
+				workDir, "cache"), Long.MAX_VALUE, 4));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+	}
+
+	@Test
+	public void testSameContentIsUploadedOnce() throws Exception {
+		File jar = jar("a.jar", "a/A.class");
+		Path first = stager.stage(jar);
+		Path second = stager.stage(jar);
+		Assert.assertEquals(first, second);
+		Assert.assertTrue(stager.toString().contains("1 uploaded"));
+		Assert.assertTrue(stager.toString().contains("1 reused"));
+		Assert.assertTrue(new File(first.toUri().getPath()).isFile());
+
+		// a different content is staged aside
+		Assert.assertFalse(first.equals(stager.stage(jar("a.jar", "a/B.class"))));
+	}
+
+	@Test
+	public void testFatJarsShareTheirDependencies() throws Exception {
+		File lib = jar("dep.jar", "dep/Dep.class");
+		List<Path> v1 = stager.stageJobJar(jar("job-v1.jar", "job/Job.class", lib));
+		List<Path> v2 = stager.stageJobJar(jar("job-v2.jar", "job/Job2.class", lib));
+		Assert.assertEquals(2, v1.size());
+		Assert.assertEquals(2, v2.size());
+		Assert.assertFalse(v1.get(0).equals(v2.get(0)));
+		Assert.assertEquals(v1.get(1), v2.get(1));
+		Assert.assertTrue(v1.get(1).getName().equals("dep.jar"));
+		Assert.assertTrue(stager.toString().contains("3 uploaded"));
+
+		JarFile thin = new JarFile(v1.get(0).toUri().getPath());
+		try {
+			Assert.assertNotNull(thin.getEntry("job/Job.class"));
+			Assert.assertNull(thin.getEntry("lib/dep.jar"));
+		} finally {
+			thin.close();
+		}
+		// classes/ is only honored by Hadoop for the job jar itself
+		Assert.assertNull(stager.stageJobJar(jar("classes.jar", "classes/job/Job.class")));
+	}
+
+	@Test
+	public void testSameJobJarIsSplitOnce() throws Exception {
+		File job = jar("job.jar", "job/Job.class", jar("dep.jar", "dep/Dep.class"));
+		List<Path> first = stager.stageJobJar(job);
+		Assert.assertEquals(first, stager.stageJobJar(job));
+		Assert.assertTrue(stager.toString().contains("2 uploaded"));
+		Assert.assertTrue(stager.toString().contains("2 reused"));
+		Assert.assertTrue(stager.toString().contains("1 job jars split"));
+
+		// split again once the staged jars were cleaned up
+		new File(first.get(1).toUri().getPath()).delete();
+		Assert.assertEquals(first, stager.stageJobJar(job));
+		Assert.assertTrue(new File(first.get(1).toUri().getPath()).isFile());
+		Assert.assertTrue(stager.toString().contains("2 job jars split"));
+	}
+
+	@Test
+	public void testStageJob() throws Exception {
+		JobConf job = new JobConf(false);
+		job.setJar(jar("job.jar", "job/Job.class").getAbsolutePath());
+		job.set("tmpjars", jar("dep.jar", "dep/Dep.class").toURI() + ",hdfs://namenode/dep2.jar");
+		job.set("mapred.input.dir", "/in");
+
+		JobConf staged = stager.stageJob(job);
+		Assert.assertNull(staged.getJar());
+		Assert.assertEquals("hdfs://namenode/dep2.jar", staged.get("tmpjars"));
+		Assert.assertEquals("/in", staged.get("mapred.input.dir"));
+		Path[] classPath = DistributedCache.getFileClassPaths(staged);
+		Assert.assertEquals(2, classPath.length);
+		Assert.assertEquals("job.jar", classPath[0].getName());
+		Assert.assertEquals("dep.jar", classPath[1].getName());
+		Assert.assertEquals(2, DistributedCache.getCacheFiles(staged).length);
+
+		JobConf unchanged = new JobConf(false);
+		unchanged.set("tmpjars", "hdfs://namenode/dep2.jar");
+		Assert.assertSame(unchanged, stager.stageJob(unchanged));
+	}
+
+	@Test
+	public void testStageLibJars() throws Exception {
+		File dep = jar("dep.jar", "dep/Dep.class");
+		List<File> localJars = new ArrayList<File>();
+		String[] args = stager.stageLibJars(new String[] { "-libjars", dep.getAbsolutePath() + ",hdfs://nn/x.jar",
+				"in", "out" }, localJars);
+		Assert.assertEquals(4, args.length);
+		Assert.assertEquals(stager.stage(dep) + ",hdfs://nn/x.jar", args[1]);
+		Assert.assertEquals("out", args[3]);
+		Assert.assertEquals(1, localJars.size());
+		Assert.assertEquals(dep, localJars.get(0));
+	}
+
+	private File jar(String name, String entry) throws Exception {
+		return jar(name, entry, null);
+	}
+
+	private File jar(String name, String entry, File lib) throws Exception {
+		File dir = new File(workDir, "jars-" + System.nanoTime());
+		dir.mkdirs();
+		File jar = new File(dir, name);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			out.putNextEntry(new JarEntry(entry));
+			out.write(entry.getBytes("UTF-8"));
+			out.closeEntry();
+			if (lib != null) {
+				out.putNextEntry(new JarEntry("lib/" + lib.getName()));
+				out.write(FileCopyUtils.copyToByteArray(lib));
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		return jar;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.hadoop.impala.mapreduce.JobBatch.Outcome;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class JobBatchTest {
+
+	private File workDir = new File("/tmp/impala-job-batch-test");
+
+	private File jobDir = new File(workDir, "jobs");
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+		jobDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+	}
+
+	@Test
+	public void testManifestIsSortedByDependencies() throws Exception {
+		writeJob("extract", null, null, null);
+		writeJob("transform", null, null, null);
+		writeJob("load", null, null, "transform");
+		File manifest = new File(jobDir, "manifest");
+		FileCopyUtils.copy("# nightly\nload.xml\n\ntransform.xml extract\n" + new File(jobDir, "extract.xml") + "\n",
+				new FileWriter(manifest));
+
+		List<String> names = new ArrayList<String>();
+		for (JobBatch.Job job : JobBatch.load(manifest).getJobs()) {
+			names.add(job.getName());
+		}
+		Assert.assertEquals("[extract, transform, load]", names.toString());
+
+		FileCopyUtils.copy("load.xml\ntransform.xml load\n", new FileWriter(manifest));
+		try {
+			JobBatch.load(manifest);
+			Assert.fail("circular dependency");
+		} catch (Exception ex) {
+			Assert.assertTrue(ex.getMessage().startsWith("Circular dependency"));
+		}
+		FileCopyUtils.copy("transform.xml extract\n", new FileWriter(manifest));
+		try {
+			JobBatch.load(manifest);
+			Assert.fail("unknown dependency");
+		} catch (Exception ex) {
+			Assert.assertTrue(ex.getMessage().contains("unknown job extract"));
+		}
+	}
+
+	@Test
+	public void testJobsRunAfterTheirDependencies() throws Exception {
+		File input = new File(workDir, "input");
+		input.mkdirs();
+		FileCopyUtils.copy("one\ntwo\n", new FileWriter(new File(input, "part")));
+		writeJob("first", input, new File(workDir, "first"), null);
+		writeJob("second", new File(workDir, "first"), new File(workDir, "second"), "first");
+		writeJob("broken", new File(workDir, "missing"), new File(workDir, "broken"), null);
+		writeJob("orphan", input, new File(workDir, "orphan"), "broken");
+
+		JobBatch batch = JobBatch.load(jobDir);
+		Configuration configuration = new Configuration();
+		configuration.set("fs.default.name", "file:///");
+		configuration.set("mapred.job.tracker", "local");
+		batch.run(configuration, 2, new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+
+		for (JobBatch.Job job : batch.getJobs()) {
+			if (job.getName().equals("broken")) {
+				Assert.assertEquals(Outcome.ERROR, job.getOutcome());
+			}
+			else if (job.getName().equals("orphan")) {
+				Assert.assertEquals(Outcome.SKIPPED, job.getOutcome());
+				Assert.assertEquals("dependency broken ERROR", job.getMessage());
+			}
+			else {
+				Assert.assertEquals(job.getName(), Outcome.SUCCEEDED, job.getOutcome());
+				Assert.assertNotNull(job.getJobId());
+			}
+		}
+		Assert.assertTrue(new File(workDir, "second/_SUCCESS").isFile());
+	}
+
+	@Test
+	public void testWaitingJobsDoNotTakeASlot() throws Exception {
+		File input = new File(workDir, "input");
+		input.mkdirs();
+		FileCopyUtils.copy("one\ntwo\n", new FileWriter(new File(input, "part")));
+		writeJob("a", input, new File(workDir, "a"), null, BlockingMapper.class);
+		for (String name : new String[] { "b", "c", "d" }) {
+			writeJob(name, input, new File(workDir, name), "a");
+		}
+		writeJob("e", input, new File(workDir, "e"), null);
+
+		final JobBatch batch = JobBatch.load(jobDir);
+		final Configuration configuration = new Configuration();
+		configuration.set("fs.default.name", "file:///");
+		configuration.set("mapred.job.tracker", "local");
+		Thread runner = new Thread() {
+			@Override
+			public void run() {
+				try {
+					batch.run(configuration, 4, new PrintStream(new OutputStream() {
+						@Override
+						public void write(int b) {
+						}
+					}));
+				} catch (InterruptedException ex) {
+					// test over
+				}
+			}
+		};
+		BlockingMapper.release = new CountDownLatch(1);
+		runner.start();
+		try {
+			// b, c and d wait for a without holding the slots e needs
+			JobBatch.Job e = batch.getJobs().get(4);
+			Assert.assertEquals("e", e.getName());
+			long deadline = System.currentTimeMillis() + 60000;
+			while (e.getOutcome() != Outcome.SUCCEEDED && System.currentTimeMillis() < deadline) {
+				Thread.sleep(100);
+			}
+			Assert.assertEquals(Outcome.SUCCEEDED, e.getOutcome());
+			Assert.assertEquals(Outcome.RUNNING, batch.getJobs().get(0).getOutcome());
+			Assert.assertEquals(Outcome.PENDING, batch.getJobs().get(1).getOutcome());
+		} finally {
+			BlockingMapper.release.countDown();
+			runner.join(60000);
+		}
+		for (JobBatch.Job job : batch.getJobs()) {
+			Assert.assertEquals(job.getName(), Outcome.SUCCEEDED, job.getOutcome());
+		}
+	}
+
+	/**
+	 * Identity mapper holding its job until released.
+	 */
+	public static class BlockingMapper extends IdentityMapper<Object, Object> {
+
+		static volatile CountDownLatch release;
+
+		@Override
+		public void map(Object key, Object value, OutputCollector<Object, Object> output, Reporter reporter)
+				throws IOException {
+			try {
+				release.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted");
+			}
+			super.map(key, value, output, reporter);
+		}
+	}
+
+	private void writeJob(String name, File input, File output, String depends) throws Exception {
+		writeJob(name, input, output, depends, null);
+	}
+
+	private void writeJob(String name, File input, File output, String depends, Class<?> mapper) throws Exception {
+		Configuration job = new Configuration(false);
+		if (mapper != null) {
+			job.set("mapred.mapper.class", mapper.getName());
+		}
+		if (input != null) {
+			job.set("mapred.input.dir", input.getAbsolutePath());
+			job.set("mapred.output.dir", output.getAbsolutePath());
+		}
+		if (depends != null) {
+			job.set(JobBatch.DEPENDS_KEY, depends);
+		}
+		OutputStream out = new FileOutputStream(new File(jobDir, name + ".xml"));
+		try {
+			job.writeXml(out);
+		} finally {
+			out.close();
+		}
+	}
+}
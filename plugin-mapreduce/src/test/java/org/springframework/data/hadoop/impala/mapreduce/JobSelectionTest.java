@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapred.RunningJob;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class JobSelectionTest {
+
+	private final List<JobStatus> jobs = new ArrayList<JobStatus>();
+
+	private final AtomicInteger nameLookups = new AtomicInteger();
+
+	private final AtomicInteger jobLookups = new AtomicInteger();
+
+	private final JobClient client = new JobClient() {
+		@Override
+		public JobStatus[] getAllJobs() {
+			return jobs.toArray(new JobStatus[jobs.size()]);
+		}
+
+		@Override
+		public RunningJob getJob(final JobID id) {
+			jobLookups.incrementAndGet();
+			return (RunningJob) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RunningJob.class },
+					new InvocationHandler() {
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if (method.getName().equals("getJobName")) {
+								nameLookups.incrementAndGet();
+								return (id.getId() % 2 == 0 ? "nightly-" + id.getId() : "adhoc-" + id.getId());
+							}
+							if (method.getName().equals("getID")) {
+								return id;
+							}
+							throw new UnsupportedOperationException(method.getName());
+						}
+					});
+		}
+	};
+
+	@Test
+	public void testJobsAreFilteredBeforeFetchingTheirName() throws Exception {
+		long now = System.currentTimeMillis();
+		addJob(1, "alice", JobStatus.RUNNING, now);
+		addJob(2, "alice", JobStatus.RUNNING, now - 3 * 3600 * 1000L);
+		addJob(3, "bob", JobStatus.RUNNING, now - 3 * 3600 * 1000L);
+		addJob(4, "alice", JobStatus.SUCCEEDED, now - 3 * 3600 * 1000L);
+		addJob(6, "alice", JobStatus.PREP, now - 3 * 3600 * 1000L);
+
+		final List<String> killed = Collections.synchronizedList(new ArrayList<String>());
+		JobSelection selection = new JobSelection("alice", "nightly-*", "prep,running", "2h");
+		List<JobSelection.Selected> selected = selection.apply(client, 4, new JobSelection.Action() {
+			public void apply(RunningJob job) throws IOException {
+				killed.add(job.getID().toString());
+			}
+		});
+		Assert.assertEquals(2, selected.size());
+		Assert.assertEquals("nightly-2", selected.get(0).getName());
+		Assert.assertEquals("nightly-6", selected.get(1).getName());
+		Collections.sort(killed);
+		Assert.assertEquals("[job_201201010000_0002, job_201201010000_0006]", killed.toString());
+		// only the jobs matching user, state and age were looked up
+		Assert.assertEquals(2, nameLookups.get());
+
+		// statuses only need the job list
+		jobLookups.set(0);
+		List<JobSelection.Selected> all = new JobSelection(null, null, null, null).apply(client, 2, null);
+		Assert.assertEquals(5, all.size());
+		Assert.assertEquals(0, jobLookups.get());
+		Assert.assertNull(all.get(0).getName());
+		Assert.assertEquals("alice", all.get(0).getStatus().getUsername());
+	}
+
+	@Test
+	public void testCriteriaAreValidated() {
+		Assert.assertEquals(90 * 1000L, JobSelection.parseAge("90s"));
+		Assert.assertEquals(30 * 60 * 1000L, JobSelection.parseAge("30"));
+		Assert.assertEquals(24 * 3600 * 1000L, JobSelection.parseAge("1d"));
+		Assert.assertTrue(new JobSelection(null, null, null, null).isEmpty());
+		try {
+			new JobSelection(null, null, "RUNNING,DONE", null);
+			Assert.fail("unknown state");
+		} catch (IllegalArgumentException ex) {
+			Assert.assertTrue(ex.getMessage().startsWith("Unknown job state DONE"));
+		}
+		try {
+			new JobSelection(null, null, null, "yesterday");
+			Assert.fail("invalid age");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+
+	private void addJob(int id, final String user, int state, final long startTime) {
+		jobs.add(new JobStatus(new JobID("201201010000", id), 0, 0, state) {
+			@Override
+			public synchronized String getUsername() {
+				return user;
+			}
+
+			@Override
+			public synchronized long getStartTime() {
+				return startTime;
+			}
+		});
+	}
+}
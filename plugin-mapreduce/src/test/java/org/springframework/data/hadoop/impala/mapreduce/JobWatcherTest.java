@@ -0,0 +1,142 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TaskAttemptID;
+import org.apache.hadoop.mapred.TaskCompletionEvent;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class JobWatcherTest {
+
+	private List<TaskCompletionEvent> events = new ArrayList<TaskCompletionEvent>();
+
+	private List<Integer> eventRequests = new ArrayList<Integer>();
+
+	private Counters counters = new Counters();
+
+	private float mapProgress;
+
+	private ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+	private JobWatcher watcher;
+
+	@Before
+	public void setUp() {
+		RunningJob job = (RunningJob) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RunningJob.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getID")) {
+							return JobID.forName("job_201201010000_0001");
+						}
+						if (name.equals("getJobState")) {
+							return JobStatus.RUNNING;
+						}
+						if (name.equals("mapProgress")) {
+							return mapProgress;
+						}
+						if (name.equals("reduceProgress")) {
+							return 0f;
+						}
+						if (name.equals("getCounters")) {
+							return counters;
+						}
+						if (name.equals("getTaskCompletionEvents")) {
+							int from = (Integer) args[0];
+							eventRequests.add(from);
+							// batches of two events at most
+							List<TaskCompletionEvent> batch = events.subList(Math.min(from, events.size()),
+									Math.min(from + 2, events.size()));
+							return batch.toArray(new TaskCompletionEvent[batch.size()]);
+						}
+						throw new UnsupportedOperationException(name);
+					}
+				});
+		watcher = new JobWatcher(job, Arrays.asList("group:records",
+				"org.apache.hadoop.mapred.Task$Counter:MAP_INPUT_RECORDS"), 100, 1000, new PrintStream(output));
+	}
+
+	@Test
+	public void testOnlyChangesAreFetchedAndPrinted() throws Exception {
+		addEvents(3);
+		counters.incrCounter("group", "records", 5);
+		Assert.assertTrue(watcher.poll());
+		String first = output.toString();
+		Assert.assertTrue(first.contains("RUNNING map 0.0% reduce 0.0%"));
+		Assert.assertTrue(first.contains("counter group:records 5"));
+		Assert.assertEquals(Arrays.asList(0, 2, 3), eventRequests);
+
+		output.reset();
+		eventRequests.clear();
+		Assert.assertFalse(watcher.poll());
+		Assert.assertEquals("", output.toString());
+		Assert.assertEquals(Arrays.asList(3), eventRequests);
+
+		addEvents(1);
+		mapProgress = 0.5f;
+		Assert.assertTrue(watcher.poll());
+		Assert.assertTrue(output.toString().contains("map 50.0%"));
+		Assert.assertTrue(output.toString().contains("event 3 "));
+		Assert.assertFalse(output.toString().contains("event 2 "));
+		Assert.assertFalse(output.toString().contains("counter"));
+	}
+
+	@Test
+	public void testBuiltInCountersAreFoundByName() throws Exception {
+		// the built-in groups name their counters after a resource bundle
+		counters.incrCounter("org.apache.hadoop.mapred.Task$Counter", "MAP_INPUT_RECORDS", 42);
+		Assert.assertTrue(watcher.poll());
+		Assert.assertTrue(output.toString(),
+				output.toString().contains("counter org.apache.hadoop.mapred.Task$Counter:MAP_INPUT_RECORDS 42"));
+	}
+
+	@Test
+	public void testIntervalBacksOffWhileNothingChanges() {
+		Assert.assertEquals(200, watcher.nextInterval(false));
+		Assert.assertEquals(400, watcher.nextInterval(false));
+		Assert.assertEquals(800, watcher.nextInterval(false));
+		Assert.assertEquals(1000, watcher.nextInterval(false));
+		Assert.assertEquals(1000, watcher.nextInterval(false));
+		Assert.assertEquals(100, watcher.nextInterval(true));
+	}
+
+	private void addEvents(int count) {
+		for (int i = 0; i < count; i++) {
+			int id = events.size();
+			events.add(new TaskCompletionEvent(id, TaskAttemptID.forName("attempt_201201010000_0001_m_00000" + id
+					+ "_0"), id, true, TaskCompletionEvent.Status.SUCCEEDED, "http://tracker:50060"));
+		}
+	}
+}
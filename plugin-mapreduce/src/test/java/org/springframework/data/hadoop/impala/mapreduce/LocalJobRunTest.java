@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.hadoop.impala.common.util.SecurityUtil;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class LocalJobRunTest {
+
+	private File workDir = new File("/tmp/impala-local-run-test");
+
+	private File inputDir = new File(workDir, "cluster/input");
+
+	private File runDir = new File(workDir, "run");
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+		inputDir.mkdirs();
+		FileCopyUtils.copy("a b\nc d\ne f\n".getBytes("UTF-8"), new File(inputDir, "part-00000"));
+		FileCopyUtils.copy("g h\n".getBytes("UTF-8"), new File(inputDir, "part-00001"));
+		FileCopyUtils.copy("ignored\n".getBytes("UTF-8"), new File(inputDir, "_SUCCESS"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+	}
+
+	@Test
+	public void testPrepare() throws Exception {
+		// the local file system stands in for the cluster
+		LocalJobRun run = new LocalJobRun(new Configuration(), runDir, 6, 0);
+		String output = new File(workDir, "cluster/output").getAbsolutePath();
+		String[] args = run.prepare(new String[] { "-D", "x=y", inputDir.getAbsolutePath(), output });
+		Assert.assertEquals("-D", args[0]);
+		Assert.assertEquals("x=y", args[1]);
+		Assert.assertEquals(new File(runDir, "input-2").getAbsolutePath(), args[2]);
+		Assert.assertEquals(new File(runDir, "output-3").getAbsolutePath(), args[3]);
+
+		// cut after the last line fitting in the sample
+		File[] sampled = new File(args[2]).listFiles();
+		Assert.assertEquals(1, sampled.length);
+		Assert.assertEquals("a b\n", new String(FileCopyUtils.copyToByteArray(sampled[0]), "UTF-8"));
+		Assert.assertTrue(run.getTimings().containsKey("sample (1 files, 4 bytes)"));
+
+		Configuration local = run.getLocalConfiguration();
+		Assert.assertEquals("local", local.get("mapred.job.tracker"));
+		Assert.assertEquals("file:///", local.get("fs.default.name"));
+	}
+
+	@Test
+	public void testMaxFiles() throws Exception {
+		LocalJobRun run = new LocalJobRun(new Configuration(), runDir, Long.MAX_VALUE, 1);
+		String[] args = run.prepare(new String[] { inputDir.getAbsolutePath() });
+		File[] sampled = new File(args[0]).listFiles();
+		Assert.assertEquals(1, sampled.length);
+		Assert.assertEquals("part-00000", sampled[0].getName());
+	}
+
+	@Test
+	public void testGlobIsAnInput() throws Exception {
+		File other = new File(workDir, "cluster/other");
+		other.mkdirs();
+		FileCopyUtils.copy("i j\n".getBytes("UTF-8"), new File(other, "part-00000"));
+		LocalJobRun run = new LocalJobRun(new Configuration(), runDir, Long.MAX_VALUE, 0);
+		String[] args = run.prepare(new String[] { new File(workDir, "cluster/*").getAbsolutePath(),
+				new File(workDir, "cluster/out*").getAbsolutePath() });
+		Assert.assertEquals(new File(runDir, "input-0").getAbsolutePath(), args[0]);
+		Assert.assertEquals(new File(runDir, "output-1").getAbsolutePath(), args[1]);
+		// the files of both matched directories, whatever their names
+		Assert.assertEquals(3, new File(args[0]).listFiles().length);
+		Assert.assertTrue(run.getTimings().containsKey("sample (3 files, 20 bytes)"));
+	}
+
+	@Test
+	public void testWordCount() throws Exception {
+		LocalJobRun run = new LocalJobRun(new Configuration(), runDir, Long.MAX_VALUE, 0);
+		String[] args = run.prepare(new String[] { inputDir.getAbsolutePath(),
+				new File(workDir, "cluster/output").getAbsolutePath() });
+		JarRunner runner = new JarRunner(new JarCache(new File(workDir, "cache"), Long.MAX_VALUE, 4),
+				new SecurityUtil());
+		Assert.assertEquals(0, runner.run(new File("src/test/resources/hadoop-examples-1.0.3.jar"),
+				"org.apache.hadoop.examples.WordCount", args, run.getLocalConfiguration(), null));
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		run.printOutputs(new PrintStream(output, true), 3);
+		String printed = output.toString();
+		Assert.assertTrue(printed, printed.contains("part-r-00000 <=="));
+		Assert.assertTrue(printed, printed.contains("a\t1\nb\t1\nc\t1\n"));
+		Assert.assertFalse(printed, printed.contains("d\t1"));
+		Assert.assertTrue(run.getTimings().containsKey("output (1 part files)"));
+	}
+}
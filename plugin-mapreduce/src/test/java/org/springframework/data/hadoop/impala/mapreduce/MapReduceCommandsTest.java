@@ -141,7 +141,8 @@ public class MapReduceCommandsTest {
 		shell.run(argv.toArray(new String[0]));
 		
 		File jarFile = new File(hadoopExampleJarFile);		
-		mrCmds.jar(jarFile.getAbsolutePath(), "org.apache.hadoop.examples.WordCount","/tmp/wc-input2 /tmp/wc-output2");
+		mrCmds.jar(jarFile.getAbsolutePath(), "org.apache.hadoop.examples.WordCount","/tmp/wc-input2 /tmp/wc-output2", false,
+				false, 67108864, 0, 10, false);
 	}
 	
 
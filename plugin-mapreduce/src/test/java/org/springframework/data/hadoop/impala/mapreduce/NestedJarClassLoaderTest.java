@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class NestedJarClassLoaderTest {
+
+	private File workDir = new File("/tmp/impala-nested-jar-test");
+
+	private File libDir = new File(workDir, "lib");
+
+	private File jar = new File(workDir, "job.jar");
+
+	private NestedJarClassLoader loader;
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+		workDir.mkdirs();
+		ByteArrayOutputStream lib = new ByteArrayOutputStream();
+		JarOutputStream libOut = new JarOutputStream(lib);
+		add(libOut, "c.txt", "nested");
+		add(libOut, "b.txt", "lib");
+		libOut.close();
+
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		add(out, "a.txt", "root");
+		add(out, "classes/b.txt", "classes");
+		add(out, "lib/inner.jar", lib.toString("ISO-8859-1"));
+		out.close();
+		loader = new NestedJarClassLoader(jar, libDir, new File[0], null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		loader.close();
+		FileSystemUtils.deleteRecursively(workDir);
+	}
+
+	@Test
+	public void testJarIsReadInPlace() throws Exception {
+		Assert.assertEquals("root", read(loader.getResource("a.txt")));
+		Assert.assertEquals("classes", read(loader.getResource("b.txt")));
+		Assert.assertTrue(loader.getResource("b.txt").toString().startsWith("jar:" + jar.toURI().toURL()));
+		Assert.assertFalse(libDir.exists());
+	}
+
+	@Test
+	public void testNestedJarIsCopiedOnDemand() throws Exception {
+		Assert.assertEquals("nested", read(loader.getResource("c.txt")));
+		Assert.assertTrue(new File(libDir, "inner.jar").isFile());
+
+		List<URL> urls = Collections.list(loader.getResources("b.txt"));
+		Assert.assertEquals(2, urls.size());
+		Assert.assertEquals("classes", read(urls.get(0)));
+		Assert.assertEquals("lib", read(urls.get(1)));
+	}
+
+	@Test
+	public void testClassesComeBeforeCopiedNestedJars() throws Exception {
+		Assert.assertEquals("nested", read(loader.getResource("c.txt")));
+		// the nested jar is now on the class path, and still searched after classes/
+		Assert.assertEquals("classes", read(loader.getResource("b.txt")));
+		Assert.assertEquals("root", read(loader.getResource("a.txt")));
+	}
+
+	private void add(JarOutputStream out, String name, String content) throws Exception {
+		out.putNextEntry(new JarEntry(name));
+		out.write(content.getBytes("ISO-8859-1"));
+		out.closeEntry();
+	}
+
+	private String read(URL url) throws Exception {
+		OutputStream out = new ByteArrayOutputStream();
+		FileCopyUtils.copy(url.openStream(), out);
+		return out.toString();
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class OutputPreviewTest {
+
+	private File workDir = new File("/tmp/impala-output-preview-test");
+
+	private File outputDir = new File(workDir, "output");
+
+	private Configuration configuration = new Configuration();
+
+	private FileSystem fs;
+
+	@Before
+	public void setUp() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+		outputDir.mkdirs();
+		fs = FileSystem.getLocal(configuration);
+		FileCopyUtils.copy("a\t1\nb\t2\nc\t3\n".getBytes("UTF-8"), new File(outputDir, "part-00000"));
+		OutputStream gz = new GZIPOutputStream(new FileOutputStream(new File(outputDir, "part-00001.gz")));
+		FileCopyUtils.copy("d\t4\ne\t5\n".getBytes("UTF-8"), gz);
+		SequenceFile.Writer writer = SequenceFile.createWriter(fs, configuration, new Path(new File(outputDir,
+				"part-00002").getAbsolutePath()), Text.class, IntWritable.class);
+		writer.append(new Text("f"), new IntWritable(6));
+		writer.append(new Text("g"), new IntWritable(7));
+		writer.close();
+		FileCopyUtils.copy(new byte[0], new File(outputDir, "_SUCCESS"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileSystemUtils.deleteRecursively(workDir);
+	}
+
+	@Test
+	public void testHead() throws Exception {
+		OutputPreview preview = new OutputPreview(fs, new Path(outputDir.getAbsolutePath()), configuration);
+		Assert.assertEquals(3, preview.getParts().size());
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Assert.assertEquals(6, preview.head(2, 0, new PrintStream(output, true)));
+		String printed = output.toString().replaceAll("==> .*/", "==> ");
+		Assert.assertEquals("==> part-00000 <==\na\t1\nb\t2\n==> part-00001.gz <==\nd\t4\ne\t5\n"
+				+ "==> part-00002 <==\nf\t6\ng\t7\n", printed);
+
+		// stops before opening the next part files
+		output.reset();
+		Assert.assertEquals(3, preview.head(2, 3, new PrintStream(output, true)));
+		Assert.assertFalse(output.toString().contains("part-00002"));
+	}
+
+	@Test
+	public void testSample() throws Exception {
+		OutputPreview preview = new OutputPreview(fs, new Path(outputDir.getAbsolutePath()), configuration);
+		List<String[]> sample = preview.sample(3, new Random(42));
+		Assert.assertEquals(3, sample.size());
+		Set<String> records = new HashSet<String>();
+		for (String[] record : sample) {
+			records.add(record[1]);
+			Assert.assertTrue(record[0].startsWith("part-"));
+		}
+		Assert.assertEquals(3, records.size());
+		Assert.assertEquals(7, preview.sample(10, new Random(42)).size());
+	}
+
+	@Test
+	public void testOutputDir() throws Exception {
+		JobConf job = new JobConf(false);
+		job.set("mapred.output.dir", outputDir.getAbsolutePath());
+		final File jobFile = new File(workDir, "job.xml");
+		OutputStream out = new FileOutputStream(jobFile);
+		job.writeXml(out);
+		out.close();
+		RunningJob runningJob = (RunningJob) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RunningJob.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return (method.getName().equals("getJobFile") ? jobFile.getAbsolutePath() : null);
+					}
+				});
+		Assert.assertEquals(new Path(outputDir.getAbsolutePath()), OutputPreview.outputDir(runningJob, configuration));
+	}
+
+	@Test
+	public void testOutputDirOfCompleteJob() throws Exception {
+		// the staging directory, job file included, is gone once the job is complete
+		final File jobFile = new File(workDir, "staging/job.xml");
+		RunningJob runningJob = (RunningJob) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RunningJob.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return (method.getName().equals("getJobFile") ? jobFile.getAbsolutePath() : null);
+					}
+				});
+		try {
+			OutputPreview.outputDir(runningJob, configuration);
+			Assert.fail("the job file does not exist");
+		} catch (IOException ex) {
+			Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("--dir"));
+		}
+		// which is then given instead
+		OutputPreview preview = new OutputPreview(fs, new Path(outputDir.getAbsolutePath()), configuration);
+		Assert.assertEquals(3, preview.getParts().size());
+	}
+}
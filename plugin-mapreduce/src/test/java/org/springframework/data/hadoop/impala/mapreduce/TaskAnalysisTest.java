@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.util.List;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.TaskID;
+import org.apache.hadoop.mapred.TaskReport;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class TaskAnalysisTest {
+
+	private static final long NOW = 1000000;
+
+	@Test
+	public void testStragglersAndSkewAreFlagged() {
+		TaskReport[] maps = new TaskReport[10];
+		for (int i = 0; i < maps.length; i++) {
+			maps[i] = report("task_201201010000_0001_m_00000" + i, NOW - 100000, NOW - 100000 + 10000 + i * 100,
+					"org.apache.hadoop.mapred.Task$Counter", "MAP_INPUT_BYTES", 1000);
+		}
+		TaskReport[] reduces = {
+				report("task_201201010000_0001_r_000000", NOW - 50000, NOW - 40000,
+						"org.apache.hadoop.mapred.Task$Counter", "REDUCE_SHUFFLE_BYTES", 100),
+				report("task_201201010000_0001_r_000001", NOW - 50000, NOW - 39000,
+						"org.apache.hadoop.mapred.Task$Counter", "REDUCE_SHUFFLE_BYTES", 120),
+				// still running, with most of the keys
+				report("task_201201010000_0001_r_000002", NOW - 50000, 0,
+						"org.apache.hadoop.mapred.Task$Counter", "REDUCE_SHUFFLE_BYTES", 5000),
+				// not started
+				report("task_201201010000_0001_r_000003", 0, 0, "none", "none", 0) };
+
+		TaskAnalysis analysis = new TaskAnalysis(maps, reduces, NOW);
+		List<TaskAnalysis.Distribution> distributions = analysis.getDistributions();
+		Assert.assertEquals(2, distributions.size());
+		TaskAnalysis.Distribution map = distributions.get(0);
+		Assert.assertEquals("map", map.getType());
+		Assert.assertEquals(10, map.getTasks());
+		Assert.assertEquals(10400, map.duration(50));
+		Assert.assertEquals(10900, map.duration(95));
+		Assert.assertEquals(1000, map.bytes(100));
+		TaskAnalysis.Distribution reduce = distributions.get(1);
+		Assert.assertEquals(3, reduce.getTasks());
+		Assert.assertEquals(50000, reduce.duration(100));
+
+		List<TaskAnalysis.Flagged> flagged = analysis.flag(2, 30000);
+		Assert.assertEquals(2, flagged.size());
+		Assert.assertEquals("task_201201010000_0001_r_000002", flagged.get(0).getTaskId());
+		Assert.assertEquals("straggler", flagged.get(0).getReason());
+		Assert.assertTrue(flagged.get(0).isRunning());
+		Assert.assertEquals("skew", flagged.get(1).getReason());
+		Assert.assertEquals(5000 / 120.0, flagged.get(1).getRatio(), 0.001);
+		// too short to be stragglers
+		Assert.assertEquals(1, analysis.flag(2, 60000).size());
+	}
+
+	private TaskReport report(final String id, final long start, final long finish, String group, String counter,
+			long value) {
+		final Counters counters = new Counters();
+		counters.incrCounter(group, counter, value);
+		return new TaskReport() {
+			@Override
+			public TaskID getTaskID() {
+				return TaskID.forName(id);
+			}
+
+			@Override
+			public long getStartTime() {
+				return start;
+			}
+
+			@Override
+			public long getFinishTime() {
+				return finish;
+			}
+
+			@Override
+			public Counters getCounters() {
+				return counters;
+			}
+		};
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.data.hadoop.impala.mapreduce;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.mapred.TaskAttemptID;
+import org.apache.hadoop.mapred.TaskCompletionEvent;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Jarred Li
+ *
+ */
+public class TaskLogFetcherTest {
+
+	private static final String ATTEMPT = "attempt_201201010000_0001_m_000000_0";
+
+	private HttpServer server;
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		// stands in for the tasklog servlet of a task tracker
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/tasklog", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String query = exchange.getRequestURI().getQuery();
+				byte[] body = null;
+				if (query.contains("attemptid=" + ATTEMPT) && query.contains("filter=stderr")) {
+					body = "starting\nException in thread \"main\"\n\tat Foo.bar\nexiting\n".getBytes("UTF-8");
+				}
+				else if (query.contains("attemptid=" + ATTEMPT) && query.contains("filter=stdout")) {
+					body = "hello\n".getBytes("UTF-8");
+				}
+				if (body == null) {
+					exchange.sendResponseHeaders(404, -1);
+				}
+				else {
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+		dir = new File(System.getProperty("java.io.tmpdir"), "impala-task-logs-test-" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testFetch() throws Exception {
+		TaskCompletionEvent event = new TaskCompletionEvent(0, TaskAttemptID.forName(ATTEMPT), 0, true,
+				TaskCompletionEvent.Status.FAILED, "http://localhost:" + server.getAddress().getPort());
+		List<TaskLogFetcher.Log> logs = new TaskLogFetcher(dir, 2, 5000).fetch(Collections.singletonList(event),
+				TaskLogFetcher.LOGS);
+		Assert.assertEquals(3, logs.size());
+
+		TaskLogFetcher.Log stdout = logs.get(0);
+		Assert.assertEquals("stdout", stdout.getName());
+		Assert.assertNull(stdout.getFailure());
+		Assert.assertEquals(6, stdout.getBytes());
+		Assert.assertEquals(new File(dir, ATTEMPT + ".stdout"), stdout.getFile());
+
+		TaskLogFetcher.Log stderr = logs.get(1);
+		Assert.assertNull(stderr.getFailure());
+		Assert.assertEquals(Arrays.asList("\tat Foo.bar", "exiting"), TaskLogFetcher.tail(stderr, 2));
+		Assert.assertEquals(Arrays.asList("Exception in thread \"main\""),
+				TaskLogFetcher.grep(stderr, Pattern.compile("Exception")));
+
+		TaskLogFetcher.Log syslog = logs.get(2);
+		Assert.assertEquals(ATTEMPT, syslog.getAttemptId());
+		Assert.assertNotNull(syslog.getFailure());
+		Assert.assertTrue(syslog.getFailure().contains("404"));
+	}
+
+	@Test
+	public void testUrl() throws Exception {
+		Assert.assertEquals("http://tracker:50060/tasklog?plaintext=true&attemptid=" + ATTEMPT + "&filter=syslog",
+				TaskLogFetcher.url("tracker:50060", ATTEMPT, "syslog").toString());
+	}
+}